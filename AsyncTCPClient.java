@@ -0,0 +1,315 @@
+package pki;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The asynchronous PKI client that pipelines many messages over a single connection.
+ * The thread that sends a message encrypts and writes it, and moves on without waiting for the server;
+ * the future it gets back completes once the server acks the message, and fails if the server could not
+ * decrypt it or the connection is lost. At most a window of messages is in flight at a time, and sending
+ * blocks while the window is full, so a fast sender keeps to the pace of the server instead of queueing
+ * without bound.
+ * The acks are read on a thread of the client, which also runs the callbacks that are not attached
+ * asynchronously; such callbacks must not send messages, as they would wait for the very thread that
+ * frees the window
+ *
+ * @author Sua "Joshua" Lee
+ * @version 17-10-2026
+ */
+public class AsyncTCPClient implements AutoCloseable {
+	/**
+	 * The number of messages in flight suggested for a connection
+	 */
+	public static final int DEFAULT_WINDOW = 64;
+
+	// list of instance variables
+	private final TCPClient client;
+	private final int window;
+	private final Semaphore permits;
+	private final Map<Integer, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+	private final Object sendLock = new Object();
+	private int sent;
+	private volatile IOException failure;
+
+	/**
+	 * Constructor for AsyncTCPClient that learns the key of the server through a handshake
+	 * @param targetAddress The address of the target (server)
+	 * @param bufferSize The initial size of the buffer; it grows for longer messages
+	 * @param clientKey The key for client
+	 * @param mode The type of encryption, which the server must agree to
+	 * @param window The largest number of messages in flight at a time
+	 * @throws IOException If the client cannot connect to the server
+	 */
+	public AsyncTCPClient(String targetAddress, int bufferSize, RSAKey clientKey, int mode, int window)
+			throws IOException
+	{
+		this(new TCPClient(targetAddress, bufferSize, clientKey, mode), targetAddress, window);
+	}
+
+	/**
+	 * Constructor for AsyncTCPClient
+	 * @param targetAddress The address of the target (server)
+	 * @param bufferSize The initial size of the buffer; it grows for longer messages
+	 * @param clientKey The key for client
+	 * @param publicE The e value of the server's public key
+	 * @param publicN The n value of the server's public key
+	 * @param window The largest number of messages in flight at a time
+	 * @throws IOException If the client cannot connect to the server
+	 */
+	public AsyncTCPClient(String targetAddress, int bufferSize, RSAKey clientKey, BigInteger publicE,
+			BigInteger publicN, int window) throws IOException
+	{
+		this(new TCPClient(targetAddress, bufferSize, clientKey, publicE, publicN), targetAddress, window);
+	}
+
+	/**
+	 * Constructor for AsyncTCPClient that takes over a connected client, asks the server to ack
+	 * every later message and starts reading the acks
+	 * @param client The client, connected to the server
+	 * @param targetAddress The address of the target (server)
+	 * @param window The largest number of messages in flight at a time
+	 * @throws IOException If the client is not connected
+	 */
+	AsyncTCPClient(TCPClient client, String targetAddress, int window) throws IOException
+	{
+		if (window < 1)
+		{
+			client.close();
+			throw new IllegalArgumentException("the window must hold at least one message, not " + window);
+		}
+
+		if (!client.isConnected())
+		{
+			throw new IOException("cannot connect to " + targetAddress + ":" + TCPServer.DEFAULT_PORT);
+		}
+
+		this.client = client;
+		this.window = window;
+		permits = new Semaphore(window);
+
+		client.writeControl(MessageFrame.ACKNOWLEDGE);
+
+		DataInputStream acks = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+		Thread reader = new Thread(() -> readAcks(acks), "pki-acks");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/**
+	 * Encrypt the message using the given mode and send it, waiting only while the window is full
+	 * @param message The given message
+	 * @param mode One of TCPClient.AUTHENTICATE, TCPClient.ENCRYPT, TCPClient.BOTH, TCPClient.HYBRID
+	 * or TCPClient.SIGNED_HYBRID, matching the choices of PKIClientDriver
+	 * @return The future that completes once the server acks the message, and fails if the message
+	 * cannot be encrypted, for instance because it holds a value the key is too small for
+	 */
+	public CompletableFuture<Void> send(String message, int mode)
+	{
+		CompletableFuture<Void> acked = new CompletableFuture<>();
+
+		try
+		{
+			permits.acquire();
+		}
+		catch (InterruptedException interrupted)
+		{
+			Thread.currentThread().interrupt();
+			acked.completeExceptionally(interrupted);
+			return acked;
+		}
+
+		// the client reuses its buffers, so the messages are encrypted one at a time
+		synchronized (sendLock)
+		{
+			int sequence = ++sent;
+			inFlight.put(sequence, acked);
+
+			try
+			{
+				client.sendMessage(message, mode);
+			}
+			catch (IOException io)
+			{
+				fail(io);
+			}
+			catch (RuntimeException invalid)
+			{
+				// the message could not be encrypted, so nothing was written and the next message takes its number
+				sent--;
+				inFlight.remove(sequence);
+				permits.release();
+				acked.completeExceptionally(invalid);
+
+				return acked;
+			}
+
+			// the messages in flight may have failed before this one joined them
+			if (failure != null)
+			{
+				complete(sequence, failure);
+			}
+		}
+
+		return acked;
+	}
+
+	/**
+	 * Get a future that completes once every message sent so far has been acked
+	 * @return The future, which fails if any of those messages fails
+	 */
+	public CompletableFuture<Void> flush()
+	{
+		return CompletableFuture.allOf(inFlight.values().toArray(new CompletableFuture<?>[0]));
+	}
+
+	/**
+	 * Get the number of messages sent but not yet acked
+	 * @return The number of messages in flight
+	 */
+	public int getInFlight()
+	{
+		return window - permits.availablePermits();
+	}
+
+	/**
+	 * Ping the server whenever no frame has been sent for the given interval
+	 * @param interval The interval, which should be shorter than the idle timeout of the server,
+	 * or 0 to stop pinging
+	 * @param unit The unit of the interval
+	 */
+	public void setKeepAlive(long interval, TimeUnit unit)
+	{
+		client.setKeepAlive(interval, unit);
+	}
+
+	/**
+	 * Wait for the messages in flight to be acked, end the session, and fail the messages that were not acked
+	 * @param timeout The longest time to wait for the acks
+	 * @param unit The unit of the timeout
+	 */
+	public void shutdown(long timeout, TimeUnit unit)
+	{
+		try
+		{
+			flush().get(timeout, unit);
+		}
+		catch (ExecutionException | TimeoutException notAcked)
+		{
+			// the messages still in flight fail below
+		}
+		catch (InterruptedException interrupted)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		fail(new IOException("the client was closed"));
+		client.close();
+	}
+
+	/**
+	 * End the session, waiting up to ten seconds for the messages in flight to be acked
+	 */
+	@Override
+	public void close()
+	{
+		shutdown(10, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Read the acks of the server until the connection ends, completing the message each one answers
+	 * @param acks The stream of the frames the server sends back
+	 */
+	private void readAcks(DataInputStream acks)
+	{
+		byte[] header = new byte[MessageFrame.HEADER_SIZE];
+
+		try
+		{
+			while (true)
+			{
+				acks.readFully(header);
+				MessageFrame frame = MessageFrame.readFrom(ByteBuffer.wrap(header));
+
+				switch (frame.getMode()) {
+				case MessageFrame.ACK:
+					complete(frame.getSequence(), null);
+					break;
+
+				case MessageFrame.NACK:
+					complete(frame.getSequence(),
+							new ProtocolException("the server could not decrypt message " + frame.getSequence()));
+					break;
+
+				case MessageFrame.PING:
+					break;
+
+				case MessageFrame.CLOSE:
+					throw new EOFException("the server closed the session");
+
+				default:
+					throw new ProtocolException("unexpected frame from the server, mode " + frame.getMode());
+				}
+			}
+		}
+		catch (IOException io)
+		{
+			fail(io);
+		}
+	}
+
+	/**
+	 * Complete a message in flight and free its place in the window
+	 * @param sequence The number of the message
+	 * @param cause Why the message failed, or null if it was acked
+	 */
+	private void complete(int sequence, IOException cause)
+	{
+		CompletableFuture<Void> acked = inFlight.remove(sequence);
+
+		if (acked == null)
+		{
+			return;
+		}
+
+		permits.release();
+
+		if (cause == null)
+		{
+			acked.complete(null);
+		}
+		else
+		{
+			acked.completeExceptionally(cause);
+		}
+	}
+
+	/**
+	 * Fail every message in flight, and every message sent from now on
+	 * @param cause Why the connection cannot carry messages any longer
+	 */
+	private void fail(IOException cause)
+	{
+		if (failure == null)
+		{
+			failure = cause;
+		}
+
+		for (Integer sequence : inFlight.keySet())
+		{
+			complete(sequence, failure);
+		}
+	}
+}
@@ -0,0 +1,236 @@
+package pki;
+
+import java.math.BigInteger;
+import java.util.InputMismatchException;
+
+/**
+ * The arbitrary-precision implementation of public key infrastructure,
+ * intended for realistic moduli of 1024 to 4096 bits
+ *
+ * @author Sua "Joshua" Lee
+ * @version 17-10-2026
+ */
+public class BigPKIKey implements RSAKey {
+	// the certainty used when checking p and q for primality
+	private static final int PRIME_CERTAINTY = 64;
+
+	// list of instance fields
+	private BigInteger n;
+	private BigInteger e;
+	private BigInteger nPhi;
+	private BigInteger d;
+
+	// the factors of n and the values used by the Chinese Remainder Theorem
+	private BigInteger p;
+	private BigInteger q;
+	private BigInteger dP;
+	private BigInteger dQ;
+	private BigInteger qInv;
+
+	/**
+	 * Constructor for BigPKIKey.
+	 * p and q must be prime numbers that are not equal to each other.
+	 * The user also needs to choose e that is coprime to \Phi(n)
+	 * @param p The value of p
+	 * @param q The value of q
+	 * @param e The value of e
+	 */
+	public BigPKIKey(BigInteger p, BigInteger q, BigInteger e)
+	{
+		this(p, q, e, validatedInverse(p, q, e));
+	}
+
+	/**
+	 * Constructor for BigPKIKey from values that are already known to be valid,
+	 * such as freshly generated primes; no primality checks are repeated
+	 * @param p The value of p
+	 * @param q The value of q
+	 * @param e The value of e
+	 * @param d The value of d, the inverse of e modulo \Phi(n)
+	 */
+	BigPKIKey(BigInteger p, BigInteger q, BigInteger e, BigInteger d)
+	{
+		this(p, q, e, d, reduceExponent(d, p), reduceExponent(d, q), q.modInverse(p));
+	}
+
+	/**
+	 * Constructor for BigPKIKey from values that were computed and checked before,
+	 * such as a key read from a PKIKeyStore; nothing is checked or recomputed
+	 * @param p The value of p
+	 * @param q The value of q
+	 * @param e The value of e
+	 * @param d The value of d, the inverse of e modulo \Phi(n)
+	 * @param dP The value of d reduced modulo p - 1
+	 * @param dQ The value of d reduced modulo q - 1
+	 * @param qInv The inverse of q modulo p
+	 */
+	BigPKIKey(BigInteger p, BigInteger q, BigInteger e, BigInteger d, BigInteger dP, BigInteger dQ,
+			BigInteger qInv)
+	{
+		// set the values for the key
+		n = p.multiply(q);
+		nPhi = p.subtract(BigInteger.ONE).multiply(q.subtract(BigInteger.ONE));
+		this.e = e;
+		this.d = d;
+
+		// keep the factors so that private operations can work modulo p and q
+		this.p = p;
+		this.q = q;
+		this.dP = dP;
+		this.dQ = dQ;
+		this.qInv = qInv;
+	}
+
+	@Override
+	public BigInteger encryptPublic(BigInteger m, BigInteger publicE, BigInteger publicN)
+	{
+		// the given m should be less than n
+		if (m.signum() < 0 || m.compareTo(publicN) >= 0)
+		{
+			throw new InputMismatchException();
+		}
+
+		return m.modPow(publicE, publicN);
+	}
+
+	@Override
+	public BigInteger encryptPrivate(BigInteger m)
+	{
+		// the given m should be less than n
+		if (m.signum() < 0 || m.compareTo(n) >= 0)
+		{
+			throw new InputMismatchException();
+		}
+
+		return privateExponentiation(m);
+	}
+
+	@Override
+	public BigInteger decryptPublic(BigInteger c, BigInteger publicE, BigInteger publicN)
+	{
+		return c.modPow(publicE, publicN);
+	}
+
+	@Override
+	public BigInteger decryptPrivate(BigInteger c)
+	{
+		return privateExponentiation(c.mod(n));
+	}
+
+	@Override
+	public BigInteger getPublicExponent()
+	{
+		return e;
+	}
+
+	@Override
+	public BigInteger getPrivateExponent()
+	{
+		return d;
+	}
+
+	@Override
+	public BigInteger getModulus()
+	{
+		return n;
+	}
+
+	/**
+	 * Get the first prime factor of n, kept for the Chinese Remainder Theorem
+	 * @return The value of p
+	 */
+	BigInteger getP()
+	{
+		return p;
+	}
+
+	/**
+	 * Get the second prime factor of n, kept for the Chinese Remainder Theorem
+	 * @return The value of q
+	 */
+	BigInteger getQ()
+	{
+		return q;
+	}
+
+	/**
+	 * Get d reduced modulo p - 1, kept for the Chinese Remainder Theorem
+	 * @return The value of dP
+	 */
+	BigInteger getDP()
+	{
+		return dP;
+	}
+
+	/**
+	 * Get d reduced modulo q - 1, kept for the Chinese Remainder Theorem
+	 * @return The value of dQ
+	 */
+	BigInteger getDQ()
+	{
+		return dQ;
+	}
+
+	/**
+	 * Get the inverse of q modulo p, kept for the Chinese Remainder Theorem
+	 * @return The value of qInv
+	 */
+	BigInteger getQInv()
+	{
+		return qInv;
+	}
+
+	/**
+	 * Calculate x^d mod n using the Chinese Remainder Theorem;
+	 * two half-size exponentiations are recombined using Garner's formula
+	 * @param x The value of x
+	 * @return The value of x^d mod n
+	 */
+	private BigInteger privateExponentiation(BigInteger x)
+	{
+		BigInteger mP = x.modPow(dP, p);
+		BigInteger mQ = x.modPow(dQ, q);
+
+		// h = qInv * (mP - mQ) mod p, and then x^d mod n = mQ + h * q
+		BigInteger h = qInv.multiply(mP.subtract(mQ)).mod(p);
+
+		return mQ.add(h.multiply(q));
+	}
+
+	/**
+	 * Check if the given values match the conditions of the key, and find d
+	 * @param p The value of p
+	 * @param q The value of q
+	 * @param e The value of e
+	 * @return The value of d
+	 */
+	private static BigInteger validatedInverse(BigInteger p, BigInteger q, BigInteger e)
+	{
+		BigInteger potentialNPhi = p.subtract(BigInteger.ONE).multiply(q.subtract(BigInteger.ONE));
+
+		if (p.signum() <= 0 || q.signum() <= 0 || e.signum() <= 0
+				|| !p.isProbablePrime(PRIME_CERTAINTY) || !q.isProbablePrime(PRIME_CERTAINTY)
+				|| p.equals(q) || !e.gcd(potentialNPhi).equals(BigInteger.ONE))
+		{
+			throw new InputMismatchException();
+		}
+
+		return e.modInverse(potentialNPhi);
+	}
+
+	/**
+	 * Reduce the private exponent modulo (prime - 1) for use with CRT.
+	 * A zero remainder is replaced with (prime - 1) so that the reduced exponent
+	 * still maps multiples of the prime to 0
+	 * @param exponent The value of the private exponent
+	 * @param prime The prime modulus
+	 * @return The reduced exponent
+	 */
+	private static BigInteger reduceExponent(BigInteger exponent, BigInteger prime)
+	{
+		BigInteger primeMinusOne = prime.subtract(BigInteger.ONE);
+		BigInteger reduced = exponent.mod(primeMinusOne);
+
+		return reduced.signum() == 0 ? primeMinusOne : reduced;
+	}
+}
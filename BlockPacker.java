@@ -0,0 +1,124 @@
+package pki;
+
+import java.math.BigInteger;
+
+/**
+ * The layer between the bytes of a message and the values given to the RSA keys.
+ * The message is cut into blocks of floor(log256(n)) bytes, the most that is always below n,
+ * and each block is read as a single big-endian value, so that one exponentiation
+ * covers several bytes of the message. The last block holds whatever bytes are left
+ *
+ * @author Sua "Joshua" Lee
+ * @version 17-10-2026
+ */
+public final class BlockPacker {
+	private BlockPacker()
+	{
+	}
+
+	/**
+	 * Get the number of message bytes packed into a single block below the given modulus.
+	 * Moduli of 256 or less still carry one byte per block, as long as the bytes stay below them
+	 * @param modulus The value of the modulus
+	 * @return The number of bytes in a full block
+	 */
+	public static int blockSize(BigInteger modulus)
+	{
+		return Math.max(1, (modulus.bitLength() - 1) / Byte.SIZE);
+	}
+
+	/**
+	 * Get the number of blocks needed for a message of the given length
+	 * @param length The length of the message in bytes
+	 * @param blockSize The number of bytes in a full block
+	 * @return The number of blocks, counting the last partial one
+	 */
+	public static int blockCount(int length, int blockSize)
+	{
+		return (int) (((long) length + blockSize - 1) / blockSize);
+	}
+
+	/**
+	 * Pack up to eight bytes of the message into a single value
+	 * @param src The bytes of the message
+	 * @param offset The offset of the first byte of the block
+	 * @param size The number of bytes in the block, at most Long.BYTES - 1
+	 * @return The value of the block
+	 */
+	public static long pack(byte[] src, int offset, int size)
+	{
+		long value = 0;
+
+		for (int i = offset; i < offset + size; i++)
+		{
+			value = (value << Byte.SIZE) | (src[i] & 0xFF);
+		}
+
+		return value;
+	}
+
+	/**
+	 * Pack any number of bytes of the message into a single value
+	 * @param src The bytes of the message
+	 * @param offset The offset of the first byte of the block
+	 * @param size The number of bytes in the block
+	 * @return The value of the block
+	 */
+	public static BigInteger packBig(byte[] src, int offset, int size)
+	{
+		if (size < Long.BYTES)
+		{
+			return BigInteger.valueOf(pack(src, offset, size));
+		}
+
+		byte[] magnitude = new byte[size];
+		System.arraycopy(src, offset, magnitude, 0, size);
+
+		return new BigInteger(1, magnitude);
+	}
+
+	/**
+	 * Unpack a value into the bytes of the message
+	 * @param value The value of the block
+	 * @param dst The bytes of the message
+	 * @param offset The offset of the first byte of the block
+	 * @param size The number of bytes in the block, at most Long.BYTES
+	 */
+	public static void unpack(long value, byte[] dst, int offset, int size)
+	{
+		for (int i = offset + size - 1; i >= offset; i--)
+		{
+			dst[i] = (byte) value;
+			value >>>= Byte.SIZE;
+		}
+	}
+
+	/**
+	 * Unpack a value of any size into the bytes of the message
+	 * @param value The value of the block
+	 * @param dst The bytes of the message
+	 * @param offset The offset of the first byte of the block
+	 * @param size The number of bytes in the block
+	 */
+	public static void unpack(BigInteger value, byte[] dst, int offset, int size)
+	{
+		if (size <= Long.BYTES)
+		{
+			unpack(value.longValue(), dst, offset, size);
+			return;
+		}
+
+		byte[] magnitude = value.toByteArray();
+
+		// toByteArray may add a leading sign byte of 0 or return fewer bytes than the block
+		int skip = Math.max(0, magnitude.length - size);
+		int pad = size - (magnitude.length - skip);
+
+		for (int i = 0; i < pad; i++)
+		{
+			dst[offset + i] = 0;
+		}
+
+		System.arraycopy(magnitude, skip, dst, offset + pad, magnitude.length - skip);
+	}
+}
@@ -0,0 +1,90 @@
+package pki;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The fork-join task that applies an operation to a range of blocks.
+ * The range is split in halves until each piece is small enough for a single worker;
+ * every block is independent, so the result matches the sequential one
+ *
+ * @author Sua "Joshua" Lee
+ * @version 17-10-2026
+ */
+final class BlockTask extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The smallest number of blocks processed in parallel by default
+	 */
+	static final int DEFAULT_THRESHOLD = 1024;
+
+	// the number of pieces given to every worker, so that uneven pieces even out
+	private static final int PIECES_PER_WORKER = 4;
+
+	/**
+	 * The operation applied to a range of blocks
+	 */
+	interface Operation {
+		/**
+		 * Apply the operation to the blocks from the first index up to the last one, excluded
+		 * @param from The index of the first block
+		 * @param to The index after the last block
+		 */
+		void apply(int from, int to);
+	}
+
+	// list of instance fields
+	private final Operation operation;
+	private final int from;
+	private final int to;
+	private final int pieceSize;
+
+	/**
+	 * Constructor for BlockTask
+	 * @param operation The operation to apply
+	 * @param from The index of the first block
+	 * @param to The index after the last block
+	 * @param pieceSize The largest number of blocks processed without splitting
+	 */
+	private BlockTask(Operation operation, int from, int to, int pieceSize)
+	{
+		this.operation = operation;
+		this.from = from;
+		this.to = to;
+		this.pieceSize = pieceSize;
+	}
+
+	/**
+	 * Apply the operation to the given number of blocks,
+	 * in parallel on the given pool if there are at least threshold of them
+	 * @param pool The pool running the pieces, or null to always run on the calling thread
+	 * @param threshold The smallest number of blocks processed in parallel
+	 * @param count The number of blocks
+	 * @param operation The operation to apply
+	 */
+	static void run(ForkJoinPool pool, int threshold, int count, Operation operation)
+	{
+		if (pool == null || count < threshold || pool.getParallelism() < 2)
+		{
+			operation.apply(0, count);
+			return;
+		}
+
+		int pieceSize = Math.max(1, count / (pool.getParallelism() * PIECES_PER_WORKER));
+		pool.invoke(new BlockTask(operation, 0, count, pieceSize));
+	}
+
+	@Override
+	protected void compute()
+	{
+		if (to - from <= pieceSize)
+		{
+			operation.apply(from, to);
+			return;
+		}
+
+		int middle = (from + to) >>> 1;
+		invokeAll(new BlockTask(operation, from, middle, pieceSize), new BlockTask(operation, middle, to, pieceSize));
+	}
+}
@@ -0,0 +1,131 @@
+package pki;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+/**
+ * Conversion between ciphertext values and the bytes sent over the socket.
+ * Every value is written as a fixed-width big-endian integer
+ * that is just wide enough to hold any value below the given modulus.
+ * Values that fit in a long are written straight into a ByteBuffer without any allocation
+ *
+ * @author Sua "Joshua" Lee
+ * @version 17-10-2026
+ */
+public final class CiphertextCodec {
+	private CiphertextCodec()
+	{
+	}
+
+	/**
+	 * Get the number of bytes needed to hold any value below the given modulus
+	 * @param modulus The value of the modulus
+	 * @return The width of a single block in bytes
+	 */
+	public static int blockWidth(BigInteger modulus)
+	{
+		return (modulus.subtract(BigInteger.ONE).bitLength() + 7) / 8;
+	}
+
+	/**
+	 * Write the given value at the position of the buffer as a fixed-width big-endian integer,
+	 * and advance the position by the width
+	 * @param dst The destination buffer
+	 * @param value The value to write; must be non-negative and fit in the width
+	 * @param width The width of the block in bytes, at most Long.BYTES
+	 */
+	public static void putBlock(ByteBuffer dst, long value, int width)
+	{
+		for (int shift = (width - 1) * Byte.SIZE; shift >= 0; shift -= Byte.SIZE)
+		{
+			dst.put((byte) (value >>> shift));
+		}
+	}
+
+	/**
+	 * Write the given value at the position of the buffer as a fixed-width big-endian integer,
+	 * and advance the position by the width
+	 * @param dst The destination buffer
+	 * @param value The value to write; must be non-negative and fit in the width
+	 * @param width The width of the block in bytes
+	 */
+	public static void putBlock(ByteBuffer dst, BigInteger value, int width)
+	{
+		if (width <= Long.BYTES)
+		{
+			putBlock(dst, value.longValue(), width);
+			return;
+		}
+
+		byte[] magnitude = value.toByteArray();
+
+		// toByteArray may add a leading sign byte of 0 or return fewer bytes than the width
+		int skip = Math.max(0, magnitude.length - width);
+
+		for (int pad = width - (magnitude.length - skip); pad > 0; pad--)
+		{
+			dst.put((byte) 0);
+		}
+
+		dst.put(magnitude, skip, magnitude.length - skip);
+	}
+
+	/**
+	 * Read a fixed-width big-endian integer at the position of the buffer,
+	 * and advance the position by the width
+	 * @param src The source buffer
+	 * @param width The width of the block in bytes, at most Long.BYTES
+	 * @return The value of the block
+	 */
+	public static long getBlock(ByteBuffer src, int width)
+	{
+		long value = 0;
+
+		for (int i = 0; i < width; i++)
+		{
+			value = (value << Byte.SIZE) | (src.get() & 0xFF);
+		}
+
+		return value;
+	}
+
+	/**
+	 * Read a fixed-width big-endian integer of any width at the position of the buffer,
+	 * and advance the position by the width
+	 * @param src The source buffer
+	 * @param width The width of the block in bytes
+	 * @return The value of the block
+	 */
+	public static BigInteger getBigBlock(ByteBuffer src, int width)
+	{
+		if (width < Long.BYTES)
+		{
+			return BigInteger.valueOf(getBlock(src, width));
+		}
+
+		byte[] magnitude = new byte[width];
+		src.get(magnitude);
+
+		return new BigInteger(1, magnitude);
+	}
+
+	/**
+	 * Format the given bytes as hexadecimal digits for printing
+	 * @param src The source array
+	 * @param offset The offset of the first byte to format
+	 * @param length The number of bytes to format
+	 * @return The hexadecimal digits of the bytes
+	 */
+	public static String toHex(byte[] src, int offset, int length)
+	{
+		StringBuilder hex = new StringBuilder(length * 2);
+
+		for (int i = offset; i < offset + length; i++)
+		{
+			hex.append(Character.forDigit((src[i] >> 4) & 0xF, 16));
+			hex.append(Character.forDigit(src[i] & 0xF, 16));
+		}
+
+		return hex.toString();
+	}
+}
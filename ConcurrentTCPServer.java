@@ -0,0 +1,310 @@
+package pki;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.math.BigInteger;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * The long-running PKI server that accepts clients in a loop
+ * and serves every client on its own virtual thread.
+ * A server given the key of its client serves that client only; one without learns the key of
+ * each client through the handshake that opens its connection.
+ * A client keeps its connection, and its session, until it sends a close frame or disconnects,
+ * or until it sends nothing, not even a ping, for longer than the idle timeout.
+ * A client that asks for acks gets one as soon as each of its messages is delivered.
+ * Files are saved in the directory for files once one is set, and refused otherwise.
+ * On runtimes without virtual threads, a cached pool of platform threads is used instead
+ *
+ * @author Sua "Joshua" Lee
+ * @version 17-10-2026
+ */
+public class ConcurrentTCPServer implements AutoCloseable {
+	// the number of pending connections the operating system may queue
+	static final int BACKLOG = 1024;
+
+	// list of instance variables
+	private final ServerSocket serverSocket;
+	private final int bufferSize;
+	private final RSAKey serverKey;
+	private final PeerKeyMaterial peer;
+	private final ExecutorService connections;
+	private final Set<Socket> openSockets = ConcurrentHashMap.newKeySet();
+	private final AtomicLong clientsServed = new AtomicLong();
+	private volatile boolean running;
+	private volatile Consumer<String> messageListener;
+	private volatile int idleTimeoutMillis = (int) TCPServer.DEFAULT_IDLE_TIMEOUT_MILLIS;
+	private volatile Path fileDirectory;
+
+	/**
+	 * The constructor of ConcurrentTCPServer object; the port is bound immediately
+	 * @param bufferSize The maximum size of the buffer
+	 * @param serverKey The key for the server
+	 * @param publicE The e value of the client's public key
+	 * @param publicN The n value of the client's public key
+	 * @throws IOException If the port cannot be bound
+	 */
+	public ConcurrentTCPServer(int bufferSize, RSAKey serverKey, BigInteger publicE, BigInteger publicN)
+			throws IOException
+	{
+		this(bufferSize, serverKey, TCPServer.getPeerKeyCache().get(publicE, publicN));
+	}
+
+	/**
+	 * The constructor of ConcurrentTCPServer object that learns the key of every client
+	 * through a handshake; the port is bound immediately
+	 * @param bufferSize The maximum size of the buffer
+	 * @param serverKey The key for the server
+	 * @throws IOException If the port cannot be bound
+	 */
+	public ConcurrentTCPServer(int bufferSize, RSAKey serverKey) throws IOException
+	{
+		this(bufferSize, serverKey, null);
+	}
+
+	/**
+	 * The constructor of ConcurrentTCPServer object; the port is bound immediately
+	 * @param bufferSize The maximum size of the buffer
+	 * @param serverKey The key for the server
+	 * @param peer The public key of the client and its derived values, or null to learn it through a handshake
+	 * @throws IOException If the port cannot be bound
+	 */
+	private ConcurrentTCPServer(int bufferSize, RSAKey serverKey, PeerKeyMaterial peer) throws IOException
+	{
+		this.bufferSize = bufferSize;
+		this.serverKey = serverKey;
+		this.peer = peer;
+
+		serverSocket = new ServerSocket(TCPServer.DEFAULT_PORT, BACKLOG);
+		connections = newConnectionExecutor();
+		running = true;
+	}
+
+	/**
+	 * Accept clients until the server is shut down,
+	 * receiving and decrypting every message each of them sends until it disconnects
+	 * @param mode One of TCPServer.AUTHENTICATE, TCPServer.DECRYPT, TCPServer.BOTH, TCPServer.HYBRID
+	 * or TCPServer.SIGNED_HYBRID, matching the choices of PKIServerDriver
+	 */
+	public void serve(int mode)
+	{
+		System.out.println("Waiting for clients . . .");
+
+		while (running)
+		{
+			try
+			{
+				Socket socket = serverSocket.accept();
+				openSockets.add(socket);
+				connections.execute(() -> handle(socket, mode));
+			}
+			catch (SocketException closed)
+			{
+				// the server socket was closed by shutdown()
+				running = false;
+			}
+			catch (IOException io)
+			{
+				io.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Stop accepting clients, disconnect the clients being served and wait for their handlers to finish.
+	 * Handlers still running after the timeout are interrupted
+	 * @param timeout The longest time to wait for the handlers
+	 * @param unit The unit of the timeout
+	 */
+	public void shutdown(long timeout, TimeUnit unit)
+	{
+		running = false;
+
+		try
+		{
+			serverSocket.close();
+			connections.shutdown();
+
+			// a handler waiting for the next frame would otherwise hold the shutdown until its idle timeout
+			for (Socket socket : openSockets)
+			{
+				socket.close();
+			}
+
+			if (!connections.awaitTermination(timeout, unit))
+			{
+				connections.shutdownNow();
+			}
+		}
+		catch (IOException io)
+		{
+			io.printStackTrace();
+		}
+		catch (InterruptedException interrupted)
+		{
+			connections.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Shut the server down, waiting up to ten seconds for the handlers of the clients being served
+	 */
+	@Override
+	public void close()
+	{
+		shutdown(10, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Hand every decrypted message to the given listener instead of printing it
+	 * @param listener The listener of the decrypted messages, or null to print them
+	 */
+	public void setMessageListener(Consumer<String> listener)
+	{
+		messageListener = listener;
+	}
+
+	/**
+	 * Set the time after which a client that sends nothing, not even a ping, is disconnected;
+	 * it applies to the clients accepted from now on
+	 * @param timeout The idle timeout, or 0 to wait for every client forever
+	 * @param unit The unit of the timeout
+	 */
+	public void setIdleTimeout(long timeout, TimeUnit unit)
+	{
+		idleTimeoutMillis = (int) Math.min(unit.toMillis(timeout), Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Save the files the clients send in the given directory; it applies to the clients accepted from now on
+	 * @param directory The directory, or null to refuse files
+	 */
+	public void setFileDirectory(Path directory)
+	{
+		fileDirectory = directory;
+	}
+
+	/**
+	 * Get the number of clients served so far
+	 * @return The number of clients served
+	 */
+	public long getClientsServed()
+	{
+		return clientsServed.get();
+	}
+
+	/**
+	 * Receive and decrypt the messages of a single client until it ends the session or stays idle for too long
+	 * @param socket The socket connected to the client
+	 * @param mode The type of decryption
+	 */
+	private void handle(Socket socket, int mode)
+	{
+		try (Socket client = socket)
+		{
+			TCPServer server = new TCPServer(client, bufferSize, serverKey, peer);
+			server.setIdleTimeout(idleTimeoutMillis);
+			server.setFileDirectory(fileDirectory);
+			server.acceptHandshake(mode);
+
+			while (server.hasNextMessage())
+			{
+				Consumer<String> listener = messageListener;
+				boolean delivered = true;
+
+				try
+				{
+					// a file that fails part of the way ends the connection, as the rest of its chunks would follow
+					if (server.isFileNext())
+					{
+						Path file = server.receiveFile(mode);
+
+						if (listener == null)
+						{
+							System.out.println("Received the file " + file + "\n");
+						}
+					}
+					else if (listener == null)
+					{
+						delivered = server.receive(mode);
+					}
+					else
+					{
+						delivered = deliver(listener, server.readMessage(mode));
+					}
+				}
+				catch (IOException | RuntimeException failed)
+				{
+					// the message was numbered as soon as its header arrived, so the nack answers it
+					server.acknowledge(false);
+					throw failed;
+				}
+
+				server.acknowledge(delivered);
+			}
+
+			clientsServed.incrementAndGet();
+		}
+		catch (IOException | RuntimeException failed)
+		{
+			// a connection closed by shutdown() is not a failure
+			if (running)
+			{
+				failed.printStackTrace();
+			}
+		}
+		finally
+		{
+			openSockets.remove(socket);
+		}
+	}
+
+	/**
+	 * Hand a decrypted message to the listener; a listener that fails loses that message only
+	 * @param listener The listener of the decrypted messages
+	 * @param message The decrypted message
+	 * @return Whether the listener took the message
+	 */
+	private static boolean deliver(Consumer<String> listener, String message)
+	{
+		try
+		{
+			listener.accept(message);
+			return true;
+		}
+		catch (RuntimeException failed)
+		{
+			failed.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * Create the executor that runs every client on its own thread,
+	 * preferring virtual threads whenever the runtime provides them
+	 * @return The executor for the clients
+	 */
+	static ExecutorService newConnectionExecutor()
+	{
+		try
+		{
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		}
+		catch (ReflectiveOperationException unavailable)
+		{
+			return Executors.newCachedThreadPool();
+		}
+	}
+}
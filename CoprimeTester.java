@@ -22,18 +22,6 @@ public class CoprimeTester {
 	
 	public static boolean checkIfCoprime(int first, int second)
 	{
-		boolean result = true;
-		boolean testFailed = false;
-		
-		for (int factor = 2; !testFailed && factor <= first && factor <= second; factor++)
-		{
-			if (first % factor == 0 && second % factor == 0)
-			{
-				result = false;
-				testFailed = true;
-			}
-		}
-		
-		return result;
+		return ModularMath.gcd(first, second) == 1;
 	}
 }
@@ -0,0 +1,64 @@
+package pki;
+
+/**
+ * The precomputed values of x^exponent mod n for every x below n,
+ * so that a single exponentiation becomes a single array load.
+ * Values are stored as chars whenever n allows it
+ *
+ * @author Sua "Joshua" Lee
+ * @version 17-10-2026
+ */
+final class ExponentTable {
+	// list of instance fields
+	private final char[] narrowTable;
+	private final int[] wideTable;
+
+	/**
+	 * Constructor for ExponentTable; every value is computed immediately
+	 * @param exponent The value of the exponent
+	 * @param modValue The value of n
+	 */
+	ExponentTable(int exponent, int modValue)
+	{
+		if (modValue <= Character.MAX_VALUE + 1)
+		{
+			narrowTable = new char[modValue];
+			wideTable = null;
+
+			for (int x = 0; x < modValue; x++)
+			{
+				narrowTable[x] = (char) ModularMath.modPow(x, exponent, modValue);
+			}
+		}
+		else
+		{
+			narrowTable = null;
+			wideTable = new int[modValue];
+
+			for (int x = 0; x < modValue; x++)
+			{
+				wideTable[x] = (int) ModularMath.modPow(x, exponent, modValue);
+			}
+		}
+	}
+
+	/**
+	 * Look up x^exponent mod n
+	 * @param x The value of x; must be between 0 and n - 1
+	 * @return The value of x^exponent mod n
+	 */
+	int apply(int x)
+	{
+		return narrowTable != null ? narrowTable[x] : wideTable[x];
+	}
+
+	/**
+	 * Get the memory used by the values of the table
+	 * @return The size of the table in bytes
+	 */
+	long getFootprintBytes()
+	{
+		return narrowTable != null ? (long) narrowTable.length * Character.BYTES
+				: (long) wideTable.length * Integer.BYTES;
+	}
+}
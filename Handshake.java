@@ -0,0 +1,286 @@
+package pki;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * The hello that opens a connection, by which the client and the server exchange their public keys
+ * and agree on the mode before any frame is sent, instead of each user typing in the key of the other.
+ * The client says hello with its key, or with only the id of its key to resume the session the server
+ * keeps under that id; the server answers with its own key and whether it accepted, resumed or rejected
+ * the session. A client whose session the server does not know says hello again, this time with its key.
+ * Both hellos share one layout:
+ *
+ * <pre>
+ * offset  size  field
+ *      0     1  code: HELLO from the client, ACCEPTED, RESUMED, UNKNOWN_SESSION or REJECTED from the server
+ *      1     1  version
+ *      2     1  mode (1 - authentication, 2 - encryption, 3 - both, 4 - hybrid, 5 - signed hybrid)
+ *      3     8  key id of the sender's public key
+ *     11     2  length of e in bytes, or 0 when resuming
+ *     13     2  length of n in bytes, or 0 when resuming
+ *     15        e and n, in two's complement
+ * </pre>
+ *
+ * The code of the client's hello is never the version of a MessageFrame, so a server can tell a client
+ * that opens with a handshake from one that sends its frames straight away
+ *
+ * @author Sua "Joshua" Lee
+ * @version 17-10-2026
+ */
+final class Handshake {
+	/**
+	 * The size of the fixed part of a hello, which tells the size of the rest
+	 */
+	static final int PREFIX_SIZE = 15;
+
+	// the version of the layout described above
+	static final byte VERSION = 1;
+
+	// the code of the client's hello
+	static final int HELLO = 'H';
+
+	// the codes of the server's answer
+	static final int ACCEPTED = 'A';
+	static final int RESUMED = 'R';
+	static final int UNKNOWN_SESSION = 'U';
+	static final int REJECTED = 'X';
+
+	// the longest e or n accepted, enough for a 16384-bit key
+	private static final int MAX_NUMBER_SIZE = 2050;
+
+	// list of instance fields
+	private final int code;
+	private final int mode;
+	private final long keyId;
+	private final BigInteger publicE;
+	private final BigInteger publicN;
+
+	/**
+	 * Constructor for Handshake
+	 * @param code The code of the hello
+	 * @param mode The type of encryption
+	 * @param keyId The id of the sender's public key
+	 * @param publicE The e value of the sender's public key, or null when resuming
+	 * @param publicN The n value of the sender's public key, or null when resuming
+	 */
+	Handshake(int code, int mode, long keyId, BigInteger publicE, BigInteger publicN)
+	{
+		this.code = code;
+		this.mode = mode;
+		this.keyId = keyId;
+		this.publicE = publicE;
+		this.publicN = publicN;
+	}
+
+	/**
+	 * Create the hello of a client
+	 * @param mode The type of encryption the client will use
+	 * @param clientKey The key of the client
+	 * @param resuming Whether to send only the id of the key, to resume a session
+	 * @return The hello
+	 */
+	static Handshake hello(int mode, RSAKey clientKey, boolean resuming)
+	{
+		BigInteger publicE = clientKey.getPublicExponent();
+		BigInteger publicN = clientKey.getModulus();
+
+		return new Handshake(HELLO, mode, PeerKeyMaterial.keyId(publicE, publicN),
+				resuming ? null : publicE, resuming ? null : publicN);
+	}
+
+	/**
+	 * Create the answer of a server, which always carries its key
+	 * @param code One of ACCEPTED, RESUMED, UNKNOWN_SESSION or REJECTED
+	 * @param mode The type of decryption the server performs
+	 * @param serverKey The key of the server
+	 * @return The answer
+	 */
+	static Handshake answer(int code, int mode, RSAKey serverKey)
+	{
+		BigInteger publicE = serverKey.getPublicExponent();
+		BigInteger publicN = serverKey.getModulus();
+
+		return new Handshake(code, mode, PeerKeyMaterial.keyId(publicE, publicN), publicE, publicN);
+	}
+
+	/**
+	 * Get the size of a whole hello from its fixed part
+	 * @param prefix The buffer holding the first PREFIX_SIZE bytes of the hello from its position
+	 * @return The size of the hello in bytes
+	 * @throws ProtocolException If the hello is malformed
+	 */
+	static int sizeOf(ByteBuffer prefix) throws ProtocolException
+	{
+		int eLength = Short.toUnsignedInt(prefix.getShort(prefix.position() + 11));
+		int nLength = Short.toUnsignedInt(prefix.getShort(prefix.position() + 13));
+
+		if (eLength > MAX_NUMBER_SIZE || nLength > MAX_NUMBER_SIZE || (eLength == 0) != (nLength == 0))
+		{
+			throw new ProtocolException("malformed hello");
+		}
+
+		return PREFIX_SIZE + eLength + nLength;
+	}
+
+	/**
+	 * Read and validate a whole hello from the given buffer
+	 * @param src The source buffer, holding the whole hello from its position
+	 * @return The hello that was read
+	 * @throws ProtocolException If the hello is malformed, or its key does not match the id of the key
+	 */
+	static Handshake readFrom(ByteBuffer src) throws ProtocolException
+	{
+		sizeOf(src);
+
+		int code = src.get();
+		byte version = src.get();
+		int mode = src.get();
+		long keyId = src.getLong();
+		byte[] e = new byte[Short.toUnsignedInt(src.getShort())];
+		byte[] n = new byte[Short.toUnsignedInt(src.getShort())];
+		src.get(e).get(n);
+
+		if (version != VERSION)
+		{
+			throw new ProtocolException("unsupported hello version " + version);
+		}
+
+		if (code != HELLO && code != ACCEPTED && code != RESUMED && code != UNKNOWN_SESSION && code != REJECTED
+				|| mode < MessageFrame.AUTHENTICATE || mode > MessageFrame.SIGNED_HYBRID)
+		{
+			throw new ProtocolException("malformed hello");
+		}
+
+		if (n.length == 0)
+		{
+			return new Handshake(code, mode, keyId, null, null);
+		}
+
+		BigInteger publicE = new BigInteger(e);
+		BigInteger publicN = new BigInteger(n);
+
+		if (publicE.signum() <= 0 || publicN.signum() <= 0 || PeerKeyMaterial.keyId(publicE, publicN) != keyId)
+		{
+			throw new ProtocolException("the key of the hello does not match its key id");
+		}
+
+		return new Handshake(code, mode, keyId, publicE, publicN);
+	}
+
+	/**
+	 * Read a whole hello from the given stream
+	 * @param in The source stream
+	 * @return The hello that was read
+	 * @throws IOException If the hello cannot be read, or is malformed
+	 */
+	static Handshake read(DataInputStream in) throws IOException
+	{
+		byte[] prefix = new byte[PREFIX_SIZE];
+		in.readFully(prefix);
+
+		byte[] hello = new byte[sizeOf(ByteBuffer.wrap(prefix))];
+		System.arraycopy(prefix, 0, hello, 0, PREFIX_SIZE);
+		in.readFully(hello, PREFIX_SIZE, hello.length - PREFIX_SIZE);
+
+		return readFrom(ByteBuffer.wrap(hello));
+	}
+
+	/**
+	 * Write the hello into the given buffer
+	 * @param dst The destination buffer, with at least size() bytes remaining
+	 */
+	void writeTo(ByteBuffer dst)
+	{
+		byte[] e = publicE == null ? new byte[0] : publicE.toByteArray();
+		byte[] n = publicN == null ? new byte[0] : publicN.toByteArray();
+
+		dst.put((byte) code);
+		dst.put(VERSION);
+		dst.put((byte) mode);
+		dst.putLong(keyId);
+		dst.putShort((short) e.length);
+		dst.putShort((short) n.length);
+		dst.put(e).put(n);
+	}
+
+	/**
+	 * Write the hello to the given stream in a single write
+	 * @param out The destination stream
+	 * @throws IOException If the hello cannot be written
+	 */
+	void write(OutputStream out) throws IOException
+	{
+		ByteBuffer hello = ByteBuffer.allocate(size());
+		writeTo(hello);
+		out.write(hello.array());
+		out.flush();
+	}
+
+	/**
+	 * Get the size of the hello
+	 * @return The size of the hello in bytes
+	 */
+	int size()
+	{
+		return PREFIX_SIZE + (publicE == null ? 0 : publicE.toByteArray().length + publicN.toByteArray().length);
+	}
+
+	/**
+	 * Get the code of the hello
+	 * @return HELLO, or the answer of the server
+	 */
+	int getCode()
+	{
+		return code;
+	}
+
+	/**
+	 * Get the type of encryption, proposed by the client or performed by the server
+	 * @return The type of encryption
+	 */
+	int getMode()
+	{
+		return mode;
+	}
+
+	/**
+	 * Get the id of the sender's public key
+	 * @return The id of the sender's public key
+	 */
+	long getKeyId()
+	{
+		return keyId;
+	}
+
+	/**
+	 * Check whether the hello carries the sender's key rather than only its id
+	 * @return false if the client is resuming a session
+	 */
+	boolean hasKey()
+	{
+		return publicN != null;
+	}
+
+	/**
+	 * Get the e value of the sender's public key
+	 * @return The value of e, or null when resuming
+	 */
+	BigInteger getPublicE()
+	{
+		return publicE;
+	}
+
+	/**
+	 * Get the n value of the sender's public key
+	 * @return The value of n, or null when resuming
+	 */
+	BigInteger getPublicN()
+	{
+		return publicN;
+	}
+}
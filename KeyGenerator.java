@@ -0,0 +1,597 @@
+package pki;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+/**
+ * The generator of random keys of a requested modulus size.
+ * Prime candidates are prefiltered with a sieve of small primes
+ * before the Miller-Rabin test is applied, either on the calling thread
+ * or fanned out over a fork-join pool
+ *
+ * @author Sua "Joshua" Lee
+ * @version 17-10-2026
+ */
+public class KeyGenerator {
+	/**
+	 * The public exponent used when the caller does not choose one
+	 */
+	public static final BigInteger DEFAULT_E = BigInteger.valueOf(65537);
+
+	// the odd primes used to prefilter the candidates
+	private static final int[] SMALL_PRIMES = sieve(2048);
+
+	// the number of consecutive odd candidates examined from a single random start
+	private static final int SEARCH_WINDOW = 1 << 16;
+
+	private static final BigInteger TWO = BigInteger.valueOf(2);
+
+	// list of instance fields
+	private Random random;
+
+	// the statistics of the most recent key generation
+	private LongAdder candidatesTested = new LongAdder();
+	private long lastElapsedNanos;
+
+	/**
+	 * Generate keys of the given size at increasing levels of parallelism
+	 * and report the rate at which candidates were examined.
+	 * Usage: KeyGenerator modulusBits [parallelism ...]
+	 * @param args The modulus size in bits, followed by the levels of parallelism
+	 */
+	public static void main(String[] args)
+	{
+		int modulusBits = args.length > 0 ? Integer.parseInt(args[0]) : 2048;
+		List<Integer> levels = new ArrayList<>();
+
+		for (int i = 1; i < args.length; i++)
+		{
+			levels.add(Integer.parseInt(args[i]));
+		}
+
+		// default to doubling up to the number of available cores
+		if (levels.isEmpty())
+		{
+			for (int level = 1; level < Runtime.getRuntime().availableProcessors(); level *= 2)
+			{
+				levels.add(level);
+			}
+
+			levels.add(Runtime.getRuntime().availableProcessors());
+		}
+
+		KeyGenerator generator = new KeyGenerator();
+
+		for (int parallelism : levels)
+		{
+			generator.generateKeyParallel(modulusBits, DEFAULT_E, parallelism);
+
+			System.out.printf("%d-bit key, parallelism %d: %d candidates in %.1f ms (%.0f candidates/s)%n",
+					modulusBits, parallelism, generator.getCandidatesTested(),
+					generator.getLastElapsedNanos() / 1e6, generator.getCandidatesPerSecond());
+		}
+	}
+
+	/**
+	 * Constructor for KeyGenerator that uses a SecureRandom
+	 */
+	public KeyGenerator()
+	{
+		this(new SecureRandom());
+	}
+
+	/**
+	 * Constructor for KeyGenerator
+	 * @param random The source of randomness for the candidates
+	 */
+	public KeyGenerator(Random random)
+	{
+		this.random = random;
+	}
+
+	/**
+	 * Generate a key whose modulus has exactly the given number of bits
+	 * using the default public exponent
+	 * @param modulusBits The bit length of n
+	 * @return The generated key
+	 */
+	public RSAKey generateKey(int modulusBits)
+	{
+		return generateKey(modulusBits, DEFAULT_E);
+	}
+
+	/**
+	 * Generate a key whose modulus has exactly the given number of bits
+	 * @param modulusBits The bit length of n; must be at least 16
+	 * @param e The value of e; must be odd and larger than 1
+	 * @return The generated key
+	 */
+	public RSAKey generateKey(int modulusBits, BigInteger e)
+	{
+		checkKeyParameters(modulusBits, e);
+
+		int pBits = (modulusBits + 1) / 2;
+		int qBits = modulusBits - pBits;
+
+		candidatesTested.reset();
+		long startTime = System.nanoTime();
+
+		BigInteger p = generatePrime(pBits, e);
+		BigInteger q = generatePrime(qBits, e);
+
+		while (p.equals(q))
+		{
+			q = generatePrime(qBits, e);
+		}
+
+		lastElapsedNanos = System.nanoTime() - startTime;
+
+		return createKey(p, q, e);
+	}
+
+	/**
+	 * Generate a key whose modulus has exactly the given number of bits,
+	 * testing the prime candidates on a fork-join pool of the given parallelism.
+	 * The remaining workers stop as soon as each prime has been found
+	 * @param modulusBits The bit length of n; must be at least 16
+	 * @param e The value of e; must be odd and larger than 1
+	 * @param parallelism The number of workers testing candidates
+	 * @return The generated key
+	 */
+	public RSAKey generateKeyParallel(int modulusBits, BigInteger e, int parallelism)
+	{
+		checkKeyParameters(modulusBits, e);
+
+		int pBits = (modulusBits + 1) / 2;
+		int qBits = modulusBits - pBits;
+
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+
+		try
+		{
+			candidatesTested.reset();
+			long startTime = System.nanoTime();
+
+			BigInteger p = parallelPrime(pool, parallelism, pBits, e, null);
+			BigInteger q = parallelPrime(pool, parallelism, qBits, e, p);
+
+			lastElapsedNanos = System.nanoTime() - startTime;
+
+			return createKey(p, q, e);
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Get the number of candidates examined by the most recent key generation,
+	 * including the ones rejected by the sieve
+	 * @return The number of candidates examined
+	 */
+	public long getCandidatesTested()
+	{
+		return candidatesTested.sum();
+	}
+
+	/**
+	 * Get the rate at which the most recent key generation examined candidates
+	 * @return The number of candidates examined per second
+	 */
+	public double getCandidatesPerSecond()
+	{
+		if (lastElapsedNanos == 0)
+		{
+			return 0;
+		}
+
+		return candidatesTested.sum() * 1e9 / lastElapsedNanos;
+	}
+
+	/**
+	 * Get the time taken by the most recent key generation
+	 * @return The time taken in nanoseconds
+	 */
+	public long getLastElapsedNanos()
+	{
+		return lastElapsedNanos;
+	}
+
+	/**
+	 * Generate a random prime of the given bit length such that p - 1 is coprime to e.
+	 * The top two bits are always set, so the product of two such primes
+	 * has exactly the sum of their bit lengths
+	 * @param bitLength The bit length of the prime; must be at least 8
+	 * @param e The value of e
+	 * @return The generated prime
+	 */
+	public BigInteger generatePrime(int bitLength, BigInteger e)
+	{
+		BigInteger prime = null;
+
+		while (prime == null)
+		{
+			prime = searchWindow(randomStart(bitLength, random), bitLength, e, random,
+					() -> false, candidatesTested);
+		}
+
+		return prime;
+	}
+
+	/**
+	 * Find a random prime of the given bit length using every worker of the pool.
+	 * Each worker searches from its own random start until one of them succeeds
+	 * @param pool The pool running the workers
+	 * @param parallelism The number of workers to start
+	 * @param bitLength The bit length of the prime
+	 * @param e The value of e
+	 * @param exclude A prime that must not be returned, or null
+	 * @return The prime found first
+	 */
+	private BigInteger parallelPrime(ForkJoinPool pool, int parallelism, int bitLength, BigInteger e,
+			BigInteger exclude)
+	{
+		AtomicReference<BigInteger> found = new AtomicReference<>();
+		BooleanSupplier cancelled = () -> found.get() != null;
+		List<ForkJoinTask<?>> workers = new ArrayList<>();
+
+		for (int i = 0; i < parallelism; i++)
+		{
+			workers.add(pool.submit(() -> {
+				// every worker keeps its own source of randomness to avoid contention
+				Random workerRandom = new SecureRandom();
+
+				while (!cancelled.getAsBoolean())
+				{
+					BigInteger candidate = searchWindow(randomStart(bitLength, workerRandom), bitLength, e,
+							workerRandom, cancelled, candidatesTested);
+
+					if (candidate != null && !candidate.equals(exclude))
+					{
+						found.compareAndSet(null, candidate);
+					}
+				}
+			}));
+		}
+
+		for (ForkJoinTask<?> worker : workers)
+		{
+			worker.join();
+		}
+
+		return found.get();
+	}
+
+	/**
+	 * Check if the given key parameters can be used to generate a key
+	 * @param modulusBits The bit length of n
+	 * @param e The value of e
+	 */
+	private static void checkKeyParameters(int modulusBits, BigInteger e)
+	{
+		if (modulusBits < 16 || !e.testBit(0) || e.compareTo(BigInteger.ONE) <= 0)
+		{
+			throw new IllegalArgumentException();
+		}
+	}
+
+	/**
+	 * Build a key from two primes that are already known to be valid,
+	 * computing d with the extended Euclidean algorithm
+	 * @param p The value of p
+	 * @param q The value of q
+	 * @param e The value of e
+	 * @return The key for the given values
+	 */
+	static RSAKey createKey(BigInteger p, BigInteger q, BigInteger e)
+	{
+		if (p.multiply(q).bitLength() < Integer.SIZE && e.bitLength() < Integer.SIZE)
+		{
+			return new PKIKey(p.intValue(), q.intValue(), e.intValue());
+		}
+
+		BigInteger nPhi = p.subtract(BigInteger.ONE).multiply(q.subtract(BigInteger.ONE));
+
+		return new BigPKIKey(p, q, e, modInverse(e, nPhi));
+	}
+
+	/**
+	 * Pick a random odd starting point with the top two bits set
+	 * @param bitLength The bit length of the prime
+	 * @param random The source of randomness
+	 * @return The starting candidate
+	 */
+	static BigInteger randomStart(int bitLength, Random random)
+	{
+		if (bitLength < 8)
+		{
+			throw new IllegalArgumentException();
+		}
+
+		return new BigInteger(bitLength, random).setBit(bitLength - 1).setBit(bitLength - 2).setBit(0);
+	}
+
+	/**
+	 * Examine the odd candidates following the given start, using the residues
+	 * modulo the small primes to skip the candidates that have a small factor
+	 * @param start The first candidate; must be odd
+	 * @param bitLength The bit length every candidate must keep
+	 * @param e The value of e
+	 * @param random The source of randomness for the Miller-Rabin bases
+	 * @param cancelled Whether the search should stop early
+	 * @param examined The counter of examined candidates
+	 * @return The first prime found, or null if the window is exhausted or the search was cancelled
+	 */
+	static BigInteger searchWindow(BigInteger start, int bitLength, BigInteger e, Random random,
+			BooleanSupplier cancelled, LongAdder examined)
+	{
+		int[] residues = new int[SMALL_PRIMES.length];
+
+		for (int i = 0; i < SMALL_PRIMES.length; i++)
+		{
+			residues[i] = start.mod(BigInteger.valueOf(SMALL_PRIMES[i])).intValue();
+		}
+
+		for (int offset = 0; offset < SEARCH_WINDOW && !cancelled.getAsBoolean(); offset += 2)
+		{
+			examined.increment();
+
+			if (hasSmallFactor(residues, offset, start.bitLength() <= 11))
+			{
+				continue;
+			}
+
+			BigInteger candidate = start.add(BigInteger.valueOf(offset));
+
+			if (candidate.bitLength() != bitLength)
+			{
+				return null;
+			}
+
+			if (checkIfCoprime(candidate.subtract(BigInteger.ONE), e)
+					&& isProbablePrime(candidate, millerRabinRounds(bitLength), random))
+			{
+				return candidate;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Check if the candidate at the given offset is divisible by one of the small primes
+	 * @param residues The residues of the starting candidate modulo the small primes
+	 * @param offset The offset from the starting candidate
+	 * @param smallStart Whether the candidate may itself be one of the small primes
+	 * @return Whether the candidate has a small factor
+	 */
+	private static boolean hasSmallFactor(int[] residues, int offset, boolean smallStart)
+	{
+		// tiny candidates are left entirely to Miller-Rabin
+		if (smallStart)
+		{
+			return false;
+		}
+
+		for (int i = 0; i < SMALL_PRIMES.length; i++)
+		{
+			if ((residues[i] + offset) % SMALL_PRIMES[i] == 0)
+			{
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Check if the given odd candidate is probably prime using the Miller-Rabin test
+	 * @param candidate The given candidate; must be odd and larger than 3
+	 * @param rounds The number of random bases to try
+	 * @param random The source of randomness for the bases
+	 * @return Whether the candidate is probably prime
+	 */
+	static boolean isProbablePrime(BigInteger candidate, int rounds, Random random)
+	{
+		BigInteger candidateMinusOne = candidate.subtract(BigInteger.ONE);
+
+		// write candidate - 1 as 2^s * oddPart
+		int s = candidateMinusOne.getLowestSetBit();
+		BigInteger oddPart = candidateMinusOne.shiftRight(s);
+
+		for (int round = 0; round < rounds; round++)
+		{
+			// pick a base between 2 and candidate - 2
+			BigInteger base;
+
+			do
+			{
+				base = new BigInteger(candidate.bitLength(), random);
+			}
+			while (base.compareTo(TWO) < 0 || base.compareTo(candidateMinusOne) >= 0);
+
+			BigInteger x = base.modPow(oddPart, candidate);
+
+			if (x.equals(BigInteger.ONE) || x.equals(candidateMinusOne))
+			{
+				continue;
+			}
+
+			boolean witness = true;
+
+			for (int i = 1; witness && i < s; i++)
+			{
+				x = x.multiply(x).mod(candidate);
+				witness = !x.equals(candidateMinusOne);
+			}
+
+			if (witness)
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Get the number of Miller-Rabin rounds that keeps the error probability
+	 * of a random candidate of the given size below 2^-100
+	 * @param bitLength The bit length of the candidate
+	 * @return The number of rounds
+	 */
+	static int millerRabinRounds(int bitLength)
+	{
+		if (bitLength >= 1024)
+		{
+			return 5;
+		}
+		else if (bitLength >= 512)
+		{
+			return 8;
+		}
+		else if (bitLength >= 256)
+		{
+			return 16;
+		}
+
+		return 40;
+	}
+
+	/**
+	 * Check if given two inputs are relatively prime to each other
+	 * @param first The first input
+	 * @param second The second input
+	 * @return Whether the two inputs are relatively prime
+	 */
+	static boolean checkIfCoprime(BigInteger first, BigInteger second)
+	{
+		return gcd(first, second).equals(BigInteger.ONE);
+	}
+
+	/**
+	 * Calculate the greatest common divisor of the two inputs
+	 * using the binary (Stein's) algorithm
+	 * @param first The first input
+	 * @param second The second input
+	 * @return The greatest common divisor of the absolute values of the inputs
+	 */
+	static BigInteger gcd(BigInteger first, BigInteger second)
+	{
+		BigInteger a = first.abs();
+		BigInteger b = second.abs();
+
+		if (a.signum() == 0)
+		{
+			return b;
+		}
+
+		if (b.signum() == 0)
+		{
+			return a;
+		}
+
+		// remove the common factors of 2, and remember how many there were
+		int shift = Math.min(a.getLowestSetBit(), b.getLowestSetBit());
+		a = a.shiftRight(a.getLowestSetBit());
+
+		while (b.signum() != 0)
+		{
+			b = b.shiftRight(b.getLowestSetBit());
+
+			// keep a as the smaller of the two odd values
+			if (a.compareTo(b) > 0)
+			{
+				BigInteger temp = a;
+				a = b;
+				b = temp;
+			}
+
+			b = b.subtract(a);
+		}
+
+		return a.shiftLeft(shift);
+	}
+
+	/**
+	 * Find the integer value i such that (a * i) mod n = 1
+	 * using the extended Euclidean algorithm
+	 * @param input The value of a
+	 * @param modValue The value of n
+	 * @return The value of i between 0 and n - 1
+	 * @throws ArithmeticException If a has no inverse modulo n
+	 */
+	static BigInteger modInverse(BigInteger input, BigInteger modValue)
+	{
+		// invariant: oldR = oldS * input (mod modValue) and r = s * input (mod modValue)
+		BigInteger oldR = input.mod(modValue);
+		BigInteger r = modValue;
+		BigInteger oldS = BigInteger.ONE;
+		BigInteger s = BigInteger.ZERO;
+
+		while (r.signum() != 0)
+		{
+			BigInteger[] quotientAndRemainder = oldR.divideAndRemainder(r);
+
+			oldR = r;
+			r = quotientAndRemainder[1];
+
+			BigInteger temp = oldS.subtract(quotientAndRemainder[0].multiply(s));
+			oldS = s;
+			s = temp;
+		}
+
+		if (!oldR.equals(BigInteger.ONE))
+		{
+			throw new ArithmeticException("no inverse modulo " + modValue);
+		}
+
+		return oldS.mod(modValue);
+	}
+
+	/**
+	 * Find the odd primes up to the given limit using the sieve of Eratosthenes
+	 * @param limit The largest value to examine
+	 * @return The odd primes up to the limit
+	 */
+	private static int[] sieve(int limit)
+	{
+		boolean[] composite = new boolean[limit + 1];
+		int count = 0;
+
+		for (int i = 3; i <= limit; i += 2)
+		{
+			if (!composite[i])
+			{
+				count++;
+
+				for (int multiple = i * i; multiple <= limit; multiple += 2 * i)
+				{
+					composite[multiple] = true;
+				}
+			}
+		}
+
+		int[] primes = new int[count];
+		int index = 0;
+
+		for (int i = 3; i <= limit; i += 2)
+		{
+			if (!composite[i])
+			{
+				primes[index++] = i;
+			}
+		}
+
+		return primes;
+	}
+}
@@ -0,0 +1,215 @@
+package pki;
+
+import java.math.BigInteger;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The pool of pregenerated keys that takes key generation off the request path.
+ * A background thread refills the pool whenever its depth drops below the low-water mark
+ *
+ * @author Sua "Joshua" Lee
+ * @version 17-10-2026
+ */
+public class KeyPool implements AutoCloseable {
+	// list of instance fields
+	private final int capacity;
+	private final int lowWaterMark;
+	private final int modulusBits;
+	private final BigInteger e;
+
+	private final Queue<RSAKey> keys = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger depth = new AtomicInteger();
+	private final AtomicBoolean refilling = new AtomicBoolean();
+	private final ExecutorService refiller;
+
+	// the statistics of the pool
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong keysGenerated = new AtomicLong();
+	private final AtomicLong generationNanos = new AtomicLong();
+
+	/**
+	 * Constructor for KeyPool; the pool starts filling immediately
+	 * @param capacity The number of keys kept ready
+	 * @param lowWaterMark The depth below which the pool is refilled
+	 * @param modulusBits The bit length of n of every key
+	 * @param e The value of e of every key
+	 */
+	public KeyPool(int capacity, int lowWaterMark, int modulusBits, BigInteger e)
+	{
+		if (capacity < 1 || lowWaterMark < 0 || lowWaterMark >= capacity)
+		{
+			throw new IllegalArgumentException();
+		}
+
+		this.capacity = capacity;
+		this.lowWaterMark = lowWaterMark;
+		this.modulusBits = modulusBits;
+		this.e = e;
+
+		refiller = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "KeyPool-refill");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		requestRefill();
+	}
+
+	/**
+	 * Take a pregenerated key without blocking
+	 * @return A key, or null if the pool is currently empty
+	 */
+	public RSAKey poll()
+	{
+		RSAKey key = keys.poll();
+
+		if (key == null)
+		{
+			misses.incrementAndGet();
+		}
+		else
+		{
+			hits.incrementAndGet();
+			depth.decrementAndGet();
+		}
+
+		if (depth.get() < lowWaterMark || key == null)
+		{
+			requestRefill();
+		}
+
+		return key;
+	}
+
+	/**
+	 * Take a pregenerated key, generating one on the calling thread if the pool is empty
+	 * @return A key
+	 */
+	public RSAKey take()
+	{
+		RSAKey key = poll();
+
+		if (key == null)
+		{
+			key = generate();
+		}
+
+		return key;
+	}
+
+	/**
+	 * Get the number of keys currently ready
+	 * @return The depth of the pool
+	 */
+	public int getDepth()
+	{
+		return depth.get();
+	}
+
+	/**
+	 * Get the number of requests served from the pool
+	 * @return The number of hits
+	 */
+	public long getHits()
+	{
+		return hits.get();
+	}
+
+	/**
+	 * Get the number of requests that found the pool empty
+	 * @return The number of misses
+	 */
+	public long getMisses()
+	{
+		return misses.get();
+	}
+
+	/**
+	 * Get the rate at which keys have been generated, both by the refill thread
+	 * and on behalf of the callers that missed
+	 * @return The number of keys generated per second of generation time
+	 */
+	public double getRefillRate()
+	{
+		long nanos = generationNanos.get();
+
+		return nanos == 0 ? 0 : keysGenerated.get() * 1e9 / nanos;
+	}
+
+	/**
+	 * Stop refilling the pool; keys already in the pool can still be taken
+	 */
+	@Override
+	public void close()
+	{
+		refiller.shutdownNow();
+	}
+
+	/**
+	 * Start a refill on the background thread unless one is already running
+	 */
+	private void requestRefill()
+	{
+		if (!refiller.isShutdown() && refilling.compareAndSet(false, true))
+		{
+			try
+			{
+				refiller.execute(this::refill);
+			}
+			catch (RejectedExecutionException closed)
+			{
+				// the pool was closed in the meantime
+				refilling.set(false);
+			}
+		}
+	}
+
+	/**
+	 * Generate keys until the pool is full again
+	 */
+	private void refill()
+	{
+		try
+		{
+			while (depth.get() < capacity && !Thread.currentThread().isInterrupted())
+			{
+				keys.add(generate());
+				depth.incrementAndGet();
+			}
+		}
+		finally
+		{
+			refilling.set(false);
+		}
+
+		// a key may have been taken after the last check but before the flag was cleared
+		if (depth.get() < lowWaterMark)
+		{
+			requestRefill();
+		}
+	}
+
+	/**
+	 * Generate a single key and record how long it took.
+	 * A new generator is used every time, as its statistics are not thread-safe
+	 * @return The generated key
+	 */
+	private RSAKey generate()
+	{
+		long startTime = System.nanoTime();
+		RSAKey key = new KeyGenerator().generateKey(modulusBits, e);
+
+		generationNanos.addAndGet(System.nanoTime() - startTime);
+		keysGenerated.incrementAndGet();
+
+		return key;
+	}
+}
@@ -0,0 +1,164 @@
+package pki;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The lock-free histogram of latencies in nanoseconds, laid out like an HDR histogram:
+ * values below 128 are counted exactly, and every larger power of two is split into 64 buckets,
+ * so that any recorded value is known to within 1/64 of itself.
+ * Values of more than about 2.4 hours are counted in the last bucket
+ *
+ * @author Sua "Joshua" Lee
+ * @version 17-10-2026
+ */
+public final class LatencyHistogram {
+	// the number of buckets counted exactly, and the number of buckets per larger power of two
+	private static final int SUB_BUCKETS = 128;
+	private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+	private static final int SUB_BUCKET_BITS = Integer.numberOfTrailingZeros(HALF_SUB_BUCKETS);
+
+	// the largest value kept apart from the others, 2^43 - 1 nanoseconds
+	private static final long MAX_TRACKABLE = (1L << 43) - 1;
+	private static final int BUCKETS = index(MAX_TRACKABLE) + 1;
+
+	// list of instance fields
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder total = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Record a single value
+	 * @param nanos The value in nanoseconds; negative values are counted as 0
+	 */
+	public void record(long nanos)
+	{
+		long value = Math.min(Math.max(nanos, 0), MAX_TRACKABLE);
+
+		counts.incrementAndGet(index(value));
+		total.increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	/**
+	 * Get the number of recorded values
+	 * @return The number of recorded values
+	 */
+	public long getCount()
+	{
+		return total.sum();
+	}
+
+	/**
+	 * Get the mean of the recorded values
+	 * @return The mean in nanoseconds, or 0 if nothing was recorded
+	 */
+	public double getMean()
+	{
+		long count = total.sum();
+
+		return count == 0 ? 0 : (double) sum.sum() / count;
+	}
+
+	/**
+	 * Get the largest recorded value
+	 * @return The largest value in nanoseconds, or 0 if nothing was recorded
+	 */
+	public long getMax()
+	{
+		return max.get();
+	}
+
+	/**
+	 * Get the value below or at which the given percentage of the recorded values fall
+	 * @param percentile The percentage, from 0 to 100
+	 * @return The highest value of the bucket holding the percentile, in nanoseconds,
+	 * or 0 if nothing was recorded
+	 */
+	public long getValueAtPercentile(double percentile)
+	{
+		long[] snapshot = new long[BUCKETS];
+		long count = 0;
+
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			snapshot[i] = counts.get(i);
+			count += snapshot[i];
+		}
+
+		if (count == 0)
+		{
+			return 0;
+		}
+
+		long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * count));
+		long seen = 0;
+
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			seen += snapshot[i];
+
+			if (seen >= target)
+			{
+				// never report more than what was actually recorded
+				return Math.min(highestEquivalentValue(i), max.get());
+			}
+		}
+
+		return max.get();
+	}
+
+	/**
+	 * Forget every recorded value
+	 */
+	public void reset()
+	{
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			counts.set(i, 0);
+		}
+
+		total.reset();
+		sum.reset();
+		max.reset();
+	}
+
+	/**
+	 * Get the bucket of a value
+	 * @param value The value, from 0 to MAX_TRACKABLE
+	 * @return The index of the bucket
+	 */
+	private static int index(long value)
+	{
+		if (value < SUB_BUCKETS)
+		{
+			return (int) value;
+		}
+
+		// shift the value so that it lands between HALF_SUB_BUCKETS and SUB_BUCKETS
+		int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+
+		return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (int) ((value >>> shift) - HALF_SUB_BUCKETS);
+	}
+
+	/**
+	 * Get the highest value counted in a bucket
+	 * @param index The index of the bucket
+	 * @return The highest value of the bucket
+	 */
+	private static long highestEquivalentValue(int index)
+	{
+		if (index < SUB_BUCKETS)
+		{
+			return index;
+		}
+
+		int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+		long subBucket = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,389 @@
+package pki;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The headless load generator that drives a running PKI server through many blocking TCPClients.
+ * It opens every connection first, then sends the same number of messages over each of them,
+ * either as fast as possible or at a fixed total rate, and finally prints the throughput and
+ * the latency distribution.
+ * By default the server does not acknowledge messages, so the latency of a message ends once its frame is
+ * written to the socket; given a window, every connection pipelines its messages through an AsyncTCPClient
+ * instead, and the latency ends when the server acks the message. At a fixed rate it starts at the time
+ * the message was due rather than
+ * when it was actually sent, so a stalled server shows up in the percentiles instead of only
+ * slowing the generator down.
+ * Usage: LoadGenerator [config=file] [key=value ...], where the keys are
+ * <ul>
+ * <li>address - the address of the server, localhost by default</li>
+ * <li>bufferSize - the initial size of the buffer of every client, 256 by default</li>
+ * <li>mode - 1 - authentication, 2 - encryption, 3 - both, 4 - hybrid, 5 - signed hybrid; 2 by default</li>
+ * <li>connections - the number of concurrent connections, 16 by default</li>
+ * <li>messages - the number of messages sent over each connection, 1000 by default</li>
+ * <li>messageBytes - the size of every message, 64 by default</li>
+ * <li>rate - the total number of messages per second, or 0 to send as fast as possible; 0 by default</li>
+ * <li>keepAlive - the number of milliseconds after which an idle connection pings the server,
+ * or 0 never to ping; 0 by default</li>
+ * <li>window - the number of messages each connection keeps in flight waiting for their acks,
+ * or 0 to send without acks; 0 by default</li>
+ * <li>clientP, clientQ, clientE - the key of the client, whose public part the server must know</li>
+ * <li>serverE, serverN - the public key of the server; when they are left out,
+ * every connection learns it through a handshake</li>
+ * </ul>
+ * The keys of the config file are the same, and those given on the command line take precedence
+ *
+ * @author Sua "Joshua" Lee
+ * @version 17-10-2026
+ */
+public class LoadGenerator {
+	// list of instance variables
+	private final String address;
+	private final int bufferSize;
+	private final int mode;
+	private final int connections;
+	private final int messages;
+	private final long rate;
+	private final long keepAliveMillis;
+	private final int window;
+	private final String message;
+	private final RSAKey clientKey;
+	private final BigInteger serverE;
+	private final BigInteger serverN;
+
+	// the results of the run
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private long elapsedNanos;
+
+	/**
+	 * Constructor for LoadGenerator
+	 * @param config The configuration, with the keys listed in the description of the class
+	 */
+	public LoadGenerator(Properties config)
+	{
+		address = config.getProperty("address", "localhost");
+		bufferSize = intProperty(config, "bufferSize", "256");
+		mode = intProperty(config, "mode", String.valueOf(TCPClient.ENCRYPT));
+		connections = intProperty(config, "connections", "16");
+		messages = intProperty(config, "messages", "1000");
+		rate = Long.parseLong(config.getProperty("rate", "0").trim());
+		keepAliveMillis = Long.parseLong(config.getProperty("keepAlive", "0").trim());
+		window = intProperty(config, "window", "0");
+		message = payload(intProperty(config, "messageBytes", "64"));
+
+		if (mode < TCPClient.AUTHENTICATE || mode > TCPClient.SIGNED_HYBRID)
+		{
+			throw new IllegalArgumentException("mode must be from 1 to 5, not " + mode);
+		}
+
+		if (connections < 1 || messages < 0 || rate < 0 || keepAliveMillis < 0 || window < 0)
+		{
+			throw new IllegalArgumentException(
+					"connections must be positive, messages, rate, keepAlive and window not negative");
+		}
+
+		clientKey = RSAKey.of(bigProperty(config, "clientP"), bigProperty(config, "clientQ"),
+				bigProperty(config, "clientE"));
+		serverE = config.containsKey("serverE") ? bigProperty(config, "serverE") : null;
+		serverN = config.containsKey("serverE") ? bigProperty(config, "serverN") : null;
+
+		// small keys look their values up instead of exponentiating every block
+		if (clientKey instanceof PKIKey)
+		{
+			((PKIKey) clientKey).setLookupTables(true);
+		}
+	}
+
+	/**
+	 * Run the load described by the command line and print its report
+	 * @param args The key=value pairs of the configuration, see the usage above
+	 * @throws IOException If the config file cannot be read
+	 * @throws InterruptedException If interrupted while the load runs
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		LoadGenerator generator = new LoadGenerator(readConfig(args));
+
+		generator.run();
+		generator.report();
+	}
+
+	/**
+	 * Read the configuration from the command line and the config file it names, if any
+	 * @param args The key=value pairs of the command line
+	 * @return The configuration
+	 * @throws IOException If the config file cannot be read
+	 */
+	static Properties readConfig(String[] args) throws IOException
+	{
+		Properties arguments = new Properties();
+
+		for (String arg : args)
+		{
+			int separator = arg.indexOf('=');
+
+			if (separator < 1)
+			{
+				throw new IllegalArgumentException("expected key=value, not " + arg);
+			}
+
+			arguments.setProperty(arg.substring(0, separator), arg.substring(separator + 1));
+		}
+
+		Properties config = new Properties();
+
+		if (arguments.containsKey("config"))
+		{
+			try (Reader reader = Files.newBufferedReader(Paths.get(arguments.getProperty("config"))))
+			{
+				config.load(reader);
+			}
+		}
+
+		config.putAll(arguments);
+
+		return config;
+	}
+
+	/**
+	 * Open every connection, send the messages over all of them at once, and close them
+	 * @throws InterruptedException If interrupted while waiting for the connections
+	 */
+	public void run() throws InterruptedException
+	{
+		System.out.println("Opening " + connections + " connections to " + address + " . . .");
+
+		TCPClient[] clients = new TCPClient[connections];
+
+		for (int i = 0; i < connections; i++)
+		{
+			clients[i] = serverE == null ? new TCPClient(address, bufferSize, clientKey, mode)
+					: new TCPClient(address, bufferSize, clientKey, serverE, serverN);
+
+			if (!clients[i].isConnected())
+			{
+				for (int j = 0; j <= i; j++)
+				{
+					clients[j].close();
+				}
+
+				throw new IllegalStateException("cannot connect to " + address + ":" + TCPServer.DEFAULT_PORT);
+			}
+
+			clients[i].setKeepAlive(keepAliveMillis, TimeUnit.MILLISECONDS);
+		}
+
+		System.out.println("Sending " + messages + " messages of " + message.length() + " bytes over each, "
+				+ (rate > 0 ? rate + " messages/s in total" : "as fast as possible") + " . . .");
+
+		ExecutorService senders = Executors.newFixedThreadPool(connections);
+		CountDownLatch finished = new CountDownLatch(connections);
+		long startTime = System.nanoTime();
+
+		for (int i = 0; i < connections; i++)
+		{
+			TCPClient client = clients[i];
+			int connection = i;
+
+			senders.execute(() -> {
+				try
+				{
+					if (window > 0)
+					{
+						sendPipelined(client, connection, startTime);
+					}
+					else
+					{
+						send(client, connection, startTime);
+					}
+				}
+				finally
+				{
+					client.close();
+					finished.countDown();
+				}
+			});
+		}
+
+		finished.await();
+		elapsedNanos = System.nanoTime() - startTime;
+		senders.shutdown();
+	}
+
+	/**
+	 * Send every message of a single connection, keeping to its share of the rate
+	 * @param client The client of the connection
+	 * @param connection The index of the connection
+	 * @param startTime The time the run started, in nanoseconds
+	 */
+	private void send(TCPClient client, int connection, long startTime)
+	{
+		for (int i = 0; i < messages; i++)
+		{
+			long sendTime = awaitTurn(connection, i, startTime);
+
+			try
+			{
+				client.sendMessage(message, mode);
+				latency.record(System.nanoTime() - sendTime);
+				sent.incrementAndGet();
+			}
+			catch (IOException io)
+			{
+				// the connection is gone, so are the rest of its messages
+				failed.addAndGet(messages - i);
+				System.err.println("Connection " + connection + " failed: " + io.getMessage());
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Send every message of a single connection without waiting for the server, keeping to its share
+	 * of the rate and to the window, and measure every message up to its ack
+	 * @param client The client of the connection
+	 * @param connection The index of the connection
+	 * @param startTime The time the run started, in nanoseconds
+	 */
+	private void sendPipelined(TCPClient client, int connection, long startTime)
+	{
+		// closing the pipeline waits for the last acks
+		try (AsyncTCPClient pipeline = new AsyncTCPClient(client, address, window))
+		{
+			for (int i = 0; i < messages; i++)
+			{
+				long sendTime = awaitTurn(connection, i, startTime);
+
+				pipeline.send(message, mode).whenComplete((acked, failure) -> {
+					if (failure == null)
+					{
+						latency.record(System.nanoTime() - sendTime);
+						sent.incrementAndGet();
+					}
+					else
+					{
+						failed.incrementAndGet();
+					}
+				});
+			}
+		}
+		catch (IOException io)
+		{
+			failed.addAndGet(messages);
+			System.err.println("Connection " + connection + " failed: " + io.getMessage());
+		}
+	}
+
+	/**
+	 * Wait until a message is due, so that the connections take turns and the messages are spread
+	 * evenly over time
+	 * @param connection The index of the connection
+	 * @param index The index of the message within the connection
+	 * @param startTime The time the run started, in nanoseconds
+	 * @return The time the latency of the message starts, in nanoseconds
+	 */
+	private long awaitTurn(int connection, int index, long startTime)
+	{
+		if (rate <= 0)
+		{
+			return System.nanoTime();
+		}
+
+		long dueTime = startTime + (long) (1e9 * (connection + (double) index * connections) / rate);
+		long now;
+
+		// parking may return early, so keep parking until the message is due
+		while ((now = System.nanoTime()) < dueTime)
+		{
+			LockSupport.parkNanos(dueTime - now);
+		}
+
+		return dueTime;
+	}
+
+	/**
+	 * Print the throughput and the latency distribution of the run
+	 */
+	public void report()
+	{
+		double seconds = elapsedNanos / 1e9;
+		long count = sent.get();
+
+		System.out.println();
+		System.out.printf("Sent %d messages in %.3f s, %d failed%n", count, seconds, failed.get());
+		System.out.printf("Throughput: %.0f messages/s, %.3f MB/s of plaintext%n", count / seconds,
+				count * (double) message.length() / seconds / 1e6);
+		System.out.printf("Latency (ms): mean %.3f  p50 %.3f  p90 %.3f  p99 %.3f  p99.9 %.3f  max %.3f%n",
+				latency.getMean() / 1e6, latency.getValueAtPercentile(50) / 1e6,
+				latency.getValueAtPercentile(90) / 1e6, latency.getValueAtPercentile(99) / 1e6,
+				latency.getValueAtPercentile(99.9) / 1e6, latency.getMax() / 1e6);
+	}
+
+	/**
+	 * Get the histogram of the latency of every message sent
+	 * @return The latency histogram
+	 */
+	public LatencyHistogram getLatency()
+	{
+		return latency;
+	}
+
+	/**
+	 * Create the printable ASCII message of the given size
+	 * @param length The number of characters, and bytes, of the message
+	 * @return The message
+	 */
+	private static String payload(int length)
+	{
+		StringBuilder builder = new StringBuilder(length);
+
+		for (int i = 0; i < length; i++)
+		{
+			builder.append((char) ('a' + i % 26));
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * Get an int from the configuration
+	 * @param config The configuration
+	 * @param key The key of the value
+	 * @param defaultValue The value used when the key is missing
+	 * @return The value
+	 */
+	private static int intProperty(Properties config, String key, String defaultValue)
+	{
+		return Integer.parseInt(config.getProperty(key, defaultValue).trim());
+	}
+
+	/**
+	 * Get a required BigInteger from the configuration
+	 * @param config The configuration
+	 * @param key The key of the value
+	 * @return The value
+	 */
+	private static BigInteger bigProperty(Properties config, String key)
+	{
+		String value = config.getProperty(key);
+
+		if (value == null)
+		{
+			throw new IllegalArgumentException("missing " + key);
+		}
+
+		return new BigInteger(value.trim());
+	}
+}
@@ -0,0 +1,271 @@
+package pki;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * The header that precedes every message on the wire.
+ * It carries the mode, the width of a ciphertext block, the id of the sender's key,
+ * the length of the UTF-8 plaintext in bytes and the number of ciphertext blocks that follow,
+ * so that the receiver reads and decrypts exactly the payload and nothing more
+ *
+ * <pre>
+ * offset  size  field
+ *      0     1  version
+ *      1     1  mode (1 - authentication, 2 - encryption, 3 - both, 4 - hybrid, 5 - signed hybrid,
+ *               16 - ping, 17 - close, 18 - acknowledge, 19 - ack, 20 - nack, 21 - stream, 22 - end)
+ *      2     2  width of a ciphertext block in bytes
+ *      4     8  key id of the sender's public key
+ *     12     4  length of the plaintext in bytes, or the number of the message an ack or a nack answers
+ *     16     4  number of ciphertext blocks
+ * </pre>
+ *
+ * In the hybrid modes the ciphertext blocks hold the RSA-wrapped session key instead of the message,
+ * and they are followed by the message sealed with AES-GCM by a SessionCipher.
+ * The control frames are a header alone with every size set to 0: a ping keeps an idle
+ * connection open, and a close ends the session, from either side. A client that sends acknowledge
+ * is answered with an ack for every later message the server delivers, or a nack for one it cannot decrypt;
+ * both carry the number of that message, counting the messages of the connection from 1.
+ * A file is sent as a stream: a stream frame, a message holding the name of the file, one message
+ * for every chunk of the file, and an end frame once the whole file has been sent
+ *
+ * @author Sua "Joshua" Lee
+ * @version 17-10-2026
+ */
+final class MessageFrame {
+	/**
+	 * The size of the header in bytes
+	 */
+	static final int HEADER_SIZE = 20;
+
+	/**
+	 * The largest payload a receiver accepts, in bytes
+	 */
+	static final int MAX_PAYLOAD = 64 << 20;
+
+	// the version of the frame layout described above
+	static final byte VERSION = 1;
+
+	// the types of encryption carried in the header
+	static final int AUTHENTICATE = 1;
+	static final int ENCRYPT = 2;
+	static final int BOTH = 3;
+	static final int HYBRID = 4;
+	static final int SIGNED_HYBRID = 5;
+
+	// the control frames, which carry no payload
+	static final int PING = 16;
+	static final int CLOSE = 17;
+	static final int ACKNOWLEDGE = 18;
+	static final int ACK = 19;
+	static final int NACK = 20;
+	static final int STREAM = 21;
+	static final int END = 22;
+
+	// list of instance fields
+	private final int mode;
+	private final int blockWidth;
+	private final long keyId;
+	private final int length;
+	private final int blockCount;
+
+	/**
+	 * Constructor for MessageFrame
+	 * @param mode The type of encryption
+	 * @param blockWidth The width of a ciphertext block in bytes
+	 * @param keyId The id of the sender's public key
+	 * @param length The length of the plaintext
+	 * @param blockCount The number of ciphertext blocks
+	 */
+	MessageFrame(int mode, int blockWidth, long keyId, int length, int blockCount)
+	{
+		this.mode = mode;
+		this.blockWidth = blockWidth;
+		this.keyId = keyId;
+		this.length = length;
+		this.blockCount = blockCount;
+	}
+
+	/**
+	 * Write the header into the given buffer
+	 * @param dst The destination buffer, with at least HEADER_SIZE bytes remaining
+	 */
+	void writeTo(ByteBuffer dst)
+	{
+		dst.put(VERSION);
+		dst.put((byte) mode);
+		dst.putShort((short) blockWidth);
+		dst.putLong(keyId);
+		dst.putInt(length);
+		dst.putInt(blockCount);
+	}
+
+	/**
+	 * Read and validate a header from the given buffer
+	 * @param src The source buffer, with at least HEADER_SIZE bytes remaining
+	 * @return The header that was read
+	 * @throws ProtocolException If the header is malformed
+	 */
+	static MessageFrame readFrom(ByteBuffer src) throws ProtocolException
+	{
+		byte version = src.get();
+		int mode = src.get();
+		int blockWidth = Short.toUnsignedInt(src.getShort());
+		long keyId = src.getLong();
+		int length = src.getInt();
+		int blockCount = src.getInt();
+
+		if (version != VERSION)
+		{
+			throw new ProtocolException("unsupported frame version " + version);
+		}
+
+		if (isControl(mode))
+		{
+			if (blockWidth != 0 || blockCount != 0 || length != 0 && mode != ACK && mode != NACK)
+			{
+				throw new ProtocolException("malformed control frame");
+			}
+
+			return new MessageFrame(mode, 0, keyId, length, 0);
+		}
+
+		if (mode < AUTHENTICATE || mode > SIGNED_HYBRID || blockWidth == 0 || length < 0 || blockCount < 0
+				|| (long) blockWidth * blockCount + (isHybrid(mode) ? (long) length + SessionCipher.OVERHEAD : 0)
+						> MAX_PAYLOAD)
+		{
+			throw new ProtocolException("malformed frame header");
+		}
+
+		return new MessageFrame(mode, blockWidth, keyId, length, blockCount);
+	}
+
+	/**
+	 * Get the type of encryption
+	 * @return The type of encryption
+	 */
+	int getMode()
+	{
+		return mode;
+	}
+
+	/**
+	 * Get the width of a ciphertext block
+	 * @return The width of a ciphertext block in bytes
+	 */
+	int getBlockWidth()
+	{
+		return blockWidth;
+	}
+
+	/**
+	 * Get the id of the sender's public key
+	 * @return The id of the sender's public key
+	 */
+	long getKeyId()
+	{
+		return keyId;
+	}
+
+	/**
+	 * Get the length of the plaintext
+	 * @return The length of the plaintext
+	 */
+	int getLength()
+	{
+		return length;
+	}
+
+	/**
+	 * Get the number of the message an ack or a nack answers, which it carries in place of the length
+	 * @return The number of the message, counting from 1
+	 */
+	int getSequence()
+	{
+		return length;
+	}
+
+	/**
+	 * Get the number of ciphertext blocks
+	 * @return The number of ciphertext blocks
+	 */
+	int getBlockCount()
+	{
+		return blockCount;
+	}
+
+	/**
+	 * Get the size of the payload that follows the header
+	 * @return The size of the payload in bytes
+	 */
+	int getPayloadSize()
+	{
+		return blockWidth * blockCount + (isHybrid(mode) ? length + SessionCipher.OVERHEAD : 0);
+	}
+
+	/**
+	 * Write a control frame into a new array, ready to be sent
+	 * @param type One of PING, CLOSE, ACKNOWLEDGE, STREAM or END
+	 * @param keyId The id of the sender's public key
+	 * @return The bytes of the frame
+	 */
+	static byte[] controlBytes(int type, long keyId)
+	{
+		return controlBytes(type, keyId, 0);
+	}
+
+	/**
+	 * Write a control frame into a new array, ready to be sent
+	 * @param type One of the control frames
+	 * @param keyId The id of the sender's public key
+	 * @param sequence The number of the message an ACK or a NACK answers, or 0
+	 * @return The bytes of the frame
+	 */
+	static byte[] controlBytes(int type, long keyId, int sequence)
+	{
+		ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE);
+		new MessageFrame(type, 0, keyId, sequence, 0).writeTo(frame);
+
+		return frame.array();
+	}
+
+	/**
+	 * Check whether a frame is a control frame rather than a message
+	 * @param mode The type of the frame
+	 * @return true for PING, CLOSE, ACKNOWLEDGE, ACK, NACK, STREAM and END
+	 */
+	static boolean isControl(int mode)
+	{
+		return mode >= PING && mode <= END;
+	}
+
+	/**
+	 * Check whether a mode seals the message with a session key instead of encrypting it with RSA
+	 * @param mode The type of encryption
+	 * @return true for HYBRID and SIGNED_HYBRID
+	 */
+	static boolean isHybrid(int mode)
+	{
+		return mode == HYBRID || mode == SIGNED_HYBRID;
+	}
+
+	/**
+	 * Get the RSA mode that encrypts the blocks of a frame: the mode itself,
+	 * or the mode that wraps the session key of a hybrid mode
+	 * @param mode The type of encryption
+	 * @return One of AUTHENTICATE, ENCRYPT or BOTH
+	 */
+	static int keyMode(int mode)
+	{
+		switch (mode) {
+		case HYBRID:
+			return ENCRYPT;
+
+		case SIGNED_HYBRID:
+			return BOTH;
+
+		default:
+			return mode;
+		}
+	}
+}
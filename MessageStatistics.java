@@ -0,0 +1,177 @@
+package pki;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The latency histogram and the counters of one side and mode of the pipeline.
+ * One instance exists per side (client or server) and mode, and each is registered
+ * with the platform MBean server when the class is loaded, so that the percentiles
+ * can be scraped from a running process
+ *
+ * @author Sua "Joshua" Lee
+ * @version 17-10-2026
+ */
+public final class MessageStatistics implements MessageStatisticsMBean {
+	// the names of the modes, indexed by mode
+	private static final String[] MODE_NAMES = { null, "authenticate", "encrypt", "both", "hybrid", "signedHybrid" };
+
+	// the statistics of every side, indexed by mode
+	private static final MessageStatistics[] CLIENT = register("client");
+	private static final MessageStatistics[] SERVER = register("server");
+
+	// list of instance fields
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final LongAdder messages = new LongAdder();
+	private final LongAdder plaintextBytes = new LongAdder();
+	private final LongAdder ciphertextBytes = new LongAdder();
+	private final LongAdder rsaOperations = new LongAdder();
+
+	private MessageStatistics()
+	{
+	}
+
+	/**
+	 * Get the statistics of the client for the given mode
+	 * @param mode One of TCPClient.AUTHENTICATE, TCPClient.ENCRYPT, TCPClient.BOTH, TCPClient.HYBRID
+	 * or TCPClient.SIGNED_HYBRID
+	 * @return The statistics
+	 */
+	public static MessageStatistics client(int mode)
+	{
+		return CLIENT[mode];
+	}
+
+	/**
+	 * Get the statistics of the server for the given mode
+	 * @param mode One of TCPServer.AUTHENTICATE, TCPServer.DECRYPT, TCPServer.BOTH, TCPServer.HYBRID
+	 * or TCPServer.SIGNED_HYBRID
+	 * @return The statistics
+	 */
+	public static MessageStatistics server(int mode)
+	{
+		return SERVER[mode];
+	}
+
+	/**
+	 * Record a single message
+	 * @param nanos The time spent on the message in nanoseconds
+	 * @param plaintext The number of plaintext bytes
+	 * @param ciphertext The number of ciphertext bytes, header included
+	 * @param operations The number of modular exponentiations performed
+	 */
+	public void record(long nanos, long plaintext, long ciphertext, long operations)
+	{
+		latency.record(nanos);
+		messages.increment();
+		plaintextBytes.add(plaintext);
+		ciphertextBytes.add(ciphertext);
+		rsaOperations.add(operations);
+	}
+
+	/**
+	 * Get the histogram of the time spent on every message
+	 * @return The latency histogram
+	 */
+	public LatencyHistogram getLatency()
+	{
+		return latency;
+	}
+
+	@Override
+	public long getMessages()
+	{
+		return messages.sum();
+	}
+
+	@Override
+	public long getPlaintextBytes()
+	{
+		return plaintextBytes.sum();
+	}
+
+	@Override
+	public long getCiphertextBytes()
+	{
+		return ciphertextBytes.sum();
+	}
+
+	@Override
+	public long getRsaOperations()
+	{
+		return rsaOperations.sum();
+	}
+
+	@Override
+	public double getMeanLatencyNanos()
+	{
+		return latency.getMean();
+	}
+
+	@Override
+	public long getP50LatencyNanos()
+	{
+		return latency.getValueAtPercentile(50);
+	}
+
+	@Override
+	public long getP99LatencyNanos()
+	{
+		return latency.getValueAtPercentile(99);
+	}
+
+	@Override
+	public long getP999LatencyNanos()
+	{
+		return latency.getValueAtPercentile(99.9);
+	}
+
+	@Override
+	public long getMaxLatencyNanos()
+	{
+		return latency.getMax();
+	}
+
+	@Override
+	public void reset()
+	{
+		latency.reset();
+		messages.reset();
+		plaintextBytes.reset();
+		ciphertextBytes.reset();
+		rsaOperations.reset();
+	}
+
+	/**
+	 * Create the statistics of every mode of one side and register them as MBeans
+	 * @param side The name of the side
+	 * @return The statistics, indexed by mode
+	 */
+	private static MessageStatistics[] register(String side)
+	{
+		MessageStatistics[] statistics = new MessageStatistics[MODE_NAMES.length];
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+		for (int mode = 1; mode < MODE_NAMES.length; mode++)
+		{
+			statistics[mode] = new MessageStatistics();
+
+			try
+			{
+				server.registerMBean(statistics[mode], new ObjectName(
+						"pki:type=MessageStatistics,side=" + side + ",mode=" + MODE_NAMES[mode]));
+			}
+			catch (JMException jm)
+			{
+				// the statistics are still recorded, just not exposed
+				jm.printStackTrace();
+			}
+		}
+
+		return statistics;
+	}
+}
@@ -0,0 +1,70 @@
+package pki;
+
+/**
+ * The management interface of the statistics of one side and mode of the pipeline,
+ * registered under pki:type=MessageStatistics,side=client|server,
+ * mode=authenticate|encrypt|both|hybrid|signedHybrid
+ *
+ * @author Sua "Joshua" Lee
+ * @version 17-10-2026
+ */
+public interface MessageStatisticsMBean {
+	/**
+	 * Get the number of messages encrypted or decrypted
+	 * @return The number of messages
+	 */
+	long getMessages();
+
+	/**
+	 * Get the number of plaintext bytes of every message
+	 * @return The number of plaintext bytes
+	 */
+	long getPlaintextBytes();
+
+	/**
+	 * Get the number of ciphertext bytes of every message, headers included
+	 * @return The number of ciphertext bytes
+	 */
+	long getCiphertextBytes();
+
+	/**
+	 * Get the number of modular exponentiations performed
+	 * @return The number of RSA operations
+	 */
+	long getRsaOperations();
+
+	/**
+	 * Get the mean time spent on a message
+	 * @return The mean latency in nanoseconds
+	 */
+	double getMeanLatencyNanos();
+
+	/**
+	 * Get the median time spent on a message
+	 * @return The 50th percentile of the latency in nanoseconds
+	 */
+	long getP50LatencyNanos();
+
+	/**
+	 * Get the 99th percentile of the time spent on a message
+	 * @return The 99th percentile of the latency in nanoseconds
+	 */
+	long getP99LatencyNanos();
+
+	/**
+	 * Get the 99.9th percentile of the time spent on a message
+	 * @return The 99.9th percentile of the latency in nanoseconds
+	 */
+	long getP999LatencyNanos();
+
+	/**
+	 * Get the longest time spent on a message
+	 * @return The largest latency in nanoseconds
+	 */
+	long getMaxLatencyNanos();
+
+	/**
+	 * Forget every message recorded so far
+	 */
+	void reset();
+}
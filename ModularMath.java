@@ -0,0 +1,196 @@
+package pki;
+
+/**
+ * The shared modular arithmetic routines used by PKIKey
+ *
+ * @author Sua "Joshua" Lee
+ * @version 17-10-2026
+ */
+public final class ModularMath {
+	/**
+	 * The largest modulus for which every intermediate product
+	 * still fits exactly inside a 64-bit long
+	 */
+	public static final long MAX_MODULUS = Integer.MAX_VALUE;
+
+	private ModularMath()
+	{
+	}
+
+	/**
+	 * Calculate (base^exponent) mod modValue using the square-and-multiply method.
+	 * The number of multiplications grows with the bit length of the exponent
+	 * rather than with the exponent itself.
+	 * @param base The value of the base
+	 * @param exponent The value of the exponent; must not be negative
+	 * @param modValue The value of the modulus; must be between 1 and MAX_MODULUS
+	 * @return The value of (base^exponent) mod modValue
+	 */
+	public static long modPow(long base, long exponent, long modValue)
+	{
+		if (exponent < 0 || modValue < 1 || modValue > MAX_MODULUS)
+		{
+			throw new IllegalArgumentException();
+		}
+
+		long result = 1 % modValue;
+		long square = Math.floorMod(base, modValue);
+
+		// walk the bits of the exponent from the lowest to the highest
+		while (exponent > 0)
+		{
+			if ((exponent & 1) == 1)
+			{
+				result = (result * square) % modValue;
+			}
+
+			exponent >>>= 1;
+
+			if (exponent > 0)
+			{
+				square = (square * square) % modValue;
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Calculate the greatest common divisor of the two inputs
+	 * using the binary (Stein's) algorithm
+	 * @param first The first input
+	 * @param second The second input
+	 * @return The greatest common divisor of the absolute values of the inputs
+	 */
+	public static long gcd(long first, long second)
+	{
+		long a = Math.abs(first);
+		long b = Math.abs(second);
+
+		if (a == 0)
+		{
+			return b;
+		}
+
+		if (b == 0)
+		{
+			return a;
+		}
+
+		// remove the common factors of 2, and remember how many there were
+		int shift = Long.numberOfTrailingZeros(a | b);
+		a >>= Long.numberOfTrailingZeros(a);
+
+		while (b != 0)
+		{
+			b >>= Long.numberOfTrailingZeros(b);
+
+			// keep a as the smaller of the two odd values
+			if (a > b)
+			{
+				long temp = a;
+				a = b;
+				b = temp;
+			}
+
+			b -= a;
+		}
+
+		return a << shift;
+	}
+
+	/**
+	 * Find the integer value i such that (a * i) mod n = 1
+	 * using the extended Euclidean algorithm
+	 * @param input The value of a
+	 * @param modValue The value of n; must be positive
+	 * @return The value of i between 0 and n - 1
+	 * @throws ArithmeticException If a has no inverse modulo n
+	 */
+	public static long modInverse(long input, long modValue)
+	{
+		if (modValue < 1)
+		{
+			throw new IllegalArgumentException();
+		}
+
+		// invariant: oldR = oldS * input (mod modValue) and r = s * input (mod modValue)
+		long oldR = Math.floorMod(input, modValue);
+		long r = modValue;
+		long oldS = 1;
+		long s = 0;
+
+		while (r != 0)
+		{
+			long quotient = oldR / r;
+
+			long temp = oldR - quotient * r;
+			oldR = r;
+			r = temp;
+
+			temp = oldS - quotient * s;
+			oldS = s;
+			s = temp;
+		}
+
+		if (oldR != 1 && modValue != 1)
+		{
+			throw new ArithmeticException("no inverse modulo " + modValue);
+		}
+
+		return Math.floorMod(oldS, modValue);
+	}
+
+	/**
+	 * Check if the given input is prime using the Miller-Rabin test.
+	 * The bases 2, 7 and 61 make the test exact for every input up to MAX_MODULUS
+	 * @param input The given input; must not be larger than MAX_MODULUS
+	 * @return Whether the given input is prime
+	 */
+	public static boolean isPrime(long input)
+	{
+		if (input < 2)
+		{
+			return false;
+		}
+
+		// handle the small inputs and the bases themselves directly
+		for (long small : new long[] {2, 3, 5, 7, 61})
+		{
+			if (input % small == 0)
+			{
+				return input == small;
+			}
+		}
+
+		// write input - 1 as 2^s * oddPart
+		long oddPart = input - 1;
+		int s = Long.numberOfTrailingZeros(oddPart);
+		oddPart >>= s;
+
+		for (long base : new long[] {2, 7, 61})
+		{
+			long x = modPow(base, oddPart, input);
+
+			if (x == 1 || x == input - 1)
+			{
+				continue;
+			}
+
+			boolean witness = true;
+
+			for (int i = 1; witness && i < s; i++)
+			{
+				x = (x * x) % input;
+				witness = x != input - 1;
+			}
+
+			if (witness)
+			{
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
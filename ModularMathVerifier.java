@@ -0,0 +1,190 @@
+package pki;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The check that ModularMath.modPow, and the four operations of PKIKey built on it, give the same results
+ * as the repeated multiplication PKIKey used before, on the keys the drivers accept.
+ * Every pair of distinct primes up to the given bound is checked through modPow and PKIKey with sampled values
+ * of e and of the message; keys of random larger primes are sampled on top and checked through modPow.
+ * The old loop works in doubles, which are exact while n * n stays below 2^53; the larger keys are checked
+ * against BigInteger.modPow instead, as the old loop itself rounded there.
+ * Usage: ModularMathVerifier [maxPrime] [largeKeys]
+ *
+ * @author Sua "Joshua" Lee
+ * @version 17-10-2026
+ */
+public class ModularMathVerifier {
+	// the largest modulus for which every product of the old loop is exact in a double
+	private static final long EXACT_MODULUS = 94_906_265L;
+
+	// the number of values of e, and of messages, sampled for every key
+	private static final int EXPONENTS = 3;
+	private static final int MESSAGES = 4;
+
+	// the number of results compared so far
+	private static long comparisons;
+
+	/**
+	 * Check every key of small primes and the sampled larger keys, and report the number of results compared
+	 * @param args The largest prime of the small keys, followed by the number of larger keys to sample
+	 * @throws IllegalStateException If any result differs from the old one
+	 */
+	public static void main(String[] args)
+	{
+		int maxPrime = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		int largeKeys = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+
+		// a fixed seed, so that every run checks the same values
+		Random random = new Random(1);
+		List<Integer> primes = new ArrayList<>();
+
+		for (int candidate = 2; candidate <= maxPrime; candidate++)
+		{
+			if (BigInteger.valueOf(candidate).isProbablePrime(64))
+			{
+				primes.add(candidate);
+			}
+		}
+
+		for (int p : primes)
+		{
+			for (int q : primes)
+			{
+				if (p != q)
+				{
+					checkKey(p, q, random, true);
+				}
+			}
+		}
+
+		System.out.printf("%d keys of primes up to %d: %d results identical%n",
+				primes.size() * (primes.size() - 1), maxPrime, comparisons);
+
+		long smallComparisons = comparisons;
+		int largeChecked = 0;
+
+		for (int i = 0; i < largeKeys; i++)
+		{
+			// half of the larger keys stay where the old loop is exact, and half go past it
+			int bits = i % 2 == 0 ? 12 : 15;
+			int p = BigInteger.probablePrime(bits, random).intValue();
+			int q = BigInteger.probablePrime(bits, random).intValue();
+
+			if (p != q && (long) p * q <= Integer.MAX_VALUE)
+			{
+				checkKey(p, q, random, false);
+				largeChecked++;
+			}
+		}
+
+		System.out.printf("%d larger keys: %d results identical%n", largeChecked, comparisons - smallComparisons);
+	}
+
+	/**
+	 * Check modPow, and optionally the four operations of PKIKey, on a key with sampled values of e
+	 * and of the message
+	 * @param p The value of p
+	 * @param q The value of q
+	 * @param random The source of the sampled values
+	 * @param throughKey Whether to check the operations of PKIKey as well as modPow
+	 * @throws IllegalStateException If any result differs from the old one
+	 */
+	private static void checkKey(int p, int q, Random random, boolean throughKey)
+	{
+		int n = p * q;
+		BigInteger nPhi = BigInteger.valueOf((long) (p - 1) * (q - 1));
+
+		for (int i = 0; i < EXPONENTS; i++)
+		{
+			// the smallest e coprime to phi(n) first, then random ones
+			BigInteger e = BigInteger.valueOf(i == 0 ? 2 : 2 + random.nextInt(Math.max(1, nPhi.intValue() - 2)));
+
+			while (!e.gcd(nPhi).equals(BigInteger.ONE))
+			{
+				e = e.add(BigInteger.ONE);
+			}
+
+			PKIKey key = throughKey ? new PKIKey(p, q, e.intValue()) : null;
+			int publicE = e.intValue();
+			int d = throughKey ? key.getPrivateD() : e.modInverse(nPhi).intValue();
+
+			for (int j = 0; j < MESSAGES; j++)
+			{
+				// the edges of the range first, then random messages
+				int m = j == 0 ? 0 : j == 1 ? 1 : j == 2 ? n - 1 : random.nextInt(n);
+				int encrypted = expected(m, publicE, n);
+				int signed = expected(m, d, n);
+
+				check(ModularMath.modPow(m, publicE, n), encrypted, "modPow", m, publicE, n);
+				check(ModularMath.modPow(m, d, n), signed, "modPow", m, d, n);
+
+				if (throughKey)
+				{
+					check(key.encryptPublic(m, publicE, n), encrypted, "encryptPublic", m, publicE, n);
+					check(key.decryptPublic(m, publicE, n), encrypted, "decryptPublic", m, publicE, n);
+					check(key.encryptPrivate(m), signed, "encryptPrivate", m, d, n);
+					check(key.decryptPrivate(m), signed, "decryptPrivate", m, d, n);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Calculate (base^exponent) mod modValue the way PKIKey did before ModularMath,
+	 * or with BigInteger where that way was no longer exact
+	 * @param base The value of the base
+	 * @param exponent The value of the exponent
+	 * @param modValue The value of the modulus
+	 * @return The value of (base^exponent) mod modValue
+	 */
+	private static int expected(int base, int exponent, int modValue)
+	{
+		if (modValue > EXACT_MODULUS)
+		{
+			return BigInteger.valueOf(base).modPow(BigInteger.valueOf(exponent), BigInteger.valueOf(modValue))
+					.intValue();
+		}
+
+		// the loop of the old encryptPublic, encryptPrivate, decryptPublic and decryptPrivate
+		double intermediateMod = base % modValue;
+
+		for (int i = 1; i < exponent; i++)
+		{
+			intermediateMod *= base % modValue;
+
+			if (intermediateMod >= modValue)
+			{
+				intermediateMod = intermediateMod % modValue;
+			}
+		}
+
+		double finalMod = intermediateMod % modValue;
+
+		return (int) finalMod;
+	}
+
+	/**
+	 * Count a result, and stop the check if it differs from the old one
+	 * @param actual The result of the current code
+	 * @param expected The result of the old code
+	 * @param operation The name of the operation
+	 * @param base The value of the base
+	 * @param exponent The value of the exponent
+	 * @param modValue The value of the modulus
+	 * @throws IllegalStateException If the results differ
+	 */
+	private static void check(long actual, int expected, String operation, int base, int exponent, int modValue)
+	{
+		comparisons++;
+
+		if (actual != expected)
+		{
+			throw new IllegalStateException(operation + " gave " + actual + " instead of " + expected
+					+ " for " + base + "^" + exponent + " mod " + modValue);
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package pki;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The non-blocking PKI client that sends many messages at once,
+ * each over its own connection, multiplexed by a single selector
+ *
+ * @author Sua "Joshua" Lee
+ * @version 17-10-2026
+ */
+public class NioTCPClient {
+	// list of instance variables
+	private final InetSocketAddress target;
+	private final TCPClient encryptor;
+
+	/**
+	 * Constructor of the class NioTCPClient
+	 * @param targetAddress The address of the target (server)
+	 * @param bufferSize The size of the given buffer
+	 * @param clientKey The key for client
+	 * @param publicE The e value of the server's public key
+	 * @param publicN The n value of the server's public key
+	 */
+	public NioTCPClient(String targetAddress, int bufferSize, RSAKey clientKey, BigInteger publicE, BigInteger publicN)
+	{
+		target = new InetSocketAddress(targetAddress, TCPServer.DEFAULT_PORT);
+		encryptor = new TCPClient(bufferSize, clientKey, publicE, publicN);
+	}
+
+	/**
+	 * Encrypt and send every message over its own connection,
+	 * keeping at most the given number of connections open at a time
+	 * @param messages The messages to send
+	 * @param mode One of TCPClient.AUTHENTICATE, TCPClient.ENCRYPT or TCPClient.BOTH,
+	 * matching the choices of PKIClientDriver
+	 * @param maxConnections The largest number of connections open at a time
+	 * @throws IOException If the selector cannot be opened
+	 */
+	public void sendAll(List<String> messages, int mode, int maxConnections) throws IOException
+	{
+		try (Selector selector = Selector.open())
+		{
+			int next = 0;
+			int open = 0;
+
+			while (next < messages.size() || open > 0)
+			{
+				// start new connections while the limit allows it
+				while (next < messages.size() && open < maxConnections)
+				{
+					// the encryptor reuses its buffer, so every connection keeps its own copy,
+					// followed by the frame that ends the session
+					ByteBuffer frame = encryptor.encryptMessage(messages.get(next++), mode);
+					ByteBuffer encrypted = ByteBuffer.allocate(frame.remaining() + MessageFrame.HEADER_SIZE);
+					encrypted.put(frame).put(encryptor.controlFrame(MessageFrame.CLOSE)).flip();
+
+					SocketChannel channel = SocketChannel.open();
+					channel.configureBlocking(false);
+
+					Connection connection = new Connection(encrypted);
+
+					if (channel.connect(target))
+					{
+						channel.register(selector, SelectionKey.OP_WRITE, connection);
+					}
+					else
+					{
+						channel.register(selector, SelectionKey.OP_CONNECT, connection);
+					}
+
+					open++;
+				}
+
+				selector.select();
+				Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+
+				while (selected.hasNext())
+				{
+					SelectionKey key = selected.next();
+					selected.remove();
+
+					if (!advance(key))
+					{
+						open--;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Move a connection on to its next state
+	 * @param key The selection key of the connection
+	 * @return Whether the connection is still open
+	 */
+	private boolean advance(SelectionKey key)
+	{
+		SocketChannel channel = (SocketChannel) key.channel();
+		Connection connection = (Connection) key.attachment();
+
+		try
+		{
+			if (key.isConnectable() && channel.finishConnect())
+			{
+				key.interestOps(SelectionKey.OP_WRITE);
+			}
+			else if (key.isWritable())
+			{
+				channel.write(connection.writeBuffer);
+
+				if (!connection.writeBuffer.hasRemaining())
+				{
+					channel.close();
+					return false;
+				}
+			}
+
+			return true;
+		}
+		catch (IOException io)
+		{
+			io.printStackTrace();
+
+			try
+			{
+				channel.close();
+			}
+			catch (IOException ignored)
+			{
+				// the connection is already broken
+			}
+
+			return false;
+		}
+	}
+
+	/**
+	 * The write state of a single connection
+	 */
+	private static final class Connection {
+		private final ByteBuffer writeBuffer;
+
+		private Connection(ByteBuffer writeBuffer)
+		{
+			this.writeBuffer = writeBuffer;
+		}
+	}
+}
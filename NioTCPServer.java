@@ -0,0 +1,657 @@
+package pki;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * The non-blocking PKI server that multiplexes every client over a single selector thread.
+ * Each connection reads its frame header and then its payload through a small state machine,
+ * and the complete frames are decrypted on worker threads while the next frame is read.
+ * A connection may open with a handshake, which introduces the key of its client; a server
+ * created without the key of a client only serves the clients that introduce themselves.
+ * Pings keep a connection open, and it ends with a close frame from the client, or with one from the server
+ * once the client has sent nothing for longer than the idle timeout.
+ * A client that asks for acks gets one from the worker that delivers each of its messages; the acks
+ * the socket cannot take at once wait in the connection until the selector finds it writable.
+ * Files are refused, and the connection that sends one is closed
+ *
+ * @author Sua "Joshua" Lee
+ * @version 17-10-2026
+ */
+public class NioTCPServer implements AutoCloseable {
+	// list of instance variables
+	private final Selector selector;
+	private final ServerSocketChannel serverChannel;
+	private final RSAKey serverKey;
+	private final PeerKeyMaterial peer;
+	private final int bufferSize;
+	// idle decryptors, each used by one worker at a time so that its buffers can be reused
+	private final Queue<TCPServer> decryptors = new ConcurrentLinkedQueue<>();
+	private final ExecutorService workers;
+	private final AtomicLong clientsServed = new AtomicLong();
+	private final long keyId;
+	private volatile boolean running;
+	private volatile Consumer<String> messageListener;
+	private volatile long idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(TCPServer.DEFAULT_IDLE_TIMEOUT_MILLIS);
+
+	/**
+	 * The constructor of NioTCPServer object; the port is bound immediately
+	 * @param bufferSize The initial size of the buffer of every connection; it grows for longer messages
+	 * @param serverKey The key for the server
+	 * @param publicE The e value of the client's public key
+	 * @param publicN The n value of the client's public key
+	 * @throws IOException If the port cannot be bound
+	 */
+	public NioTCPServer(int bufferSize, RSAKey serverKey, BigInteger publicE, BigInteger publicN)
+			throws IOException
+	{
+		this(bufferSize, serverKey, TCPServer.getPeerKeyCache().get(publicE, publicN));
+	}
+
+	/**
+	 * The constructor of NioTCPServer object that learns the key of every client
+	 * through a handshake; the port is bound immediately
+	 * @param bufferSize The initial size of the buffer of every connection; it grows for longer messages
+	 * @param serverKey The key for the server
+	 * @throws IOException If the port cannot be bound
+	 */
+	public NioTCPServer(int bufferSize, RSAKey serverKey) throws IOException
+	{
+		this(bufferSize, serverKey, null);
+	}
+
+	/**
+	 * The constructor of NioTCPServer object; the port is bound immediately
+	 * @param bufferSize The initial size of the buffer of every connection; it grows for longer messages
+	 * @param serverKey The key for the server
+	 * @param peer The public key of the client and its derived values, or null to learn it through a handshake
+	 * @throws IOException If the port cannot be bound
+	 */
+	private NioTCPServer(int bufferSize, RSAKey serverKey, PeerKeyMaterial peer) throws IOException
+	{
+		this.bufferSize = bufferSize;
+		this.serverKey = serverKey;
+		this.peer = peer;
+		keyId = PeerKeyMaterial.keyId(serverKey.getPublicExponent(), serverKey.getModulus());
+		workers = ConcurrentTCPServer.newConnectionExecutor();
+
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+		serverChannel.bind(new InetSocketAddress(TCPServer.DEFAULT_PORT), ConcurrentTCPServer.BACKLOG);
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		running = true;
+	}
+
+	/**
+	 * Run the selector loop until the server is shut down,
+	 * receiving and decrypting every message each client sends until it ends its session
+	 * @param mode One of TCPServer.AUTHENTICATE, TCPServer.DECRYPT, TCPServer.BOTH, TCPServer.HYBRID
+	 * or TCPServer.SIGNED_HYBRID, matching the choices of PKIServerDriver
+	 */
+	public void serve(int mode)
+	{
+		long nextSweep = System.nanoTime();
+
+		try
+		{
+			while (running)
+			{
+				// wake up often enough to close the idle connections in time
+				long sweepInterval = idleTimeoutNanos / 4;
+				selector.select(sweepInterval > 0 ? Math.max(1, TimeUnit.NANOSECONDS.toMillis(sweepInterval)) : 0);
+				Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+
+				while (selected.hasNext())
+				{
+					SelectionKey key = selected.next();
+					selected.remove();
+
+					if (!key.isValid())
+					{
+						continue;
+					}
+
+					if (key.isAcceptable())
+					{
+						accept();
+						continue;
+					}
+
+					if (key.isWritable())
+					{
+						flush(key);
+					}
+
+					if (key.isValid() && key.isReadable())
+					{
+						read(key, mode);
+					}
+				}
+
+				long now = System.nanoTime();
+
+				if (sweepInterval > 0 && now - nextSweep >= 0)
+				{
+					closeIdle(now);
+					nextSweep = now + sweepInterval;
+				}
+			}
+		}
+		catch (ClosedSelectorException closed)
+		{
+			// the selector was closed by shutdown()
+		}
+		catch (IOException io)
+		{
+			io.printStackTrace();
+		}
+	}
+
+	/**
+	 * Stop accepting clients and wait for the messages being decrypted.
+	 * Clients whose frames have not fully arrived are disconnected
+	 * @param timeout The longest time to wait for the messages
+	 * @param unit The unit of the timeout
+	 */
+	public void shutdown(long timeout, TimeUnit unit)
+	{
+		running = false;
+
+		try
+		{
+			// closing the selector wakes the loop up and deregisters every channel
+			for (SelectionKey key : selector.keys())
+			{
+				key.channel().close();
+			}
+
+			selector.close();
+			workers.shutdown();
+
+			if (!workers.awaitTermination(timeout, unit))
+			{
+				workers.shutdownNow();
+			}
+		}
+		catch (IOException io)
+		{
+			io.printStackTrace();
+		}
+		catch (InterruptedException interrupted)
+		{
+			workers.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Shut the server down, waiting up to ten seconds for the messages being decrypted
+	 */
+	@Override
+	public void close()
+	{
+		shutdown(10, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Hand every decrypted message to the given listener instead of printing it
+	 * @param listener The listener of the decrypted messages, or null to print them
+	 */
+	public void setMessageListener(Consumer<String> listener)
+	{
+		messageListener = listener;
+	}
+
+	/**
+	 * Set the time after which a client that sends nothing, not even a ping, is disconnected
+	 * @param timeout The idle timeout, or 0 to wait for every client forever
+	 * @param unit The unit of the timeout
+	 */
+	public void setIdleTimeout(long timeout, TimeUnit unit)
+	{
+		idleTimeoutNanos = unit.toNanos(timeout);
+		selector.wakeup();
+	}
+
+	/**
+	 * Get the number of clients served so far
+	 * @return The number of clients served
+	 */
+	public long getClientsServed()
+	{
+		return clientsServed.get();
+	}
+
+	/**
+	 * Accept every pending client and start reading its hello or its first frame header
+	 * @throws IOException If a client cannot be registered
+	 */
+	private void accept() throws IOException
+	{
+		SocketChannel client;
+
+		while ((client = serverChannel.accept()) != null)
+		{
+			client.configureBlocking(false);
+			client.register(selector, SelectionKey.OP_READ, new Connection(peer));
+		}
+	}
+
+	/**
+	 * Read what has arrived for a client, and hand the frame over once it is complete
+	 * @param key The selection key of the client
+	 * @param mode The type of decryption
+	 */
+	private void read(SelectionKey key, int mode)
+	{
+		SocketChannel client = (SocketChannel) key.channel();
+		Connection connection = (Connection) key.attachment();
+
+		connection.lastActive = System.nanoTime();
+
+		try
+		{
+			if (client.read(connection.readBuffer) < 0)
+			{
+				// the client closed the connection, possibly in the middle of a frame
+				connection.state = State.CLOSED;
+			}
+
+			// a full buffer moves the connection on, possibly through several states at once
+			while (connection.state != State.CLOSED && !connection.readBuffer.hasRemaining())
+			{
+				advance(client, connection, mode);
+			}
+		}
+		catch (IOException io)
+		{
+			// a failed read or write, or a malformed hello or header
+			connection.state = State.CLOSED;
+		}
+
+		if (connection.state == State.CLOSED)
+		{
+			close(key, connection);
+		}
+	}
+
+	/**
+	 * Close every connection that has sent nothing, not even a ping, within the idle timeout,
+	 * telling its client with a close frame
+	 * @param now The current time in nanoseconds
+	 */
+	private void closeIdle(long now)
+	{
+		for (SelectionKey key : selector.keys())
+		{
+			if (key.attachment() instanceof Connection
+					&& now - ((Connection) key.attachment()).lastActive >= idleTimeoutNanos)
+			{
+				reply(key, MessageFrame.controlBytes(MessageFrame.CLOSE, keyId));
+				close(key, (Connection) key.attachment());
+			}
+		}
+	}
+
+	/**
+	 * Close the connection of a client, counting it if it delivered any frame
+	 * @param key The selection key of the client
+	 * @param connection The read state of the client
+	 */
+	private void close(SelectionKey key, Connection connection)
+	{
+		if (connection.framesReceived > 0)
+		{
+			clientsServed.incrementAndGet();
+		}
+
+		key.cancel();
+		closeQuietly((SocketChannel) key.channel());
+	}
+
+	/**
+	 * Move a connection whose buffer is full on to its next state
+	 * @param client The channel of the client
+	 * @param connection The read state of the client
+	 * @param mode The type of decryption
+	 * @throws IOException If the hello or the header is malformed, or the answer cannot be written
+	 */
+	private void advance(SocketChannel client, Connection connection, int mode) throws IOException
+	{
+		switch (connection.state) {
+		case OPENING:
+			if (connection.readBuffer.get(0) == Handshake.HELLO)
+			{
+				connection.expectHello();
+			}
+			else if (connection.peer == null)
+			{
+				throw new ProtocolException("the client did not introduce its key");
+			}
+			else
+			{
+				connection.continueHeader();
+			}
+			break;
+
+		case HELLO:
+			answer(client, connection, mode);
+			break;
+
+		case HEADER:
+			connection.expectPayload();
+			break;
+
+		default:
+			ByteBuffer received = connection.readBuffer.flip();
+			PeerKeyMaterial sender = connection.peer;
+			SelectionKey key = connection.acknowledging ? client.keyFor(selector) : null;
+			int sequence = (int) ++connection.framesReceived;
+			workers.execute(() -> deliver(received, sender, mode, key, sequence));
+			connection.expectHeader(bufferSize);
+		}
+	}
+
+	/**
+	 * Answer the hello that has just arrived, and start reading frames once the client is known
+	 * @param client The channel of the client
+	 * @param connection The read state of the client
+	 * @param mode The type of decryption
+	 * @throws IOException If the hello is malformed, or the answer cannot be written
+	 */
+	private void answer(SocketChannel client, Connection connection, int mode) throws IOException
+	{
+		Handshake hello = Handshake.readFrom(connection.readBuffer.flip());
+		PeerKeyMaterial introduced = TCPServer.introduce(hello, mode);
+		Handshake answer = Handshake.answer(TCPServer.answerCode(hello, mode, introduced), mode, serverKey);
+
+		ByteBuffer written = ByteBuffer.allocate(answer.size());
+		answer.writeTo(written);
+		client.write(written.flip());
+
+		// the answer is the first thing written to the connection, so it fits the empty send buffer
+		if (written.hasRemaining())
+		{
+			throw new IOException("the answer to the hello was not sent in full");
+		}
+
+		if (answer.getCode() == Handshake.REJECTED)
+		{
+			connection.state = State.CLOSED;
+		}
+		else if (introduced == null)
+		{
+			// the client introduces its key in another hello
+			connection.expectOpening();
+		}
+		else
+		{
+			connection.peer = introduced;
+			connection.expectHeader(bufferSize);
+		}
+	}
+
+	/**
+	 * Decrypt a complete frame and hand it to the listener, or print it,
+	 * and then ack it, or nack it if it could not be delivered, provided the client asked for acks
+	 * @param received The frame received from the client
+	 * @param sender The public key of the client and its derived values
+	 * @param mode The type of decryption
+	 * @param key The selection key of the client, or null if it did not ask for acks
+	 * @param sequence The number of the message within its connection
+	 */
+	private void deliver(ByteBuffer received, PeerKeyMaterial sender, int mode, SelectionKey key, int sequence)
+	{
+		TCPServer decryptor = decryptors.poll();
+		boolean delivered = false;
+
+		if (decryptor == null)
+		{
+			decryptor = new TCPServer(bufferSize, serverKey, sender);
+		}
+
+		try
+		{
+			decryptor.usePeer(sender);
+			String message = decryptor.decryptMessage(received, mode);
+			Consumer<String> listener = messageListener;
+
+			if (listener == null)
+			{
+				System.out.println("Here's the decrypted message: \n" + message);
+			}
+			else
+			{
+				listener.accept(message);
+			}
+
+			delivered = true;
+		}
+		catch (IOException | RuntimeException failed)
+		{
+			// a malformed payload or a failing listener costs this message only, never the worker
+			failed.printStackTrace();
+		}
+		finally
+		{
+			decryptors.offer(decryptor);
+
+			// every frame is answered, with a nack unless it was delivered
+			if (key != null)
+			{
+				reply(key, MessageFrame.controlBytes(delivered ? MessageFrame.ACK : MessageFrame.NACK, keyId,
+						sequence));
+			}
+		}
+	}
+
+	/**
+	 * Send a control frame to a client, from any thread. What the socket cannot take at once
+	 * waits in the connection, in order, until the selector finds the socket writable
+	 * @param key The selection key of the client
+	 * @param frame The bytes of the control frame
+	 */
+	private void reply(SelectionKey key, byte[] frame)
+	{
+		Connection connection = (Connection) key.attachment();
+
+		synchronized (connection.replies)
+		{
+			connection.replies.add(ByteBuffer.wrap(frame));
+		}
+
+		flush(key);
+	}
+
+	/**
+	 * Write as many of the waiting replies of a client as its socket takes,
+	 * and watch for room in the socket only while some are left
+	 * @param key The selection key of the client
+	 */
+	private void flush(SelectionKey key)
+	{
+		SocketChannel client = (SocketChannel) key.channel();
+		Queue<ByteBuffer> replies = ((Connection) key.attachment()).replies;
+
+		synchronized (replies)
+		{
+			try
+			{
+				while (!replies.isEmpty())
+				{
+					client.write(replies.peek());
+
+					if (replies.peek().hasRemaining())
+					{
+						break;
+					}
+
+					replies.poll();
+				}
+
+				if (replies.isEmpty())
+				{
+					key.interestOps(SelectionKey.OP_READ);
+				}
+				else if (key.interestOps() != (SelectionKey.OP_READ | SelectionKey.OP_WRITE))
+				{
+					key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+					selector.wakeup();
+				}
+			}
+			catch (IOException | CancelledKeyException gone)
+			{
+				// the connection is closed, or being closed by the selector thread
+				replies.clear();
+			}
+		}
+	}
+
+	/**
+	 * Close the given channel, ignoring any failure
+	 * @param channel The channel to close
+	 */
+	private static void closeQuietly(SocketChannel channel)
+	{
+		try
+		{
+			channel.close();
+		}
+		catch (IOException ignored)
+		{
+			// nothing left to do for this client
+		}
+	}
+
+	/**
+	 * The states a connection goes through
+	 */
+	private enum State {
+		OPENING, HELLO, HEADER, PAYLOAD, CLOSED
+	}
+
+	/**
+	 * The read state of a single client
+	 */
+	private static final class Connection {
+		private ByteBuffer readBuffer;
+		private State state;
+		private long framesReceived;
+		private PeerKeyMaterial peer;
+		private long lastActive = System.nanoTime();
+		private boolean acknowledging;
+
+		// the replies to the client that its socket has not taken yet
+		private final Queue<ByteBuffer> replies = new ArrayDeque<>();
+
+		private Connection(PeerKeyMaterial peer)
+		{
+			this.peer = peer;
+			expectOpening();
+		}
+
+		/**
+		 * Start reading the first bytes of the connection, which tell a hello from a frame header
+		 */
+		private void expectOpening()
+		{
+			// the fixed part of a hello is shorter than a frame header, so it never reads past either
+			readBuffer = ByteBuffer.allocate(Handshake.PREFIX_SIZE);
+			state = State.OPENING;
+		}
+
+		/**
+		 * Read the rest of the hello whose fixed part has just arrived
+		 * @throws IOException If the hello is malformed
+		 */
+		private void expectHello() throws IOException
+		{
+			ByteBuffer hello = ByteBuffer.allocate(Handshake.sizeOf(readBuffer.flip()));
+			hello.put(readBuffer);
+			readBuffer = hello;
+			state = State.HELLO;
+		}
+
+		/**
+		 * Read the rest of the frame header whose first bytes have just arrived
+		 */
+		private void continueHeader()
+		{
+			ByteBuffer header = ByteBuffer.allocate(MessageFrame.HEADER_SIZE);
+			header.put(readBuffer.flip());
+			readBuffer = header;
+			state = State.HEADER;
+		}
+
+		/**
+		 * Start reading the header of the next frame into a fresh buffer,
+		 * as the buffer of the previous frame now belongs to the worker decrypting it
+		 * @param bufferSize The initial size of the buffer
+		 */
+		private void expectHeader(int bufferSize)
+		{
+			readBuffer = ByteBuffer.allocate(Math.max(bufferSize, MessageFrame.HEADER_SIZE));
+			readBuffer.limit(MessageFrame.HEADER_SIZE);
+			state = State.HEADER;
+		}
+
+		/**
+		 * Parse the header that has just arrived and make room for the payload it announces.
+		 * A control frame has no payload: a close ends the connection, an acknowledge turns on the acks
+		 * of later messages, and the others are skipped
+		 * @throws IOException If the header is malformed, or starts a file
+		 */
+		private void expectPayload() throws IOException
+		{
+			MessageFrame frame = MessageFrame.readFrom(ByteBuffer.wrap(readBuffer.array(), 0, MessageFrame.HEADER_SIZE));
+
+			// the workers decrypt frames in any order, so the chunks of a file cannot be put back together
+			if (frame.getMode() == MessageFrame.STREAM)
+			{
+				throw new ProtocolException("this server does not accept files");
+			}
+
+			if (MessageFrame.isControl(frame.getMode()))
+			{
+				readBuffer.clear().limit(MessageFrame.HEADER_SIZE);
+				acknowledging |= frame.getMode() == MessageFrame.ACKNOWLEDGE;
+				state = frame.getMode() == MessageFrame.CLOSE ? State.CLOSED : State.HEADER;
+				return;
+			}
+
+			int frameSize = MessageFrame.HEADER_SIZE + frame.getPayloadSize();
+
+			// grow the buffer if the message does not fit, keeping the header
+			if (readBuffer.capacity() < frameSize)
+			{
+				ByteBuffer larger = ByteBuffer.allocate(frameSize);
+				readBuffer.flip();
+				larger.put(readBuffer);
+				readBuffer = larger;
+			}
+
+			readBuffer.limit(frameSize);
+			state = State.PAYLOAD;
+		}
+	}
+}
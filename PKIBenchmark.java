@@ -0,0 +1,447 @@
+package pki;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * The micro-benchmark suite of PKIKey and the client/server pipeline.
+ * It covers key construction, the four encrypt/decrypt operations across key sizes and exponents,
+ * the encode-pack-encrypt-frame path of TCPClient and the decrypt-unpack-decode path of TCPServer
+ * for every mode and several message lengths.
+ * Each benchmark is warmed up and then measured in fixed-time iterations, and the results are
+ * written in the JSON format of JMH, so that they can be compared with the usual JMH tools.
+ * Usage: PKIBenchmark [resultFile] [benchmarkRegex]
+ *
+ * @author Sua "Joshua" Lee
+ * @version 17-10-2026
+ */
+public class PKIBenchmark {
+	// the shape of every measurement
+	private static final int WARMUP_ITERATIONS = 3;
+	private static final int MEASUREMENT_ITERATIONS = 5;
+	private static final long ITERATION_NANOS = 200_000_000L;
+
+	// Student's t for a two-sided 99.9% interval with MEASUREMENT_ITERATIONS - 1 degrees of freedom
+	private static final double T_999 = 8.610;
+
+	// the parameters of the suite
+	private static final int[] KEY_BITS = { 16, 30, 512, 1024, 2048 };
+	private static final int[] EXPONENTS = { 3, 65537 };
+	private static final int[] PIPELINE_KEY_BITS = { 30, 1024 };
+	private static final int[] MESSAGE_LENGTHS = { 16, 256, 4096 };
+	private static final int[] MODES = { TCPServer.AUTHENTICATE, TCPServer.DECRYPT, TCPServer.BOTH, TCPServer.HYBRID,
+			TCPServer.SIGNED_HYBRID };
+
+	// the number of distinct inputs cycled through by the single-value benchmarks
+	private static final int INPUTS = 1024;
+
+	// every result is folded in here, so that the JIT cannot drop the work
+	private static volatile long sink;
+
+	/**
+	 * A single invocation of the code being measured
+	 */
+	private interface Operation {
+		/**
+		 * Run the code once
+		 * @return A value depending on the result
+		 * @throws Exception If the code fails
+		 */
+		long run() throws Exception;
+	}
+
+	// the state of the run
+	private final Pattern filter;
+	private final List<String> results = new ArrayList<>();
+
+	/**
+	 * Constructor for PKIBenchmark
+	 * @param filter The pattern the names of the benchmarks to run must contain
+	 */
+	private PKIBenchmark(Pattern filter)
+	{
+		this.filter = filter;
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		String resultFile = args.length > 0 ? args[0] : "pki-benchmark.json";
+		Pattern filter = Pattern.compile(args.length > 1 ? args[1] : "");
+
+		PKIBenchmark suite = new PKIBenchmark(filter);
+		suite.keyBenchmarks();
+		suite.pipelineBenchmarks();
+		suite.writeResults(resultFile);
+
+		System.out.println("Results written to " + resultFile);
+	}
+
+	/**
+	 * Measure the construction of keys and the four operations of a key
+	 * for every key size and exponent
+	 * @throws Exception If a benchmark fails
+	 */
+	private void keyBenchmarks() throws Exception
+	{
+		for (int bits : KEY_BITS)
+		{
+			for (int exponent : EXPONENTS)
+			{
+				BigInteger e = BigInteger.valueOf(exponent);
+				KeyGenerator generator = new KeyGenerator(new Random(bits * 31L + exponent));
+				BigInteger[] primes = distinctPrimes(generator, bits, e);
+				RSAKey key = RSAKey.of(primes[0], primes[1], e);
+				BigInteger[] peerPrimes = distinctPrimes(generator, bits, e);
+				RSAKey peer = RSAKey.of(peerPrimes[0], peerPrimes[1], e);
+				String[] params = { "keyBits", String.valueOf(bits), "e", String.valueOf(exponent) };
+
+				measure("construct", params, () -> RSAKey.of(primes[0], primes[1], e).getModulus().bitLength());
+
+				if (key instanceof PKIKey && peer instanceof PKIKey)
+				{
+					smallKeyBenchmarks((PKIKey) key, (PKIKey) peer, params);
+				}
+				else
+				{
+					bigKeyBenchmarks(key, peer, params);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Generate two distinct primes whose product has the given bit length
+	 * @param generator The generator of the primes
+	 * @param bits The bit length of the product
+	 * @param e The value of e the primes must suit
+	 * @return The two primes
+	 */
+	private static BigInteger[] distinctPrimes(KeyGenerator generator, int bits, BigInteger e)
+	{
+		BigInteger p = generator.generatePrime((bits + 1) / 2, e);
+		BigInteger q = generator.generatePrime(bits / 2, e);
+
+		while (q.equals(p))
+		{
+			q = generator.generatePrime(bits / 2, e);
+		}
+
+		return new BigInteger[] { p, q };
+	}
+
+	/**
+	 * Measure the four int operations of PKIKey
+	 * @param key The key being measured
+	 * @param peer The key of the other side
+	 * @param params The parameters of the key
+	 * @throws Exception If a benchmark fails
+	 */
+	private void smallKeyBenchmarks(PKIKey key, PKIKey peer, String[] params) throws Exception
+	{
+		int publicE = peer.getPublicE();
+		int publicN = peer.getPublicN();
+		int[] toPeer = randomInts(publicN);
+		int[] toKey = randomInts(key.getPublicN());
+		int[] index = new int[1];
+
+		measure("encryptPublic", params, () -> key.encryptPublic(toPeer[next(index)], publicE, publicN));
+		measure("encryptPrivate", params, () -> key.encryptPrivate(toKey[next(index)]));
+		measure("decryptPublic", params, () -> key.decryptPublic(toPeer[next(index)], publicE, publicN));
+		measure("decryptPrivate", params, () -> key.decryptPrivate(toKey[next(index)]));
+	}
+
+	/**
+	 * Measure the four BigInteger operations of a key of any size
+	 * @param key The key being measured
+	 * @param peer The key of the other side
+	 * @param params The parameters of the key
+	 * @throws Exception If a benchmark fails
+	 */
+	private void bigKeyBenchmarks(RSAKey key, RSAKey peer, String[] params) throws Exception
+	{
+		BigInteger publicE = peer.getPublicExponent();
+		BigInteger publicN = peer.getModulus();
+		BigInteger[] toPeer = randomBigIntegers(publicN);
+		BigInteger[] toKey = randomBigIntegers(key.getModulus());
+		int[] index = new int[1];
+
+		measure("encryptPublic", params, () -> key.encryptPublic(toPeer[next(index)], publicE, publicN).longValue());
+		measure("encryptPrivate", params, () -> key.encryptPrivate(toKey[next(index)]).longValue());
+		measure("decryptPublic", params, () -> key.decryptPublic(toPeer[next(index)], publicE, publicN).longValue());
+		measure("decryptPrivate", params, () -> key.decryptPrivate(toKey[next(index)]).longValue());
+	}
+
+	/**
+	 * Measure TCPClient.encryptMessage and TCPServer.decryptMessage
+	 * for every mode, key size and message length
+	 * @throws Exception If a benchmark fails
+	 */
+	private void pipelineBenchmarks() throws Exception
+	{
+		for (int bits : PIPELINE_KEY_BITS)
+		{
+			KeyGenerator generator = new KeyGenerator(new Random(bits));
+			RSAKey clientKey = generator.generateKey(bits);
+			RSAKey serverKey = generator.generateKey(bits);
+
+			TCPClient client = new TCPClient(0, clientKey, serverKey.getPublicExponent(), serverKey.getModulus());
+			TCPServer server = new TCPServer(0, serverKey,
+					new PeerKeyMaterial(clientKey.getPublicExponent(), clientKey.getModulus()));
+
+			for (int length : MESSAGE_LENGTHS)
+			{
+				String message = randomText(length);
+
+				for (int mode : MODES)
+				{
+					String[] params = { "keyBits", String.valueOf(bits), "length", String.valueOf(length),
+							"mode", String.valueOf(mode) };
+
+					measure("clientEncryptMessage", params, () -> client.encryptMessage(message, mode).limit());
+
+					// decrypt a copy of the frame, as the client reuses its buffer
+					ByteBuffer sent = client.encryptMessage(message, mode);
+					ByteBuffer frame = ByteBuffer.allocate(sent.remaining()).put(sent);
+
+					measure("serverDecryptMessage", params, () -> {
+						frame.position(0);
+						return server.decryptMessage(frame, mode).length();
+					});
+				}
+			}
+		}
+	}
+
+	/**
+	 * Warm the operation up, measure it, print the result, and record it
+	 * @param benchmark The name of the benchmark
+	 * @param params The names and values of its parameters, in pairs
+	 * @param operation The operation to measure
+	 * @throws Exception If the operation fails
+	 */
+	private void measure(String benchmark, String[] params, Operation operation) throws Exception
+	{
+		if (!filter.matcher(benchmark).find())
+		{
+			return;
+		}
+
+		// grow the batch between two clock reads until a batch takes at least ten microseconds
+		int batch = 1;
+
+		for (int i = 0; i < WARMUP_ITERATIONS; i++)
+		{
+			double nanosPerOp = iteration(operation, batch);
+			batch = (int) Math.max(1, Math.min(1 << 20, 10_000 / Math.max(nanosPerOp, 1)));
+		}
+
+		double[] scores = new double[MEASUREMENT_ITERATIONS];
+		double sum = 0;
+
+		for (int i = 0; i < scores.length; i++)
+		{
+			scores[i] = iteration(operation, batch);
+			sum += scores[i];
+		}
+
+		double mean = sum / scores.length;
+		double squares = 0;
+
+		for (double score : scores)
+		{
+			squares += (score - mean) * (score - mean);
+		}
+
+		double error = T_999 * Math.sqrt(squares / (scores.length - 1)) / Math.sqrt(scores.length);
+
+		System.out.printf("%-22s %-36s %14.1f +- %10.1f ns/op%n", benchmark, describe(params), mean, error);
+		results.add(toJson(benchmark, params, mean, error, scores));
+	}
+
+	/**
+	 * Run the operation in batches for one iteration
+	 * @param operation The operation to run
+	 * @param batch The number of runs between two clock reads
+	 * @return The average time of a single run in nanoseconds
+	 * @throws Exception If the operation fails
+	 */
+	private static double iteration(Operation operation, int batch) throws Exception
+	{
+		long operations = 0;
+		long result = 0;
+		long startTime = System.nanoTime();
+		long deadline = startTime + ITERATION_NANOS;
+		long now;
+
+		do
+		{
+			for (int i = 0; i < batch; i++)
+			{
+				result ^= operation.run();
+			}
+
+			operations += batch;
+			now = System.nanoTime();
+		}
+		while (now < deadline);
+
+		sink ^= result;
+
+		return (double) (now - startTime) / operations;
+	}
+
+	/**
+	 * Write every recorded result to the given file
+	 * @param resultFile The path of the file
+	 * @throws IOException If the file cannot be written
+	 */
+	private void writeResults(String resultFile) throws IOException
+	{
+		try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(Paths.get(resultFile), StandardCharsets.UTF_8)))
+		{
+			writer.println("[");
+			writer.println(String.join(",\n", results));
+			writer.println("]");
+		}
+	}
+
+	/**
+	 * Format a result as an entry of the JSON format of JMH
+	 * @param benchmark The name of the benchmark
+	 * @param params The names and values of its parameters, in pairs
+	 * @param mean The average time of a single run in nanoseconds
+	 * @param error The half-width of the 99.9% confidence interval
+	 * @param scores The average time of every iteration
+	 * @return The JSON object of the result
+	 */
+	private static String toJson(String benchmark, String[] params, double mean, double error, double[] scores)
+	{
+		StringBuilder json = new StringBuilder();
+		json.append("    {\n");
+		json.append("        \"benchmark\" : \"").append(PKIBenchmark.class.getName()).append('.').append(benchmark).append("\",\n");
+		json.append("        \"mode\" : \"avgt\",\n");
+		json.append("        \"threads\" : 1,\n");
+		json.append("        \"forks\" : 1,\n");
+		json.append("        \"warmupIterations\" : ").append(WARMUP_ITERATIONS).append(",\n");
+		json.append("        \"warmupTime\" : \"").append(ITERATION_NANOS / 1_000_000).append(" ms\",\n");
+		json.append("        \"measurementIterations\" : ").append(MEASUREMENT_ITERATIONS).append(",\n");
+		json.append("        \"measurementTime\" : \"").append(ITERATION_NANOS / 1_000_000).append(" ms\",\n");
+		json.append("        \"params\" : {");
+
+		for (int i = 0; i < params.length; i += 2)
+		{
+			json.append(i == 0 ? "\n" : ",\n");
+			json.append("            \"").append(params[i]).append("\" : \"").append(params[i + 1]).append('"');
+		}
+
+		json.append("\n        },\n");
+		json.append("        \"primaryMetric\" : {\n");
+		json.append("            \"score\" : ").append(mean).append(",\n");
+		json.append("            \"scoreError\" : ").append(error).append(",\n");
+		json.append("            \"scoreUnit\" : \"ns/op\",\n");
+		json.append("            \"rawData\" : [\n                [");
+
+		for (int i = 0; i < scores.length; i++)
+		{
+			json.append(i == 0 ? "" : ", ").append(scores[i]);
+		}
+
+		json.append("]\n            ]\n        }\n");
+		json.append("    }");
+
+		return json.toString();
+	}
+
+	/**
+	 * Format the parameters of a benchmark for printing
+	 * @param params The names and values of its parameters, in pairs
+	 * @return The parameters as name=value pairs
+	 */
+	private static String describe(String[] params)
+	{
+		StringBuilder description = new StringBuilder();
+
+		for (int i = 0; i < params.length; i += 2)
+		{
+			description.append(i == 0 ? "" : " ").append(params[i]).append('=').append(params[i + 1]);
+		}
+
+		return description.toString();
+	}
+
+	/**
+	 * Get the next index of the cycled inputs
+	 * @param index The holder of the current index
+	 * @return The current index, which is then advanced
+	 */
+	private static int next(int[] index)
+	{
+		int current = index[0];
+		index[0] = (current + 1) % INPUTS;
+
+		return current;
+	}
+
+	/**
+	 * Create random values below the given modulus
+	 * @param modValue The value of the modulus
+	 * @return The values
+	 */
+	private static int[] randomInts(int modValue)
+	{
+		Random random = new Random(modValue);
+		int[] values = new int[INPUTS];
+
+		for (int i = 0; i < values.length; i++)
+		{
+			values[i] = random.nextInt(modValue);
+		}
+
+		return values;
+	}
+
+	/**
+	 * Create random values below the given modulus
+	 * @param modValue The value of the modulus
+	 * @return The values
+	 */
+	private static BigInteger[] randomBigIntegers(BigInteger modValue)
+	{
+		Random random = new Random(modValue.longValue());
+		BigInteger[] values = new BigInteger[INPUTS];
+
+		for (int i = 0; i < values.length; i++)
+		{
+			values[i] = new BigInteger(modValue.bitLength() - 1, random);
+		}
+
+		return values;
+	}
+
+	/**
+	 * Create a random printable ASCII text
+	 * @param length The length of the text
+	 * @return The text
+	 */
+	private static String randomText(int length)
+	{
+		Random random = new Random(length);
+		char[] text = new char[length];
+
+		for (int i = 0; i < length; i++)
+		{
+			text[i] = (char) (' ' + random.nextInt('~' - ' ' + 1));
+		}
+
+		return String.valueOf(text);
+	}
+}
@@ -1,5 +1,8 @@
 package pki;
 
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Paths;
 import java.util.Scanner;
 
 /**
@@ -21,52 +24,147 @@ public class PKIClientDriver {
 		sc.nextLine();
 		System.out.println();
 		
-		// read the values of p, q, and e from user
-		System.out.print("Please input the value of p.\n"
-				+ "The value of p should be prime number: ");
-		byte p = sc.nextByte();
-		sc.nextLine();
+		// the keys may come from a key store instead of being typed
+		System.out.print("Please input the path of a key store,\n"
+				+ "or leave it empty to type the keys yourself: ");
+		String storePath = sc.nextLine().trim();
 		
-		System.out.println();
+		PKIKeyStore keyStore = null;
 		
-		System.out.print("Please input the value of q.\n"
-				+ "The value of q should be prime number that is NOT equal to p: ");
-		byte q = sc.nextByte();
-		sc.nextLine();
+		if (!storePath.isEmpty())
+		{
+			try
+			{
+				keyStore = PKIKeyStore.open(Paths.get(storePath));
+			}
+			catch (IOException io)
+			{
+				io.printStackTrace();
+			}
+		}
 		
 		System.out.println();
 		
-		System.out.print("Please input the value of e.\n"
-				+ "The value of e should be coprime to (p - 1)*(q - 1): ");
-		byte e = sc.nextByte();
-		sc.nextLine();
+		RSAKey clientKey = null;
 		
-		System.out.println();
+		if (keyStore != null)
+		{
+			System.out.print("Please input the name of your key in the key store: ");
+			clientKey = keyStore.getKey(sc.nextLine().trim());
+			
+			if (clientKey == null)
+			{
+				System.out.println("There is no such key; please set one up.");
+			}
+			
+			System.out.println();
+		}
 		
-	    // create a client key based on the inputs
-		PKIKey clientKey = new PKIKey(p, q, e);
+		if (clientKey == null)
+		{
+			// generate a key of the requested size, or read its values from user
+			System.out.print("Please input the size of n in bits to generate a new key,\n"
+					+ "or 0 to input the values of p, q, and e yourself: ");
+			int modulusBits = sc.nextInt();
+			sc.nextLine();
+			
+			System.out.println();
+			
+			if (modulusBits > 0)
+			{
+				clientKey = new KeyGenerator().generateKey(modulusBits);
+			}
+			else
+			{
+				// read the values of p, q, and e from user
+				System.out.print("Please input the value of p.\n"
+						+ "The value of p should be prime number: ");
+				BigInteger p = sc.nextBigInteger();
+				sc.nextLine();
+				
+				System.out.println();
+				
+				System.out.print("Please input the value of q.\n"
+						+ "The value of q should be prime number that is NOT equal to p: ");
+				BigInteger q = sc.nextBigInteger();
+				sc.nextLine();
+				
+				System.out.println();
+				
+				System.out.print("Please input the value of e.\n"
+						+ "The value of e should be coprime to (p - 1)*(q - 1): ");
+				BigInteger e = sc.nextBigInteger();
+				sc.nextLine();
+				
+				System.out.println();
+				
+				clientKey = RSAKey.of(p, q, e);
+			}
+		}
+		
+		// small keys look their values up instead of exponentiating every character
+		if (clientKey instanceof PKIKey)
+		{
+			((PKIKey) clientKey).setLookupTables(true);
+		}
 		
 		// inform the user about the PKIKey values
 		System.out.println("Your public key pair is {"
-				+ clientKey.getPublicE() + ", " + clientKey.getPublicN() + "}.");
+				+ clientKey.getPublicExponent() + ", " + clientKey.getModulus() + "}.");
 		System.out.println("Share this value with the server.");
 		
 		System.out.println("Your private key pair is {"
-				+ clientKey.getPrivateD() + ", " + clientKey.getPublicN() + "}.");
+				+ clientKey.getPrivateExponent() + ", " + clientKey.getModulus() + "}.");
 		System.out.println("Do NOT share this value with the server.");
 		System.out.println();
 		
-		// prompt the user for the server's public key values
-		System.out.print("Please input e value of the server's public key: ");
+		BigInteger serverE = null;
+		BigInteger serverN = null;
 		
-		int serverE = sc.nextInt();
-		sc.nextLine();
+		if (keyStore != null)
+		{
+			System.out.print("Please input the alias of the server's public key in the key store: ");
+			PKIKeyStore.PeerKey serverPeer = keyStore.findPeer(sc.nextLine().trim());
+			
+			if (serverPeer != null)
+			{
+				serverE = serverPeer.getPublicE();
+				serverN = serverPeer.getPublicN();
+			}
+			else
+			{
+				System.out.println("There is no such peer; please type its key.");
+			}
+			
+			System.out.println();
+		}
 		
-		System.out.print("Please input n value of the server's public key: ");
+		boolean handshake = false;
 		
-		int serverN = sc.nextInt();
-		sc.nextLine();
-		System.out.println();
+		if (serverE == null)
+		{
+			System.out.print("Please input 1 to learn the server's public key when it connects,\n"
+					+ "or 2 to input it yourself: ");
+			handshake = sc.nextInt() == 1;
+			sc.nextLine();
+			
+			System.out.println();
+		}
+		
+		if (serverE == null && !handshake)
+		{
+			// prompt the user for the server's public key values
+			System.out.print("Please input e value of the server's public key: ");
+			
+			serverE = sc.nextBigInteger();
+			sc.nextLine();
+			
+			System.out.print("Please input n value of the server's public key: ");
+			
+			serverN = sc.nextBigInteger();
+			sc.nextLine();
+			System.out.println();
+		}
 		
 		// ask the user for the type of encryption
 		boolean appropriateInput = false;
@@ -77,12 +175,14 @@ public class PKIClientDriver {
 			System.out.println("Please choose the type of encryption you wish: \n"
 					+ "\t 1 - Authentication\n"
 					+ "\t 2 - Encryption\n"
-					+ "\t 3 - Both");
+					+ "\t 3 - Both\n"
+					+ "\t 4 - Hybrid (AES-GCM under an encrypted session key)\n"
+					+ "\t 5 - Signed hybrid (AES-GCM under a signed and encrypted session key)");
 			System.out.print("Input the appropriate number: ");
 			choice = sc.nextInt();
 			sc.nextLine();
 			
-			if (choice > 0 && choice < 4)
+			if (choice > 0 && choice < 6)
 			{
 				appropriateInput = true;
 			}
@@ -92,11 +192,35 @@ public class PKIClientDriver {
 			}
 		}
 		
-		// time to read the message
-		System.out.print("Please input the message: ");
+		System.out.print("Please input 1 to send a message, or 2 to send a file: ");
+		boolean sendingFile = sc.nextInt() == 2;
+		sc.nextLine();
+		
+		System.out.println();
+		
+		// time to read the message, or the path of the file
+		System.out.print(sendingFile ? "Please input the path of the file: " : "Please input the message: ");
 		String message = sc.nextLine();
 		
-		TCPClient theClient = new TCPClient(address, bufferSize, clientKey, serverE, serverN);
+		TCPClient theClient = handshake ? new TCPClient(address, bufferSize, clientKey, choice)
+				: new TCPClient(address, bufferSize, clientKey, serverE, serverN);
+		
+		if (sendingFile)
+		{
+			try
+			{
+				long sent = theClient.sendFile(Paths.get(message.trim()), choice);
+				System.out.println("File sent (" + sent + " bytes)");
+			}
+			catch (IOException io)
+			{
+				io.printStackTrace();
+			}
+			
+			theClient.close();
+			sc.close();
+			return;
+		}
 		
 		switch (choice) {
 		case 1:
@@ -110,10 +234,19 @@ public class PKIClientDriver {
 		case 3:
 			theClient.encryptAndAuthenticate(message);
 			break;
+			
+		case 4:
+			theClient.sealAndSend(message);
+			break;
+			
+		case 5:
+			theClient.sealAndAuthenticate(message);
+			break;
 		}
 		
 		System.out.println("Message sent");
 		
+		theClient.close();
 		sc.close();
 	}
 }
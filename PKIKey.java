@@ -1,6 +1,9 @@
 package pki;
 
+import java.math.BigInteger;
 import java.util.InputMismatchException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The Java implementation of public key infrastructure
@@ -8,13 +11,36 @@ import java.util.InputMismatchException;
  * @author Sua "Joshua" Lee
  * @version 17-11-2020
  */
-public class PKIKey {
+public class PKIKey implements RSAKey {
+	/**
+	 * The largest modulus for which lookup tables are built by default
+	 */
+	public static final int DEFAULT_LOOKUP_TABLE_LIMIT = Character.MAX_VALUE + 1;
+	
+	// the largest number of public key pairs for which a key keeps lookup tables
+	private static final int MAX_PUBLIC_TABLES = 16;
+	
+	// the largest modulus for which lookup tables are built
+	private static volatile int lookupTableLimit = DEFAULT_LOOKUP_TABLE_LIMIT;
+	
 	// list of instance fields
 	private int n;
 	private int e;
 	private int nPhi;
 	private int d;
 	
+	// the factors of n and the values used by the Chinese Remainder Theorem
+	private int p;
+	private int q;
+	private int dP;
+	private int dQ;
+	private int qInv;
+	
+	// the optional lookup tables, built lazily on first use
+	private volatile boolean lookupTablesEnabled;
+	private volatile ExponentTable privateTable;
+	private final Map<Long, ExponentTable> publicTables = new ConcurrentHashMap<>();
+	
 	/**
 	 * Constructor for PKIKey.
 	 * p and q must be prime numbers that are not equal to each other.
@@ -25,6 +51,12 @@ public class PKIKey {
 	 */
 	public PKIKey(int p, int q, int e)
 	{
+		// n must fit in an int; larger keys belong to BigPKIKey
+		if ((long) p * q > Integer.MAX_VALUE)
+		{
+			throw new InputMismatchException();
+		}
+		
 		// check if the given values match the conditions of the PKIKey
 		int potentialNPhi = (p - 1) * (q - 1);
 	
@@ -38,6 +70,37 @@ public class PKIKey {
 		nPhi = ((p - 1) * (q - 1));
 		this.e = e;
 		d = findInverseMod(this.e, nPhi);
+		
+		// keep the factors so that private operations can work modulo p and q
+		this.p = p;
+		this.q = q;
+		dP = reduceExponent(d, p);
+		dQ = reduceExponent(d, q);
+		qInv = findInverseMod(q % p, p);
+	}
+	
+	/**
+	 * Constructor for PKIKey from values that were computed and checked before,
+	 * such as a key read from a PKIKeyStore; nothing is checked or recomputed
+	 * @param p The value of p
+	 * @param q The value of q
+	 * @param e The value of e
+	 * @param d The value of d, the inverse of e modulo \Phi(n)
+	 * @param dP The value of d reduced modulo p - 1
+	 * @param dQ The value of d reduced modulo q - 1
+	 * @param qInv The inverse of q modulo p
+	 */
+	PKIKey(int p, int q, int e, int d, int dP, int dQ, int qInv)
+	{
+		n = p * q;
+		nPhi = (p - 1) * (q - 1);
+		this.e = e;
+		this.d = d;
+		this.p = p;
+		this.q = q;
+		this.dP = dP;
+		this.dQ = dQ;
+		this.qInv = qInv;
 	}
 	
 	/**
@@ -56,21 +119,7 @@ public class PKIKey {
 		}
 		
 		// now calculate m^e mod n
-		double intermediateMod = m % publicN;
-		
-		for (int i = 1; i < publicE; i++)
-		{
-			intermediateMod *= m % publicN;
-			
-			if (intermediateMod >= publicN)
-			{
-				intermediateMod = intermediateMod % publicN;
-			}
-		}
-		
-		double finalMod = intermediateMod % publicN;
-		
-		return (int) finalMod;
+		return publicExponentiation(m, publicE, publicN);
 	}
 	
 	/**
@@ -87,21 +136,7 @@ public class PKIKey {
 		}
 		
 		// now calculate m^d mod n
-		double intermediateMod = m % n;
-		
-		for (int i = 1; i < d; i++)
-		{
-			intermediateMod *= m % n;
-			
-			if (intermediateMod >= n)
-			{
-				intermediateMod = intermediateMod % n;
-			}
-		}
-		
-		double finalMod = intermediateMod % n;
-		
-		return (int) finalMod;
+		return privateExponentiation(m);
 	}
 	
 	/**
@@ -117,21 +152,7 @@ public class PKIKey {
 		 *  there's no need to check if the resulting m is less than n;
 		 *  just proceed to the decryption process
 		 */
-		double intermediateMod = c % publicN;
-		
-		for (int i = 1; i < publicE; i++)
-		{
-			intermediateMod *= c % publicN;
-			
-			if (intermediateMod >= publicN)
-			{
-				intermediateMod = intermediateMod % publicN;
-			}
-		}
-		
-		double finalMod = intermediateMod % publicN;
-		
-		return (int) finalMod;
+		return publicExponentiation(c, publicE, publicN);
 	}
 	
 	/**
@@ -145,21 +166,251 @@ public class PKIKey {
 		 *  there's no need to check if the resulting m is less than n;
 		 *  just proceed to the decryption process
 		 */
-		double intermediateMod = c % n;
+		return privateExponentiation(c);
+	}
+	
+	/**
+	 * Encrypt a range of messages using the recipient's public key pair {e, n}.
+	 * Nothing is allocated, so dst may be the same array as src
+	 * @param src The given messages
+	 * @param srcOffset The offset of the first message
+	 * @param dst The array receiving the encrypted messages
+	 * @param dstOffset The offset of the first encrypted message
+	 * @param length The number of messages
+	 * @param publicE The e value of the recipient's public key pair
+	 * @param publicN the n value of the recipient's public key pair
+	 */
+	public void encryptPublic(int[] src, int srcOffset, int[] dst, int dstOffset, int length, int publicE, int publicN)
+	{
+		// every given m should be less than n; check them all before anything is written
+		checkBelow(src, srcOffset, length, publicN);
 		
-		for (int i = 1; i < d; i++)
+		publicExponentiation(src, srcOffset, dst, dstOffset, length, publicE, publicN);
+	}
+	
+	/**
+	 * Encrypt a range of messages using the sender's private key.
+	 * Nothing is allocated, so dst may be the same array as src
+	 * @param src The given messages
+	 * @param srcOffset The offset of the first message
+	 * @param dst The array receiving the encrypted messages
+	 * @param dstOffset The offset of the first encrypted message
+	 * @param length The number of messages
+	 */
+	public void encryptPrivate(int[] src, int srcOffset, int[] dst, int dstOffset, int length)
+	{
+		// every given m should be less than n; check them all before anything is written
+		checkBelow(src, srcOffset, length, n);
+		
+		privateExponentiation(src, srcOffset, dst, dstOffset, length);
+	}
+	
+	/**
+	 * Decrypt a range of messages using the sender's public key pair {e, n}.
+	 * Nothing is allocated, so dst may be the same array as src
+	 * @param src The given encrypted messages
+	 * @param srcOffset The offset of the first encrypted message
+	 * @param dst The array receiving the decrypted messages
+	 * @param dstOffset The offset of the first decrypted message
+	 * @param length The number of messages
+	 * @param publicE The e value of the sender's public key pair {e, n}
+	 * @param publicN The n value of the sender's public key pair {e, n}
+	 */
+	public void decryptPublic(int[] src, int srcOffset, int[] dst, int dstOffset, int length, int publicE, int publicN)
+	{
+		publicExponentiation(src, srcOffset, dst, dstOffset, length, publicE, publicN);
+	}
+	
+	/**
+	 * Decrypt a range of messages using the recipient's private key.
+	 * Nothing is allocated, so dst may be the same array as src
+	 * @param src The given encrypted messages
+	 * @param srcOffset The offset of the first encrypted message
+	 * @param dst The array receiving the decrypted messages
+	 * @param dstOffset The offset of the first decrypted message
+	 * @param length The number of messages
+	 */
+	public void decryptPrivate(int[] src, int srcOffset, int[] dst, int dstOffset, int length)
+	{
+		privateExponentiation(src, srcOffset, dst, dstOffset, length);
+	}
+	
+	@Override
+	public BigInteger encryptPublic(BigInteger m, BigInteger publicE, BigInteger publicN)
+	{
+		// fall back to arbitrary precision if the recipient's key does not fit in an int
+		if (!fitsInInt(publicE) || !fitsInInt(publicN))
 		{
-			intermediateMod *= c % n;
-			
-			if (intermediateMod >= n)
+			if (m.signum() < 0 || m.compareTo(publicN) >= 0)
 			{
-				intermediateMod = intermediateMod % n;
+				throw new InputMismatchException();
 			}
+			
+			return m.modPow(publicE, publicN);
+		}
+		
+		if (!fitsInInt(m))
+		{
+			throw new InputMismatchException();
+		}
+		
+		return BigInteger.valueOf(encryptPublic(m.intValue(), publicE.intValue(), publicN.intValue()));
+	}
+	
+	@Override
+	public BigInteger encryptPrivate(BigInteger m)
+	{
+		if (!fitsInInt(m))
+		{
+			throw new InputMismatchException();
+		}
+		
+		return BigInteger.valueOf(encryptPrivate(m.intValue()));
+	}
+	
+	@Override
+	public BigInteger decryptPublic(BigInteger c, BigInteger publicE, BigInteger publicN)
+	{
+		// fall back to arbitrary precision if the sender's key does not fit in an int
+		if (!fitsInInt(publicE) || !fitsInInt(publicN))
+		{
+			return c.modPow(publicE, publicN);
+		}
+		
+		int reduced = c.mod(publicN).intValue();
+		
+		return BigInteger.valueOf(decryptPublic(reduced, publicE.intValue(), publicN.intValue()));
+	}
+	
+	@Override
+	public BigInteger decryptPrivate(BigInteger c)
+	{
+		return BigInteger.valueOf(decryptPrivate(c.mod(BigInteger.valueOf(n)).intValue()));
+	}
+	
+	@Override
+	public BigInteger getPublicExponent()
+	{
+		return BigInteger.valueOf(e);
+	}
+	
+	@Override
+	public BigInteger getPrivateExponent()
+	{
+		return BigInteger.valueOf(d);
+	}
+	
+	@Override
+	public BigInteger getModulus()
+	{
+		return BigInteger.valueOf(n);
+	}
+	
+	/**
+	 * Get the first prime factor of n, kept for the Chinese Remainder Theorem
+	 * @return The value of p
+	 */
+	BigInteger getP()
+	{
+		return BigInteger.valueOf(p);
+	}
+	
+	/**
+	 * Get the second prime factor of n, kept for the Chinese Remainder Theorem
+	 * @return The value of q
+	 */
+	BigInteger getQ()
+	{
+		return BigInteger.valueOf(q);
+	}
+	
+	/**
+	 * Get d reduced modulo p - 1, kept for the Chinese Remainder Theorem
+	 * @return The value of dP
+	 */
+	BigInteger getDP()
+	{
+		return BigInteger.valueOf(dP);
+	}
+	
+	/**
+	 * Get d reduced modulo q - 1, kept for the Chinese Remainder Theorem
+	 * @return The value of dQ
+	 */
+	BigInteger getDQ()
+	{
+		return BigInteger.valueOf(dQ);
+	}
+	
+	/**
+	 * Get the inverse of q modulo p, kept for the Chinese Remainder Theorem
+	 * @return The value of qInv
+	 */
+	BigInteger getQInv()
+	{
+		return BigInteger.valueOf(qInv);
+	}
+	
+	/**
+	 * Turn the lookup-table mode of this key on or off.
+	 * While it is on, the values of every private operation and of the public operation
+	 * with each public key pair used are computed once and then looked up;
+	 * moduli above the lookup table limit, and public key pairs beyond the first 16, keep using exponentiation
+	 * @param enabled Whether lookup tables should be used
+	 */
+	public void setLookupTables(boolean enabled)
+	{
+		lookupTablesEnabled = enabled;
+		
+		if (!enabled)
+		{
+			privateTable = null;
+			publicTables.clear();
 		}
+	}
+	
+	/**
+	 * Check if the lookup-table mode of this key is on
+	 * @return Whether lookup tables are used
+	 */
+	public boolean usesLookupTables()
+	{
+		return lookupTablesEnabled;
+	}
+	
+	/**
+	 * Get the memory currently used by the lookup tables of this key
+	 * @return The size of the lookup tables in bytes
+	 */
+	public long getLookupTableBytes()
+	{
+		ExponentTable privateValues = privateTable;
+		long bytes = privateValues == null ? 0 : privateValues.getFootprintBytes();
 		
-		double finalMod = intermediateMod % n;
+		for (ExponentTable publicValues : publicTables.values())
+		{
+			bytes += publicValues.getFootprintBytes();
+		}
 		
-		return (int) finalMod;
+		return bytes;
+	}
+	
+	/**
+	 * Set the largest modulus for which lookup tables are built
+	 * @param maxModulus The largest modulus, with a table of that many entries
+	 */
+	public static void setLookupTableLimit(int maxModulus)
+	{
+		lookupTableLimit = maxModulus;
+	}
+	
+	/**
+	 * Get the largest modulus for which lookup tables are built
+	 * @return The largest modulus
+	 */
+	public static int getLookupTableLimit()
+	{
+		return lookupTableLimit;
 	}
 	
 	/**
@@ -190,77 +441,254 @@ public class PKIKey {
 	}
 	
 	/**
-	 * Check if the given input is positive and prime or not
-	 * @param input The given input
-	 * @return Whether the given input is prime
+	 * Calculate x^d mod n using the Chinese Remainder Theorem;
+	 * two half-size exponentiations are recombined using Garner's formula
+	 * @param x The value of x
+	 * @return The value of x^d mod n
 	 */
-	private boolean checkIfPrime(int input)
+	private int privateExponentiation(int x)
+	{
+		ExponentTable table = privateTable();
+		
+		if (table != null)
+		{
+			return table.apply(Math.floorMod(x, n));
+		}
+		
+		long mP = ModularMath.modPow(x, dP, p);
+		long mQ = ModularMath.modPow(x, dQ, q);
+		
+		// h = qInv * (mP - mQ) mod p, and then x^d mod n = mQ + h * q
+		long h = (qInv * Math.floorMod(mP - mQ, (long) p)) % p;
+		
+		return (int) (mQ + h * q);
+	}
+	
+	/**
+	 * Calculate x^d mod n for a range of values,
+	 * with the values of the key read once for the whole range
+	 * @param src The values of x
+	 * @param srcOffset The offset of the first x
+	 * @param dst The array receiving the values of x^d mod n
+	 * @param dstOffset The offset of the first x^d mod n
+	 * @param length The number of values
+	 */
+	private void privateExponentiation(int[] src, int srcOffset, int[] dst, int dstOffset, int length)
 	{
-		boolean result = true;
+		ExponentTable table = privateTable();
 		
-		// do not count 1 or less
-		if (input <= 1)
+		if (table != null)
 		{
-			result = false;
+			for (int i = 0; i < length; i++)
+			{
+				dst[dstOffset + i] = table.apply(Math.floorMod(src[srcOffset + i], n));
+			}
+			
+			return;
 		}
-		// 2 is prime; no need to check
-		// start with 3
-		else if (input > 2)
+		
+		long primeP = p;
+		long primeQ = q;
+		long exponentP = dP;
+		long exponentQ = dQ;
+		long inverseQ = qInv;
+		
+		for (int i = 0; i < length; i++)
 		{
-			boolean testFailed = false;
+			int x = src[srcOffset + i];
+			long mP = ModularMath.modPow(x, exponentP, primeP);
+			long mQ = ModularMath.modPow(x, exponentQ, primeQ);
+			long h = (inverseQ * Math.floorMod(mP - mQ, primeP)) % primeP;
 			
-			for (int factor = 2; !testFailed && factor < input; factor++)
+			dst[dstOffset + i] = (int) (mQ + h * primeQ);
+		}
+	}
+	
+	/**
+	 * Calculate x^e mod n for the given public key pair {e, n},
+	 * looking the value up if the lookup-table mode allows it
+	 * @param x The value of x
+	 * @param publicE The e value of the public key pair
+	 * @param publicN The n value of the public key pair
+	 * @return The value of x^e mod n
+	 */
+	private int publicExponentiation(int x, int publicE, int publicN)
+	{
+		ExponentTable table = publicTable(publicE, publicN);
+		
+		if (table != null)
+		{
+			return table.apply(Math.floorMod(x, publicN));
+		}
+		
+		return (int) ModularMath.modPow(x, publicE, publicN);
+	}
+	
+	/**
+	 * Calculate x^e mod n for a range of values with the given public key pair {e, n},
+	 * looking the values up if the lookup-table mode allows it
+	 * @param src The values of x
+	 * @param srcOffset The offset of the first x
+	 * @param dst The array receiving the values of x^e mod n
+	 * @param dstOffset The offset of the first x^e mod n
+	 * @param length The number of values
+	 * @param publicE The e value of the public key pair
+	 * @param publicN The n value of the public key pair
+	 */
+	private void publicExponentiation(int[] src, int srcOffset, int[] dst, int dstOffset, int length,
+			int publicE, int publicN)
+	{
+		ExponentTable table = publicTable(publicE, publicN);
+		
+		if (table != null)
+		{
+			for (int i = 0; i < length; i++)
 			{
-				if (input % factor == 0)
-				{
-					result = false;
-					testFailed = true;
-				}
+				dst[dstOffset + i] = table.apply(Math.floorMod(src[srcOffset + i], publicN));
 			}
+			
+			return;
 		}
 		
-		return result;
+		for (int i = 0; i < length; i++)
+		{
+			dst[dstOffset + i] = (int) ModularMath.modPow(src[srcOffset + i], publicE, publicN);
+		}
 	}
 	
 	/**
-	 * Check if given two inputs are relatively prime to each other
-	 * @param first The first input
-	 * @param second The second input
-	 * @return Whether the two inputs are relatively prime
+	 * Get the lookup table of the public operation with the given public key pair {e, n},
+	 * building it on first use. Every public key pair keeps its own table, so that alternating peers
+	 * do not rebuild each other's
+	 * @param publicE The e value of the public key pair
+	 * @param publicN The n value of the public key pair
+	 * @return The lookup table, or null if the lookup-table mode does not apply
 	 */
-	private boolean checkIfCoprime(int first, int second)
+	private ExponentTable publicTable(int publicE, int publicN)
 	{
-		boolean result = true;
-		boolean testFailed = false;
+		if (!lookupTablesEnabled || publicN > lookupTableLimit)
+		{
+			return null;
+		}
 		
-		// check if gcd(first, second) = 1
-		for (int factor = 2; !testFailed && factor <= first && factor <= second; factor++)
+		Long pair = ((long) publicE << Integer.SIZE) | publicN;
+		ExponentTable table = publicTables.get(pair);
+		
+		if (table == null)
 		{
-			if (first % factor == 0 && second % factor == 0)
+			if (publicTables.size() >= MAX_PUBLIC_TABLES)
 			{
-				result = false;
-				testFailed = true;
+				return null;
+			}
+			
+			// build outside the map, so that other key pairs are not held up meanwhile
+			ExponentTable built = new ExponentTable(publicE, publicN);
+			table = publicTables.putIfAbsent(pair, built);
+			
+			if (table == null)
+			{
+				table = built;
 			}
 		}
 		
-		return result;
+		return table;
 	}
 	
 	/**
-	 * Find the integer value i such that (a * i) mod n = 1 using brute force method
-	 * @param input The value of a
-	 * @param modValue The value of n
-	 * @return The value of i
+	 * Get the lookup table of the private operation, building it on first use
+	 * @return The lookup table, or null if the lookup-table mode does not apply
 	 */
-	private int findInverseMod(int input, int modValue)
+	private ExponentTable privateTable()
 	{
-		int inverse = 1;
+		if (!lookupTablesEnabled || n > lookupTableLimit)
+		{
+			return null;
+		}
 		
-		while ((input * inverse) % modValue != 1)
+		ExponentTable table = privateTable;
+		
+		if (table == null)
 		{
-			inverse++;
+			table = new ExponentTable(d, n);
+			privateTable = table;
 		}
 		
-		return inverse;
+		return table;
+	}
+	
+	/**
+	 * Reduce the private exponent modulo (prime - 1) for use with CRT.
+	 * A zero remainder is replaced with (prime - 1) so that the reduced exponent
+	 * still maps multiples of the prime to 0
+	 * @param exponent The value of the private exponent
+	 * @param prime The prime modulus
+	 * @return The reduced exponent
+	 */
+	private int reduceExponent(int exponent, int prime)
+	{
+		int reduced = exponent % (prime - 1);
+		
+		return reduced == 0 ? prime - 1 : reduced;
+	}
+	
+	/**
+	 * Check that every value of the given range is less than the given modulus
+	 * @param values The given values
+	 * @param offset The offset of the first value
+	 * @param length The number of values
+	 * @param modValue The value of the modulus
+	 */
+	private void checkBelow(int[] values, int offset, int length, int modValue)
+	{
+		for (int i = offset; i < offset + length; i++)
+		{
+			if (values[i] >= modValue)
+			{
+				throw new InputMismatchException();
+			}
+		}
+	}
+	
+	/**
+	 * Check if the given value is non-negative and fits in an int
+	 * @param value The given value
+	 * @return Whether the value fits in an int
+	 */
+	private boolean fitsInInt(BigInteger value)
+	{
+		return value.signum() >= 0 && value.bitLength() < Integer.SIZE;
+	}
+	
+	/**
+	 * Check if the given input is positive and prime or not
+	 * @param input The given input
+	 * @return Whether the given input is prime
+	 */
+	private boolean checkIfPrime(int input)
+	{
+		return ModularMath.isPrime(input);
+	}
+	
+	/**
+	 * Check if given two inputs are relatively prime to each other
+	 * @param first The first input
+	 * @param second The second input
+	 * @return Whether the two inputs are relatively prime
+	 */
+	private boolean checkIfCoprime(int first, int second)
+	{
+		// check if gcd(first, second) = 1
+		return ModularMath.gcd(first, second) == 1;
+	}
+	
+	/**
+	 * Find the integer value i such that (a * i) mod n = 1 using the extended Euclidean algorithm
+	 * @param input The value of a
+	 * @param modValue The value of n
+	 * @return The value of i
+	 */
+	private int findInverseMod(int input, int modValue)
+	{
+		return (int) ModularMath.modInverse(input, modValue);
 	}
 }
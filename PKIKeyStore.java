@@ -0,0 +1,746 @@
+package pki;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The persistent store of our own keys, with their precomputed private and CRT values,
+ * and of a directory of peer public keys, kept together in one compact binary file.
+ * The file is memory-mapped and never deserialized as a whole: the peers are found by binary search
+ * over two sorted indexes, by key id and by alias, so opening a store of any size costs one mapping
+ * and every lookup reads only the entries it visits.
+ * A store is never modified in place; a Builder writes a new file and moves it over the old one
+ *
+ * <pre>
+ * offset  size  field
+ *      0     4  magic "PKIS"
+ *      4     4  version
+ *      8     4  number of own keys
+ *     12     4  number of peers
+ *     16     4  offset of the index by key id: {key id (8), offset of the peer (4)} per peer
+ *     20     4  offset of the index by alias: {offset of the peer (4)} per peer
+ *     24        own keys: name, p, q, e, d, dP, dQ, qInv
+ *               peers: alias, e, n
+ * </pre>
+ *
+ * Names and aliases are UTF-8 and numbers are two's complement, each preceded by its length in 2 bytes
+ *
+ * @author Sua "Joshua" Lee
+ * @version 17-10-2026
+ */
+public final class PKIKeyStore {
+	// the layout of the file described above
+	private static final int MAGIC = 0x504B4953;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 24;
+	private static final int ID_ENTRY_SIZE = Long.BYTES + Integer.BYTES;
+	private static final int ALIAS_ENTRY_SIZE = Integer.BYTES;
+
+	// the number of values stored for each of our own keys: p, q, e, d, dP, dQ and qInv
+	private static final int KEY_VALUES = 7;
+
+	// list of instance fields
+	private final ByteBuffer map;
+	private final int keyCount;
+	private final int peerCount;
+	private final int idIndex;
+	private final int aliasIndex;
+
+	/**
+	 * Constructor for PKIKeyStore
+	 * @param map The contents of the file
+	 * @throws IOException If the file is not a key store
+	 */
+	private PKIKeyStore(ByteBuffer map) throws IOException
+	{
+		this.map = map;
+
+		if (map.capacity() < HEADER_SIZE || map.getInt(0) != MAGIC || map.getInt(4) != VERSION)
+		{
+			throw new IOException("not a key store of version " + VERSION);
+		}
+
+		keyCount = map.getInt(8);
+		peerCount = map.getInt(12);
+		idIndex = map.getInt(16);
+		aliasIndex = map.getInt(20);
+
+		if (keyCount < 0 || peerCount < 0 || idIndex < HEADER_SIZE
+				|| (long) idIndex + (long) peerCount * ID_ENTRY_SIZE > aliasIndex
+				|| (long) aliasIndex + (long) peerCount * ALIAS_ENTRY_SIZE > map.capacity())
+		{
+			throw new IOException("the key store is corrupted");
+		}
+	}
+
+	/**
+	 * List, or add to, the key store in the given file, creating it if needed.
+	 * Usage: PKIKeyStore file list | generate name modulusBits | add-key name p q e | add-peer alias e n
+	 * @param args The file, the command and its arguments
+	 * @throws IOException If the key store cannot be read or written
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 2)
+		{
+			System.err.println("Usage: PKIKeyStore file list | generate name modulusBits"
+					+ " | add-key name p q e | add-peer alias e n");
+			return;
+		}
+
+		Path file = Paths.get(args[0]);
+
+		if (args[1].equals("list"))
+		{
+			PKIKeyStore store = open(file);
+
+			for (String name : store.getKeyNames())
+			{
+				RSAKey key = store.getKey(name);
+				System.out.println("key  " + name + " {" + key.getPublicExponent() + ", " + key.getModulus() + "}");
+			}
+
+			System.out.println(store.getPeerCount() + " peers");
+			return;
+		}
+
+		// every change writes a new copy of the store
+		Builder builder = Files.exists(file) ? open(file).toBuilder() : builder();
+
+		switch (args[1]) {
+		case "generate":
+			builder.addKey(args[2], new KeyGenerator().generateKey(Integer.parseInt(args[3])));
+			break;
+			
+		case "add-key":
+			builder.addKey(args[2], RSAKey.of(new BigInteger(args[3]), new BigInteger(args[4]), new BigInteger(args[5])));
+			break;
+			
+		case "add-peer":
+			builder.addPeer(args[2], new BigInteger(args[3]), new BigInteger(args[4]));
+			break;
+			
+		default:
+			throw new IllegalArgumentException("unknown command " + args[1]);
+		}
+
+		builder.writeTo(file);
+	}
+
+	/**
+	 * Open a key store by mapping its file into memory
+	 * @param file The file of the key store
+	 * @return The key store
+	 * @throws IOException If the file cannot be read or is not a key store
+	 */
+	public static PKIKeyStore open(Path file) throws IOException
+	{
+		// the mapping stays valid after the channel is closed
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			if (channel.size() > Integer.MAX_VALUE)
+			{
+				throw new IOException("the key store is larger than 2 GB");
+			}
+
+			return new PKIKeyStore(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Create an empty builder of a key store
+	 * @return The builder
+	 */
+	public static Builder builder()
+	{
+		return new Builder();
+	}
+
+	/**
+	 * Create a builder holding every key and peer of this store, to write an updated copy of it
+	 * @return The builder
+	 */
+	public Builder toBuilder()
+	{
+		Builder builder = new Builder();
+		ByteBuffer reader = map.duplicate().position(HEADER_SIZE);
+
+		for (int i = 0; i < keyCount; i++)
+		{
+			String name = readString(reader);
+			builder.keys.put(name, readKey(reader));
+		}
+
+		for (int i = 0; i < peerCount; i++)
+		{
+			builder.addPeer(readString(reader), readNumber(reader), readNumber(reader));
+		}
+
+		return builder;
+	}
+
+	/**
+	 * Get one of our own keys
+	 * @param name The name of the key
+	 * @return The key, or null if there is no key of that name
+	 */
+	public RSAKey getKey(String name)
+	{
+		ByteBuffer reader = map.duplicate().position(HEADER_SIZE);
+
+		// there are only a few of our own keys, so they are simply scanned
+		for (int i = 0; i < keyCount; i++)
+		{
+			String current = readString(reader);
+
+			if (current.equals(name))
+			{
+				return readKey(reader);
+			}
+
+			for (int j = 0; j < KEY_VALUES; j++)
+			{
+				skipField(reader);
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Get the names of our own keys
+	 * @return The names of the keys, in the order they were stored
+	 */
+	public List<String> getKeyNames()
+	{
+		List<String> names = new ArrayList<>(keyCount);
+		ByteBuffer reader = map.duplicate().position(HEADER_SIZE);
+
+		for (int i = 0; i < keyCount; i++)
+		{
+			names.add(readString(reader));
+
+			for (int j = 0; j < KEY_VALUES; j++)
+			{
+				skipField(reader);
+			}
+		}
+
+		return names;
+	}
+
+	/**
+	 * Find the public key of a peer by the id carried in the frames it sends
+	 * @param keyId The id of the key, as computed by PeerKeyMaterial.keyId
+	 * @return The public key, or null if there is no such peer
+	 */
+	public PeerKey findPeer(long keyId)
+	{
+		int low = 0;
+		int high = peerCount - 1;
+
+		while (low <= high)
+		{
+			int middle = (low + high) >>> 1;
+			long current = map.getLong(idIndex + middle * ID_ENTRY_SIZE);
+
+			if (current < keyId)
+			{
+				low = middle + 1;
+			}
+			else if (current > keyId)
+			{
+				high = middle - 1;
+			}
+			else
+			{
+				return readPeer(map.getInt(idIndex + middle * ID_ENTRY_SIZE + Long.BYTES));
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Find the public key of a peer by its alias
+	 * @param alias The alias of the peer
+	 * @return The public key, or null if there is no such peer
+	 */
+	public PeerKey findPeer(String alias)
+	{
+		byte[] target = alias.getBytes(StandardCharsets.UTF_8);
+		int low = 0;
+		int high = peerCount - 1;
+
+		while (low <= high)
+		{
+			int middle = (low + high) >>> 1;
+			int offset = map.getInt(aliasIndex + middle * ALIAS_ENTRY_SIZE);
+			int comparison = compareAlias(offset, target);
+
+			if (comparison < 0)
+			{
+				low = middle + 1;
+			}
+			else if (comparison > 0)
+			{
+				high = middle - 1;
+			}
+			else
+			{
+				return readPeer(offset);
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Get the number of our own keys
+	 * @return The number of keys
+	 */
+	public int getKeyCount()
+	{
+		return keyCount;
+	}
+
+	/**
+	 * Get the number of peers in the directory
+	 * @return The number of peers
+	 */
+	public int getPeerCount()
+	{
+		return peerCount;
+	}
+
+	/**
+	 * Compare the alias stored at the given offset with the given one, byte by byte
+	 * @param offset The offset of the peer
+	 * @param target The UTF-8 bytes of the alias looked for
+	 * @return A negative number, zero, or a positive number as the stored alias is
+	 * less than, equal to, or greater than the given one
+	 */
+	private int compareAlias(int offset, byte[] target)
+	{
+		int length = Short.toUnsignedInt(map.getShort(offset));
+
+		for (int i = 0; i < Math.min(length, target.length); i++)
+		{
+			int comparison = Byte.compareUnsigned(map.get(offset + Short.BYTES + i), target[i]);
+
+			if (comparison != 0)
+			{
+				return comparison;
+			}
+		}
+
+		return Integer.compare(length, target.length);
+	}
+
+	/**
+	 * Read the peer stored at the given offset
+	 * @param offset The offset of the peer
+	 * @return The public key of the peer
+	 */
+	private PeerKey readPeer(int offset)
+	{
+		ByteBuffer reader = map.duplicate().position(offset);
+
+		return new PeerKey(readString(reader), readNumber(reader), readNumber(reader));
+	}
+
+	/**
+	 * Read one of our own keys, after its name
+	 * @param reader The buffer positioned at the values of the key
+	 * @return The key
+	 */
+	private static RSAKey readKey(ByteBuffer reader)
+	{
+		BigInteger p = readNumber(reader);
+		BigInteger q = readNumber(reader);
+		BigInteger e = readNumber(reader);
+		BigInteger d = readNumber(reader);
+		BigInteger dP = readNumber(reader);
+		BigInteger dQ = readNumber(reader);
+		BigInteger qInv = readNumber(reader);
+
+		// the same choice of class as RSAKey.of, without checking or recomputing anything
+		if (p.multiply(q).bitLength() < Integer.SIZE && e.bitLength() < Integer.SIZE)
+		{
+			return new PKIKey(p.intValue(), q.intValue(), e.intValue(), d.intValue(), dP.intValue(),
+					dQ.intValue(), qInv.intValue());
+		}
+
+		return new BigPKIKey(p, q, e, d, dP, dQ, qInv);
+	}
+
+	/**
+	 * Read a length-prefixed UTF-8 string
+	 * @param reader The buffer positioned at the string
+	 * @return The string
+	 */
+	private static String readString(ByteBuffer reader)
+	{
+		byte[] bytes = new byte[Short.toUnsignedInt(reader.getShort())];
+		reader.get(bytes);
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Read a length-prefixed number
+	 * @param reader The buffer positioned at the number
+	 * @return The number
+	 */
+	private static BigInteger readNumber(ByteBuffer reader)
+	{
+		byte[] bytes = new byte[Short.toUnsignedInt(reader.getShort())];
+		reader.get(bytes);
+
+		return new BigInteger(bytes);
+	}
+
+	/**
+	 * Skip a length-prefixed string or number
+	 * @param reader The buffer positioned at the field
+	 */
+	private static void skipField(ByteBuffer reader)
+	{
+		int length = Short.toUnsignedInt(reader.getShort());
+		reader.position(reader.position() + length);
+	}
+
+	/**
+	 * The public key of a peer in the directory
+	 */
+	public static final class PeerKey {
+		private final String alias;
+		private final BigInteger publicE;
+		private final BigInteger publicN;
+		private final long keyId;
+
+		/**
+		 * Constructor for PeerKey
+		 * @param alias The alias of the peer
+		 * @param publicE The e value of the peer's public key
+		 * @param publicN The n value of the peer's public key
+		 */
+		private PeerKey(String alias, BigInteger publicE, BigInteger publicN)
+		{
+			this.alias = alias;
+			this.publicE = publicE;
+			this.publicN = publicN;
+			keyId = PeerKeyMaterial.keyId(publicE, publicN);
+		}
+
+		/**
+		 * Get the alias of the peer
+		 * @return The alias
+		 */
+		public String getAlias()
+		{
+			return alias;
+		}
+
+		/**
+		 * Get the e value of the peer's public key
+		 * @return The value of e
+		 */
+		public BigInteger getPublicE()
+		{
+			return publicE;
+		}
+
+		/**
+		 * Get the n value of the peer's public key
+		 * @return The value of n
+		 */
+		public BigInteger getPublicN()
+		{
+			return publicN;
+		}
+
+		/**
+		 * Get the id of the peer's public key
+		 * @return The id of the key
+		 */
+		public long getKeyId()
+		{
+			return keyId;
+		}
+	}
+
+	/**
+	 * The builder that writes a whole key store at once
+	 */
+	public static final class Builder {
+		// the keys by name and the peers by key id and by alias; a later entry replaces an earlier one
+		private final Map<String, RSAKey> keys = new LinkedHashMap<>();
+		private final Map<Long, PeerKey> peers = new HashMap<>();
+		private final Map<String, PeerKey> aliases = new HashMap<>();
+
+		private Builder()
+		{
+		}
+
+		/**
+		 * Add one of our own keys
+		 * @param name The name of the key
+		 * @param key The key, a PKIKey or a BigPKIKey
+		 * @return This builder
+		 */
+		public Builder addKey(String name, RSAKey key)
+		{
+			if (!(key instanceof PKIKey) && !(key instanceof BigPKIKey))
+			{
+				throw new IllegalArgumentException("only PKIKey and BigPKIKey can be stored");
+			}
+
+			keys.put(name, key);
+
+			return this;
+		}
+
+		/**
+		 * Add the public key of a peer, replacing any peer with the same key or alias
+		 * @param alias The alias of the peer
+		 * @param publicE The e value of the peer's public key
+		 * @param publicN The n value of the peer's public key
+		 * @return This builder
+		 */
+		public Builder addPeer(String alias, BigInteger publicE, BigInteger publicN)
+		{
+			PeerKey peer = new PeerKey(alias, publicE, publicN);
+			PeerKey sameAlias = aliases.put(alias, peer);
+			PeerKey sameKey = peers.put(peer.getKeyId(), peer);
+
+			if (sameAlias != null && sameAlias != sameKey)
+			{
+				peers.remove(sameAlias.getKeyId());
+			}
+
+			if (sameKey != null && !sameKey.alias.equals(alias))
+			{
+				aliases.remove(sameKey.alias);
+			}
+
+			return this;
+		}
+
+		/**
+		 * Write the key store to a temporary file next to the given one, and move it into place
+		 * @param file The file of the key store
+		 * @throws IOException If the file cannot be written
+		 */
+		public void writeTo(Path file) throws IOException
+		{
+			Path directory = file.toAbsolutePath().getParent();
+			Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+
+			try
+			{
+				try (OutputStream stream = Files.newOutputStream(temporary))
+				{
+					write(new DataOutputStream(new BufferedOutputStream(stream)));
+				}
+
+				Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			finally
+			{
+				Files.deleteIfExists(temporary);
+			}
+		}
+
+		/**
+		 * Write the whole key store
+		 * @param out The destination stream
+		 * @throws IOException If the stream fails
+		 */
+		private void write(DataOutputStream out) throws IOException
+		{
+			List<PeerKey> byId = new ArrayList<>(peers.values());
+			byId.sort(Comparator.comparingLong(PeerKey::getKeyId));
+
+			// the offsets of the peers are only known once the keys are laid out
+			long offset = HEADER_SIZE;
+
+			for (Map.Entry<String, RSAKey> entry : keys.entrySet())
+			{
+				offset += keySize(entry.getKey(), entry.getValue());
+			}
+
+			Map<PeerKey, Integer> offsets = new IdentityHashMap<>();
+			Map<PeerKey, byte[]> aliasBytes = new IdentityHashMap<>();
+
+			for (PeerKey peer : byId)
+			{
+				offsets.put(peer, (int) offset);
+				aliasBytes.put(peer, peer.alias.getBytes(StandardCharsets.UTF_8));
+				offset += stringSize(peer.alias) + numberSize(peer.publicE) + numberSize(peer.publicN);
+			}
+
+			if (offset + (long) byId.size() * (ID_ENTRY_SIZE + ALIAS_ENTRY_SIZE) > Integer.MAX_VALUE)
+			{
+				throw new IOException("the key store would be larger than 2 GB");
+			}
+
+			List<PeerKey> byAlias = new ArrayList<>(byId);
+			byAlias.sort((first, second) -> Arrays.compareUnsigned(aliasBytes.get(first), aliasBytes.get(second)));
+
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(keys.size());
+			out.writeInt(byId.size());
+			out.writeInt((int) offset);
+			out.writeInt((int) offset + byId.size() * ID_ENTRY_SIZE);
+
+			for (Map.Entry<String, RSAKey> entry : keys.entrySet())
+			{
+				writeString(out, entry.getKey());
+
+				for (BigInteger value : keyValues(entry.getValue()))
+				{
+					writeNumber(out, value);
+				}
+			}
+
+			for (PeerKey peer : byId)
+			{
+				writeString(out, peer.alias);
+				writeNumber(out, peer.publicE);
+				writeNumber(out, peer.publicN);
+			}
+
+			for (PeerKey peer : byId)
+			{
+				out.writeLong(peer.getKeyId());
+				out.writeInt(offsets.get(peer));
+			}
+
+			for (PeerKey peer : byAlias)
+			{
+				out.writeInt(offsets.get(peer));
+			}
+
+			out.flush();
+		}
+
+		/**
+		 * Get the values stored for one of our own keys
+		 * @param key The key
+		 * @return p, q, e, d, dP, dQ and qInv
+		 */
+		private static BigInteger[] keyValues(RSAKey key)
+		{
+			if (key instanceof PKIKey)
+			{
+				PKIKey small = (PKIKey) key;
+
+				return new BigInteger[] { small.getP(), small.getQ(), small.getPublicExponent(),
+						small.getPrivateExponent(), small.getDP(), small.getDQ(), small.getQInv() };
+			}
+
+			BigPKIKey big = (BigPKIKey) key;
+
+			return new BigInteger[] { big.getP(), big.getQ(), big.getPublicExponent(), big.getPrivateExponent(),
+					big.getDP(), big.getDQ(), big.getQInv() };
+		}
+
+		/**
+		 * Get the size of one of our own keys in the file
+		 * @param name The name of the key
+		 * @param key The key
+		 * @return The size in bytes
+		 */
+		private static int keySize(String name, RSAKey key)
+		{
+			int size = stringSize(name);
+
+			for (BigInteger value : keyValues(key))
+			{
+				size += numberSize(value);
+			}
+
+			return size;
+		}
+
+		/**
+		 * Get the size of a string in the file
+		 * @param value The string
+		 * @return The size in bytes, length included
+		 */
+		private static int stringSize(String value)
+		{
+			return Short.BYTES + value.getBytes(StandardCharsets.UTF_8).length;
+		}
+
+		/**
+		 * Get the size of a number in the file
+		 * @param value The number
+		 * @return The size in bytes, length included
+		 */
+		private static int numberSize(BigInteger value)
+		{
+			return Short.BYTES + value.toByteArray().length;
+		}
+
+		/**
+		 * Write a string as UTF-8 preceded by its length
+		 * @param out The destination stream
+		 * @param value The string
+		 * @throws IOException If the stream fails
+		 */
+		private static void writeString(DataOutputStream out, String value) throws IOException
+		{
+			writeField(out, value.getBytes(StandardCharsets.UTF_8));
+		}
+
+		/**
+		 * Write a number in two's complement preceded by its length
+		 * @param out The destination stream
+		 * @param value The number
+		 * @throws IOException If the stream fails
+		 */
+		private static void writeNumber(DataOutputStream out, BigInteger value) throws IOException
+		{
+			writeField(out, value.toByteArray());
+		}
+
+		/**
+		 * Write a field preceded by its length
+		 * @param out The destination stream
+		 * @param bytes The bytes of the field
+		 * @throws IOException If the stream fails, or the field is longer than 65535 bytes
+		 */
+		private static void writeField(DataOutputStream out, byte[] bytes) throws IOException
+		{
+			if (bytes.length > 0xFFFF)
+			{
+				throw new IOException("a field of " + bytes.length + " bytes does not fit in a key store");
+			}
+
+			out.writeShort(bytes.length);
+			out.write(bytes);
+		}
+	}
+}
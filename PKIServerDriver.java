@@ -1,5 +1,9 @@
 package pki;
 
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Scanner;
 
 /**
@@ -13,58 +17,153 @@ public class PKIServerDriver {
 		Scanner sc = new Scanner(System.in);
 		
 		System.out.print("Please input the buffer size\n"
-				+ "The buffer size must be identical with the one from the client: ");
+				+ "Longer messages are still received, as the buffer grows to fit them: ");
 		
 		int bufferSize = sc.nextInt();
 		sc.nextLine();
 		
-		// set up the server's PKI key
-		System.out.print("Please input the value of p.\n"
-				+ "The value of p should be prime number: ");
-		byte p = sc.nextByte();
-		sc.nextLine();
+		// the keys may come from a key store instead of being typed
+		System.out.print("Please input the path of a key store,\n"
+				+ "or leave it empty to type the keys yourself: ");
+		String storePath = sc.nextLine().trim();
 		
-		System.out.println();
+		PKIKeyStore keyStore = null;
 		
-		System.out.print("Please input the value of q.\n"
-				+ "The value of q should be prime number that is NOT equal to p: ");
-		byte q = sc.nextByte();
-		sc.nextLine();
+		if (!storePath.isEmpty())
+		{
+			try
+			{
+				keyStore = PKIKeyStore.open(Paths.get(storePath));
+			}
+			catch (IOException io)
+			{
+				io.printStackTrace();
+			}
+		}
 		
 		System.out.println();
 		
-		System.out.print("Please input the value of e.\n"
-				+ "The value of e should be coprime to (p - 1)*(q - 1): ");
-		byte e = sc.nextByte();
-		sc.nextLine();
+		RSAKey serverKey = null;
 		
-		System.out.println();
+		if (keyStore != null)
+		{
+			System.out.print("Please input the name of your key in the key store: ");
+			serverKey = keyStore.getKey(sc.nextLine().trim());
+			
+			if (serverKey == null)
+			{
+				System.out.println("There is no such key; please set one up.");
+			}
+			
+			System.out.println();
+		}
 		
-	    // create a client key based on the inputs
-		PKIKey serverKey = new PKIKey(p, q, e);
+		if (serverKey == null)
+		{
+			// set up the server's PKI key, generating one of the requested size if asked
+			System.out.print("Please input the size of n in bits to generate a new key,\n"
+					+ "or 0 to input the values of p, q, and e yourself: ");
+			int modulusBits = sc.nextInt();
+			sc.nextLine();
+			
+			System.out.println();
+			
+			if (modulusBits > 0)
+			{
+				serverKey = new KeyGenerator().generateKey(modulusBits);
+			}
+			else
+			{
+				// read the values of p, q, and e from user
+				System.out.print("Please input the value of p.\n"
+						+ "The value of p should be prime number: ");
+				BigInteger p = sc.nextBigInteger();
+				sc.nextLine();
+				
+				System.out.println();
+				
+				System.out.print("Please input the value of q.\n"
+						+ "The value of q should be prime number that is NOT equal to p: ");
+				BigInteger q = sc.nextBigInteger();
+				sc.nextLine();
+				
+				System.out.println();
+				
+				System.out.print("Please input the value of e.\n"
+						+ "The value of e should be coprime to (p - 1)*(q - 1): ");
+				BigInteger e = sc.nextBigInteger();
+				sc.nextLine();
+				
+				System.out.println();
+				
+				serverKey = RSAKey.of(p, q, e);
+			}
+		}
+		
+		// small keys look their values up instead of exponentiating every character
+		if (serverKey instanceof PKIKey)
+		{
+			((PKIKey) serverKey).setLookupTables(true);
+		}
 		
 		// inform the user about the PKIKey values
 		System.out.println("Your public key pair is {"
-				+ serverKey.getPublicE() + ", " + serverKey.getPublicN() + "}.");
+				+ serverKey.getPublicExponent() + ", " + serverKey.getModulus() + "}.");
 		System.out.println("Share this value with the client.");
 		
 		System.out.println("Your private key pair is {"
-				+ serverKey.getPrivateD() + ", " + serverKey.getPublicN() + "}.");
+				+ serverKey.getPrivateExponent() + ", " + serverKey.getModulus() + "}.");
 		System.out.println("Do NOT share this value with the client.");
 		System.out.println();
 		
-		// prompt the user for the client's public key values
-		System.out.print("Please input e value of the client's public key: ");
+		BigInteger clientE = null;
+		BigInteger clientN = null;
 		
-		int clientE = sc.nextInt();
-		sc.nextLine();
+		if (keyStore != null)
+		{
+			System.out.print("Please input the alias of the client's public key in the key store: ");
+			PKIKeyStore.PeerKey clientPeer = keyStore.findPeer(sc.nextLine().trim());
+			
+			if (clientPeer != null)
+			{
+				clientE = clientPeer.getPublicE();
+				clientN = clientPeer.getPublicN();
+			}
+			else
+			{
+				System.out.println("There is no such peer; please type its key.");
+			}
+			
+			System.out.println();
+		}
 		
-		System.out.print("Please input n value of the client's public key: ");
+		boolean handshake = false;
 		
-		int clientN = sc.nextInt();
-		sc.nextLine();
+		if (clientE == null)
+		{
+			System.out.print("Please input 1 to learn the client's public key when it connects,\n"
+					+ "or 2 to input it yourself: ");
+			handshake = sc.nextInt() == 1;
+			sc.nextLine();
+			
+			System.out.println();
+		}
 		
-		System.out.println();
+		if (clientE == null && !handshake)
+		{
+			// prompt the user for the client's public key values
+			System.out.print("Please input e value of the client's public key: ");
+			
+			clientE = sc.nextBigInteger();
+			sc.nextLine();
+			
+			System.out.print("Please input n value of the client's public key: ");
+			
+			clientN = sc.nextBigInteger();
+			sc.nextLine();
+			
+			System.out.println();
+		}
 		
 		// ask the user for the type of decryption
 		boolean appropriateInput = false;
@@ -76,12 +175,14 @@ public class PKIServerDriver {
 					+ "The type MUST MATCH the one set by your client: \n"
 					+ "\t 1 - Authentication\n"
 					+ "\t 2 - Decryption\n"
-					+ "\t 3 - Both");
+					+ "\t 3 - Both\n"
+					+ "\t 4 - Hybrid (AES-GCM under an encrypted session key)\n"
+					+ "\t 5 - Signed hybrid (AES-GCM under a signed and encrypted session key)");
 			System.out.print("Input the appropriate number: ");
 			choice = sc.nextInt();
 			sc.nextLine();
 			
-			if (choice > 0 && choice < 4)
+			if (choice > 0 && choice < 6)
 			{
 				appropriateInput = true;
 			}
@@ -91,7 +192,45 @@ public class PKIServerDriver {
 			}
 		}
 		
-		TCPServer server = new TCPServer(bufferSize, serverKey, clientE, clientN);
+		System.out.print("Please input 1 to serve a single client,\n"
+				+ "or 2 to keep serving clients until the server is stopped: ");
+		int serving = sc.nextInt();
+		sc.nextLine();
+		
+		System.out.println();
+		
+		// the files sent by clients are saved in a directory of the user's choice
+		System.out.print("Please input the directory to save received files in,\n"
+				+ "or leave it empty to refuse files: ");
+		String filePath = sc.nextLine().trim();
+		Path fileDirectory = filePath.isEmpty() ? null : Paths.get(filePath);
+		
+		System.out.println();
+		
+		if (serving == 2)
+		{
+			try
+			{
+				ConcurrentTCPServer server = handshake ? new ConcurrentTCPServer(bufferSize, serverKey)
+						: new ConcurrentTCPServer(bufferSize, serverKey, clientE, clientN);
+				server.setFileDirectory(fileDirectory);
+				
+				// let the clients being served finish when the process is stopped
+				Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+				server.serve(choice);
+			}
+			catch (IOException io)
+			{
+				io.printStackTrace();
+			}
+			
+			sc.close();
+			return;
+		}
+		
+		TCPServer server = handshake ? new TCPServer(bufferSize, serverKey, choice)
+				: new TCPServer(bufferSize, serverKey, clientE, clientN);
+		server.setFileDirectory(fileDirectory);
 		
 		switch (choice) {
 		case 1:
@@ -105,6 +244,14 @@ public class PKIServerDriver {
 		case 3:
 			server.decryptAndAuthenticate();
 			break;
+			
+		case 4:
+			server.openAndPrint();
+			break;
+			
+		case 5:
+			server.openAndAuthenticate();
+			break;
 		}
 		
 		sc.close();
@@ -0,0 +1,135 @@
+package pki;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The benchmark of encrypting and decrypting a single large message
+ * on fork-join pools of increasing parallelism, up to the number of available cores by default.
+ * Every parallel result is checked byte for byte against the sequential one.
+ * Usage: ParallelBenchmark [megabytes] [modulusBits] [mode] [maxParallelism]
+ *
+ * @author Sua "Joshua" Lee
+ * @version 17-10-2026
+ */
+public class ParallelBenchmark {
+	// the number of timed runs at each level, of which the fastest is reported
+	private static final int RUNS = 3;
+
+	public static void main(String[] args) throws Exception
+	{
+		double megabytes = args.length > 0 ? Double.parseDouble(args[0]) : 1;
+		int modulusBits = args.length > 1 ? Integer.parseInt(args[1]) : 1024;
+		int mode = args.length > 2 ? Integer.parseInt(args[2]) : TCPServer.DECRYPT;
+		int cores = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+		// fixed seeds, so that every run uses the same keys and the same message
+		KeyGenerator generator = new KeyGenerator(new Random(1));
+		RSAKey clientKey = generator.generateKey(modulusBits);
+		RSAKey serverKey = generator.generateKey(modulusBits);
+		String message = randomText((int) (megabytes * (1 << 20)), new Random(2));
+
+		TCPClient client = new TCPClient(0, clientKey, serverKey.getPublicExponent(), serverKey.getModulus());
+		TCPServer server = new TCPServer(0, serverKey,
+				TCPServer.getPeerKeyCache().get(clientKey.getPublicExponent(), clientKey.getModulus()));
+
+		// the sequential result every parallel one must match
+		client.setParallelPool(null);
+		server.setParallelPool(null);
+		byte[] expected = frameBytes(client.encryptMessage(message, mode));
+
+		System.out.printf("%.2f MB message, %d-bit keys, mode %d, %d available cores%n", megabytes, modulusBits, mode,
+				Runtime.getRuntime().availableProcessors());
+
+		double[] baseline = null;
+
+		for (int parallelism = 1; parallelism <= cores; parallelism = nextLevel(parallelism, cores))
+		{
+			ForkJoinPool pool = parallelism == 1 ? null : new ForkJoinPool(parallelism);
+			client.setParallelPool(pool);
+			server.setParallelPool(pool);
+
+			double[] best = { Double.MAX_VALUE, Double.MAX_VALUE };
+
+			for (int run = 0; run < RUNS; run++)
+			{
+				long startTime = System.nanoTime();
+				ByteBuffer frame = client.encryptMessage(message, mode);
+				long encrypted = System.nanoTime();
+
+				if (!Arrays.equals(frameBytes(frame), expected))
+				{
+					throw new IllegalStateException("parallelism " + parallelism + " changed the ciphertext");
+				}
+
+				frame.position(0);
+				long decryptStart = System.nanoTime();
+				String decrypted = server.decryptMessage(frame, mode);
+				long decryptEnd = System.nanoTime();
+
+				if (!decrypted.equals(message))
+				{
+					throw new IllegalStateException("parallelism " + parallelism + " changed the plaintext");
+				}
+
+				best[0] = Math.min(best[0], (encrypted - startTime) / 1e9);
+				best[1] = Math.min(best[1], (decryptEnd - decryptStart) / 1e9);
+			}
+
+			if (baseline == null)
+			{
+				baseline = best.clone();
+			}
+
+			System.out.printf("parallelism %3d  encrypt %8.2f MB/s (x%.2f)  decrypt %8.2f MB/s (x%.2f)%n",
+					parallelism, megabytes / best[0], baseline[0] / best[0],
+					megabytes / best[1], baseline[1] / best[1]);
+
+			if (pool != null)
+			{
+				pool.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Get the next level of parallelism: the next power of two, and finally the number of cores
+	 * @param parallelism The current level
+	 * @param cores The number of available cores
+	 * @return The next level
+	 */
+	private static int nextLevel(int parallelism, int cores)
+	{
+		return parallelism < cores && parallelism * 2 > cores ? cores : parallelism * 2;
+	}
+
+	/**
+	 * Copy the bytes of a frame from its position to its limit
+	 * @param frame The frame
+	 * @return The bytes of the frame
+	 */
+	private static byte[] frameBytes(ByteBuffer frame)
+	{
+		return Arrays.copyOfRange(frame.array(), frame.position(), frame.limit());
+	}
+
+	/**
+	 * Create a random printable ASCII text
+	 * @param length The length of the text
+	 * @param random The source of randomness
+	 * @return The text
+	 */
+	private static String randomText(int length, Random random)
+	{
+		char[] text = new char[length];
+
+		for (int i = 0; i < length; i++)
+		{
+			text[i] = (char) (' ' + random.nextInt('~' - ' ' + 1));
+		}
+
+		return String.valueOf(text);
+	}
+}
@@ -0,0 +1,229 @@
+package pki;
+
+import java.math.BigInteger;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The bounded least-recently-used cache of peer public keys and their derived values.
+ * Entries are evicted once the cache is full or once they have been idle for too long
+ *
+ * @author Sua "Joshua" Lee
+ * @version 17-10-2026
+ */
+public class PeerKeyCache {
+	// list of instance fields
+	private final int maxEntries;
+	private final long idleTimeoutNanos;
+	private final LinkedHashMap<PeerId, Entry> entries;
+
+	// the statistics of the cache
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * Constructor for PeerKeyCache
+	 * @param maxEntries The largest number of peers kept
+	 * @param idleTimeout The time after which an unused peer is evicted
+	 * @param unit The unit of the idle timeout
+	 */
+	public PeerKeyCache(int maxEntries, long idleTimeout, TimeUnit unit)
+	{
+		if (maxEntries < 1 || idleTimeout <= 0)
+		{
+			throw new IllegalArgumentException();
+		}
+
+		this.maxEntries = maxEntries;
+		idleTimeoutNanos = unit.toNanos(idleTimeout);
+
+		// iterate in access order so that the eldest entry is the least recently used
+		entries = new LinkedHashMap<PeerId, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<PeerId, Entry> eldest)
+			{
+				if (size() > PeerKeyCache.this.maxEntries)
+				{
+					evictions++;
+					return true;
+				}
+
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Get the material of the given peer, deriving it on a miss.
+	 * The material is derived outside the lock, so that other peers are not held up meanwhile
+	 * @param publicE The e value of the peer's public key
+	 * @param publicN The n value of the peer's public key
+	 * @return The material of the peer
+	 */
+	public PeerKeyMaterial get(BigInteger publicE, BigInteger publicN)
+	{
+		PeerId id = new PeerId(publicE, publicN);
+		PeerKeyMaterial material = lookup(id);
+
+		if (material != null)
+		{
+			return material;
+		}
+
+		return putIfAbsent(id, new PeerKeyMaterial(publicE, publicN));
+	}
+
+	/**
+	 * Get the number of peers currently kept
+	 * @return The number of peers
+	 */
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * Get the number of lookups that found the peer in the cache
+	 * @return The number of hits
+	 */
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+	/**
+	 * Get the number of lookups that had to derive the peer's material
+	 * @return The number of misses
+	 */
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+
+	/**
+	 * Get the number of peers evicted because of the size limit or the idle timeout
+	 * @return The number of evictions
+	 */
+	public synchronized long getEvictions()
+	{
+		return evictions;
+	}
+
+	/**
+	 * Find the material of the given peer, counting the hit or the miss
+	 * @param id The public key pair of the peer
+	 * @return The material of the peer, or null if it is not kept
+	 */
+	private synchronized PeerKeyMaterial lookup(PeerId id)
+	{
+		long now = System.nanoTime();
+		evictIdle(now);
+
+		Entry entry = entries.get(id);
+
+		if (entry == null)
+		{
+			misses++;
+			return null;
+		}
+
+		hits++;
+		entry.lastAccess = now;
+
+		return entry.material;
+	}
+
+	/**
+	 * Keep the derived material of the given peer, unless another thread kept its own first
+	 * @param id The public key pair of the peer
+	 * @param material The derived material of the peer
+	 * @return The material kept for the peer
+	 */
+	private synchronized PeerKeyMaterial putIfAbsent(PeerId id, PeerKeyMaterial material)
+	{
+		Entry entry = entries.get(id);
+
+		if (entry == null)
+		{
+			entry = new Entry(material);
+			entries.put(id, entry);
+		}
+
+		entry.lastAccess = System.nanoTime();
+
+		return entry.material;
+	}
+
+	/**
+	 * Remove the entries that have not been used within the idle timeout
+	 * @param now The current time in nanoseconds
+	 */
+	private void evictIdle(long now)
+	{
+		Iterator<Entry> iterator = entries.values().iterator();
+
+		// the entries are in access order, so stop at the first one still in use
+		while (iterator.hasNext())
+		{
+			if (now - iterator.next().lastAccess < idleTimeoutNanos)
+			{
+				break;
+			}
+
+			iterator.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * The cached material of a single peer with the time it was last used
+	 */
+	private static final class Entry {
+		private final PeerKeyMaterial material;
+		private long lastAccess;
+
+		private Entry(PeerKeyMaterial material)
+		{
+			this.material = material;
+		}
+	}
+
+	/**
+	 * The public key pair {e, n} identifying a peer
+	 */
+	private static final class PeerId {
+		private final BigInteger publicE;
+		private final BigInteger publicN;
+
+		private PeerId(BigInteger publicE, BigInteger publicN)
+		{
+			this.publicE = publicE;
+			this.publicN = publicN;
+		}
+
+		@Override
+		public boolean equals(Object other)
+		{
+			if (!(other instanceof PeerId))
+			{
+				return false;
+			}
+
+			PeerId that = (PeerId) other;
+
+			return publicE.equals(that.publicE) && publicN.equals(that.publicN);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Objects.hash(publicE, publicN);
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package pki;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The public key of a peer together with the values derived from it,
+ * so that a repeat peer does not pay the setup cost again
+ *
+ * @author Sua "Joshua" Lee
+ * @version 17-10-2026
+ */
+public final class PeerKeyMaterial {
+	// list of instance fields
+	private final BigInteger publicE;
+	private final BigInteger publicN;
+	private final int blockWidth;
+	private final long keyId;
+
+	// set when the key is small enough for int arithmetic
+	private final boolean small;
+	private final int smallE;
+	private final int smallN;
+
+	// the values of the public operation, built on first use in lookup-table mode
+	private volatile ExponentTable publicTable;
+
+	/**
+	 * Constructor for PeerKeyMaterial; every derived value except the lookup table is computed immediately
+	 * @param publicE The e value of the peer's public key
+	 * @param publicN The n value of the peer's public key
+	 */
+	PeerKeyMaterial(BigInteger publicE, BigInteger publicN)
+	{
+		this.publicE = publicE;
+		this.publicN = publicN;
+		blockWidth = CiphertextCodec.blockWidth(publicN);
+		keyId = keyId(publicE, publicN);
+
+		small = publicE.bitLength() < Integer.SIZE && publicN.bitLength() < Integer.SIZE;
+		smallE = small ? publicE.intValue() : 0;
+		smallN = small ? publicN.intValue() : 0;
+	}
+
+	/**
+	 * Calculate x^e mod n using the peer's public key pair {e, n}
+	 * @param x The value of x; the key must be small
+	 * @param lookup Whether to look the value up, building the table on first use
+	 * @return The value of x^e mod n
+	 */
+	public int publicOperation(int x, boolean lookup)
+	{
+		ExponentTable table = lookup ? publicTable() : null;
+
+		if (table != null)
+		{
+			return table.apply(Math.floorMod(x, smallN));
+		}
+
+		return (int) ModularMath.modPow(x, smallE, smallN);
+	}
+
+	/**
+	 * Calculate x^e mod n for a range of values using the peer's public key pair {e, n}.
+	 * Nothing is allocated, so dst may be the same array as src
+	 * @param src The values of x; the key must be small
+	 * @param srcOffset The offset of the first x
+	 * @param dst The array receiving the values of x^e mod n
+	 * @param dstOffset The offset of the first x^e mod n
+	 * @param length The number of values
+	 * @param lookup Whether to look the values up, building the table on first use
+	 */
+	public void publicOperation(int[] src, int srcOffset, int[] dst, int dstOffset, int length, boolean lookup)
+	{
+		ExponentTable table = lookup ? publicTable() : null;
+
+		if (table != null)
+		{
+			for (int i = 0; i < length; i++)
+			{
+				dst[dstOffset + i] = table.apply(Math.floorMod(src[srcOffset + i], smallN));
+			}
+
+			return;
+		}
+
+		for (int i = 0; i < length; i++)
+		{
+			dst[dstOffset + i] = (int) ModularMath.modPow(src[srcOffset + i], smallE, smallN);
+		}
+	}
+
+	/**
+	 * Check if the peer's key is small enough for int arithmetic
+	 * @return Whether the peer's key is small
+	 */
+	public boolean isSmall()
+	{
+		return small;
+	}
+
+	/**
+	 * Get the e value of the peer's public key
+	 * @return The e value of the peer's public key
+	 */
+	public BigInteger getPublicE()
+	{
+		return publicE;
+	}
+
+	/**
+	 * Get the n value of the peer's public key
+	 * @return The n value of the peer's public key
+	 */
+	public BigInteger getPublicN()
+	{
+		return publicN;
+	}
+
+	/**
+	 * Get the e value of the peer's public key as an int
+	 * @return The e value of the peer's public key; only meaningful when the key is small
+	 */
+	public int getSmallE()
+	{
+		return smallE;
+	}
+
+	/**
+	 * Get the n value of the peer's public key as an int
+	 * @return The n value of the peer's public key; only meaningful when the key is small
+	 */
+	public int getSmallN()
+	{
+		return smallN;
+	}
+
+	/**
+	 * Get the id of the peer's public key
+	 * @return The id of the peer's public key
+	 */
+	public long getKeyId()
+	{
+		return keyId;
+	}
+
+	/**
+	 * Get the number of bytes needed to hold any value below the peer's modulus
+	 * @return The width of a single block in bytes
+	 */
+	public int getBlockWidth()
+	{
+		return blockWidth;
+	}
+
+	/**
+	 * Get the memory used by the precomputed values
+	 * @return The size of the precomputed values in bytes
+	 */
+	public long getFootprintBytes()
+	{
+		ExponentTable table = publicTable;
+
+		return table == null ? 0 : table.getFootprintBytes();
+	}
+
+	/**
+	 * Get the lookup table of the public operation, building it on first use
+	 * @return The lookup table, or null if the modulus is above the lookup table limit
+	 */
+	private ExponentTable publicTable()
+	{
+		if (!small || smallN > PKIKey.getLookupTableLimit())
+		{
+			return null;
+		}
+
+		ExponentTable table = publicTable;
+
+		// two threads may both build the table; the values are the same, so either one is kept
+		if (table == null)
+		{
+			table = new ExponentTable(smallE, smallN);
+			publicTable = table;
+		}
+
+		return table;
+	}
+
+	/**
+	 * Calculate the id of a public key pair {e, n}:
+	 * the first eight bytes of the SHA-256 digest of e and n
+	 * @param publicE The e value of the public key
+	 * @param publicN The n value of the public key
+	 * @return The id of the public key
+	 */
+	public static long keyId(BigInteger publicE, BigInteger publicN)
+	{
+		try
+		{
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] eBytes = publicE.toByteArray();
+
+			// prefix e with its length so that different splits of the same bytes differ
+			digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(eBytes.length).array());
+			digest.update(eBytes);
+			digest.update(publicN.toByteArray());
+
+			return ByteBuffer.wrap(digest.digest()).getLong();
+		}
+		catch (NoSuchAlgorithmException unavailable)
+		{
+			// every Java platform is required to support SHA-256
+			throw new IllegalStateException(unavailable);
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package pki;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The Flight Recorder event of a single stage of encrypting or decrypting a message.
+ * The duration of the event is the time spent in the stage; while no recording
+ * enables the event, starting and finishing it costs next to nothing
+ *
+ * @author Sua "Joshua" Lee
+ * @version 17-10-2026
+ */
+@Name("pki.PipelineStage")
+@Label("Pipeline Stage")
+@Category({ "PKI", "Pipeline" })
+@Description("A single stage of encrypting or decrypting a message")
+@StackTrace(false)
+public final class PipelineStageEvent extends Event {
+	// the sides of the pipeline
+	static final String CLIENT = "client";
+	static final String SERVER = "server";
+
+	// the stages of the client: encode -> pack -> encrypt -> serialize -> write
+	static final String ENCODE = "encode";
+	static final String PACK = "pack";
+	static final String ENCRYPT = "encrypt";
+	static final String SERIALIZE = "serialize";
+	static final String WRITE = "write";
+
+	// the stages of the server: read -> parse -> decrypt -> unpack -> decode
+	static final String READ = "read";
+	static final String PARSE = "parse";
+	static final String DECRYPT = "decrypt";
+	static final String UNPACK = "unpack";
+	static final String DECODE = "decode";
+
+	@Label("Side")
+	@Description("Whether the client or the server ran the stage")
+	String side;
+
+	@Label("Stage")
+	String stage;
+
+	@Label("Mode")
+	@Description("1 - authentication, 2 - encryption, 3 - both")
+	int mode;
+
+	@Label("Message Size")
+	@Description("The size of the plaintext of the message")
+	@DataAmount
+	long messageBytes;
+
+	@Label("Modulus Bits")
+	@Description("The bit length of the largest modulus used by the mode")
+	int modulusBits;
+
+	/**
+	 * Start timing a stage
+	 * @return The event of the stage
+	 */
+	static PipelineStageEvent start()
+	{
+		PipelineStageEvent event = new PipelineStageEvent();
+		event.begin();
+
+		return event;
+	}
+
+	/**
+	 * Stop timing the stage, and commit the event if a recording wants it
+	 * @param side One of CLIENT or SERVER
+	 * @param stage The name of the stage
+	 * @param mode The type of encryption
+	 * @param messageBytes The size of the plaintext of the message
+	 * @param modulusBits The bit length of the largest modulus used by the mode
+	 */
+	void finish(String side, String stage, int mode, long messageBytes, int modulusBits)
+	{
+		end();
+
+		if (shouldCommit())
+		{
+			this.side = side;
+			this.stage = stage;
+			this.mode = mode;
+			this.messageBytes = messageBytes;
+			this.modulusBits = modulusBits;
+			commit();
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package pki;
+
+import java.math.BigInteger;
+
+/**
+ * The common encrypt/decrypt API shared by every key type,
+ * so that TCPClient and TCPServer can work with either small or large moduli
+ *
+ * @author Sua "Joshua" Lee
+ * @version 17-10-2026
+ */
+public interface RSAKey {
+	/**
+	 * Encrypt a given message using the recipient's public key pair {e, n}
+	 * @param m The given message
+	 * @param publicE The e value of the recipient's public key pair
+	 * @param publicN The n value of the recipient's public key pair
+	 * @return The encrypted message
+	 */
+	BigInteger encryptPublic(BigInteger m, BigInteger publicE, BigInteger publicN);
+
+	/**
+	 * Encrypt the given message using the sender's private key
+	 * @param m The given message
+	 * @return The encrypted message
+	 */
+	BigInteger encryptPrivate(BigInteger m);
+
+	/**
+	 * Decrypt a given message using the sender's public key pair {e, n}
+	 * @param c The given encrypted message
+	 * @param publicE The e value of the sender's public key pair
+	 * @param publicN The n value of the sender's public key pair
+	 * @return The decrypted message
+	 */
+	BigInteger decryptPublic(BigInteger c, BigInteger publicE, BigInteger publicN);
+
+	/**
+	 * Decrypt a given message using the recipient's private key
+	 * @param c The given encrypted message
+	 * @return The decrypted message
+	 */
+	BigInteger decryptPrivate(BigInteger c);
+
+	/**
+	 * Get the e value of the public key pair {e, n}
+	 * @return The e value of the public key pair {e, n}
+	 */
+	BigInteger getPublicExponent();
+
+	/**
+	 * Get the d value of the private key pair {d, n}
+	 * @return The d value of the private key pair {d, n}
+	 */
+	BigInteger getPrivateExponent();
+
+	/**
+	 * Get the n value of the public key pair {e, n}
+	 * @return The n value of the public key pair {e, n}
+	 */
+	BigInteger getModulus();
+
+	/**
+	 * Create the key type that suits the size of the given values:
+	 * a PKIKey when n fits in an int, and a BigPKIKey otherwise
+	 * @param p The value of p
+	 * @param q The value of q
+	 * @param e The value of e
+	 * @return The key built from p, q and e
+	 */
+	static RSAKey of(BigInteger p, BigInteger q, BigInteger e)
+	{
+		if (p.multiply(q).bitLength() < Integer.SIZE && e.bitLength() < Integer.SIZE)
+		{
+			return new PKIKey(p.intValue(), q.intValue(), e.intValue());
+		}
+
+		return new BigPKIKey(p, q, e);
+	}
+}
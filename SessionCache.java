@@ -0,0 +1,220 @@
+package pki;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The bounded least-recently-used cache of the sessions agreed with peers,
+ * so that a peer who reconnects neither introduces its key again nor wraps another session key.
+ * The server keeps the sessions under the key id of each client, and the client under the
+ * address of each server. Entries are evicted once the cache is full or once they have been idle for too long
+ *
+ * @param <K> The type of the name of a session
+ *
+ * @author Sua "Joshua" Lee
+ * @version 17-10-2026
+ */
+public class SessionCache<K> {
+	// list of instance fields
+	private final int maxEntries;
+	private final long idleTimeoutNanos;
+	private final LinkedHashMap<K, Entry> entries;
+
+	// the statistics of the cache
+	private long hits;
+	private long misses;
+
+	/**
+	 * Constructor for SessionCache
+	 * @param maxEntries The largest number of sessions kept
+	 * @param idleTimeout The time after which an unused session is evicted
+	 * @param unit The unit of the idle timeout
+	 */
+	public SessionCache(int maxEntries, long idleTimeout, TimeUnit unit)
+	{
+		if (maxEntries < 1 || idleTimeout <= 0)
+		{
+			throw new IllegalArgumentException();
+		}
+
+		this.maxEntries = maxEntries;
+		idleTimeoutNanos = unit.toNanos(idleTimeout);
+
+		// iterate in access order so that the eldest entry is the least recently used
+		entries = new LinkedHashMap<K, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, Entry> eldest)
+			{
+				return size() > SessionCache.this.maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Get the session of the given name
+	 * @param name The name of the session
+	 * @return The session, or null if there is none
+	 */
+	synchronized Session get(K name)
+	{
+		long now = System.nanoTime();
+		evictIdle(now);
+
+		Entry entry = entries.get(name);
+
+		if (entry == null)
+		{
+			misses++;
+			return null;
+		}
+
+		hits++;
+		entry.lastAccess = now;
+
+		return entry.session;
+	}
+
+	/**
+	 * Keep a session under the given name, replacing any session of that name
+	 * @param name The name of the session
+	 * @param session The session
+	 */
+	synchronized void put(K name, Session session)
+	{
+		Entry entry = new Entry(session);
+		entry.lastAccess = System.nanoTime();
+		entries.put(name, entry);
+	}
+
+	/**
+	 * Get the number of sessions currently kept
+	 * @return The number of sessions
+	 */
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * Get the number of lookups that found a session to resume
+	 * @return The number of hits
+	 */
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+	/**
+	 * Get the number of lookups that found no session
+	 * @return The number of misses
+	 */
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+
+	/**
+	 * Remove the entries that have not been used within the idle timeout
+	 * @param now The current time in nanoseconds
+	 */
+	private void evictIdle(long now)
+	{
+		Iterator<Entry> iterator = entries.values().iterator();
+
+		// the entries are in access order, so stop at the first one still in use
+		while (iterator.hasNext() && now - iterator.next().lastAccess >= idleTimeoutNanos)
+		{
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * The cached session with the time it was last used
+	 */
+	private static final class Entry {
+		private final Session session;
+		private long lastAccess;
+
+		private Entry(Session session)
+		{
+			this.session = session;
+		}
+	}
+
+	/**
+	 * The session agreed with a peer: its public key, the mode, and in the hybrid modes
+	 * the session key together with the RSA blocks that wrap it
+	 */
+	static final class Session {
+		private final PeerKeyMaterial peer;
+		private final int mode;
+		private final SessionCipher cipher;
+		private final byte[] wrappedKey;
+
+		/**
+		 * Constructor for Session
+		 * @param peer The public key of the peer and its derived values
+		 * @param mode The type of encryption
+		 * @param cipher The cipher of the session key, or null until a hybrid mode wraps one
+		 * @param wrappedKey The blocks that wrap the session key, or null until a hybrid mode wraps one
+		 */
+		Session(PeerKeyMaterial peer, int mode, SessionCipher cipher, byte[] wrappedKey)
+		{
+			this.peer = peer;
+			this.mode = mode;
+			this.cipher = cipher;
+			this.wrappedKey = wrappedKey;
+		}
+
+		/**
+		 * Get the public key of the peer
+		 * @return The public key of the peer and its derived values
+		 */
+		PeerKeyMaterial getPeer()
+		{
+			return peer;
+		}
+
+		/**
+		 * Get the type of encryption of the session
+		 * @return The type of encryption
+		 */
+		int getMode()
+		{
+			return mode;
+		}
+
+		/**
+		 * Check whether the session holds a wrapped session key for the given peer and mode
+		 * @param peer The public key of the peer
+		 * @param mode One of HYBRID or SIGNED_HYBRID
+		 * @return true if the key can be used again
+		 */
+		boolean hasKey(PeerKeyMaterial peer, int mode)
+		{
+			return cipher != null && this.mode == mode && this.peer.getKeyId() == peer.getKeyId();
+		}
+
+		/**
+		 * Create a cipher of the session key for another connection; it shares the nonces of the others
+		 * @return The cipher
+		 */
+		SessionCipher newCipher()
+		{
+			return cipher.copy();
+		}
+
+		/**
+		 * Get the blocks that wrap the session key
+		 * @return The blocks, which must not be modified
+		 */
+		byte[] getWrappedKey()
+		{
+			return wrappedKey;
+		}
+	}
+}
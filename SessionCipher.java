@@ -0,0 +1,175 @@
+package pki;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The AES-GCM cipher of a session, used by the hybrid modes so that RSA only wraps the session key.
+ * Every sealed message is the 12-byte nonce followed by the ciphertext and the 16-byte tag,
+ * and the header of its frame is authenticated along with it.
+ * The nonces of a session are a random prefix followed by a counter, so none is used twice;
+ * the copies that carry a session over to other connections share the counter.
+ * The cipher is reused between messages, so a single instance must not be used from several threads
+ *
+ * @author Sua "Joshua" Lee
+ * @version 17-10-2026
+ */
+final class SessionCipher {
+	/**
+	 * The size of the session key in bytes
+	 */
+	static final int KEY_SIZE = 32;
+
+	// the sizes of the nonce and the authentication tag
+	private static final int NONCE_SIZE = 12;
+	private static final int TAG_SIZE = 16;
+
+	/**
+	 * The number of bytes a sealed message takes on top of its plaintext
+	 */
+	static final int OVERHEAD = NONCE_SIZE + TAG_SIZE;
+
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	// list of instance fields
+	private final byte[] key;
+	private final SecretKeySpec secretKey;
+	private final Cipher cipher;
+	private final byte[] nonce = new byte[NONCE_SIZE];
+	private final AtomicLong counter;
+
+	/**
+	 * Constructor for SessionCipher
+	 * @param key The session key, KEY_SIZE bytes long
+	 */
+	SessionCipher(byte[] key)
+	{
+		this(key, new AtomicLong());
+	}
+
+	/**
+	 * Constructor for SessionCipher that shares the counter of the nonces with another cipher
+	 * @param key The session key, KEY_SIZE bytes long
+	 * @param counter The counter of the nonces
+	 */
+	private SessionCipher(byte[] key, AtomicLong counter)
+	{
+		this.key = key.clone();
+		this.counter = counter;
+		secretKey = new SecretKeySpec(this.key, "AES");
+
+		try
+		{
+			cipher = Cipher.getInstance("AES/GCM/NoPadding");
+		}
+		catch (GeneralSecurityException unavailable)
+		{
+			// every Java runtime provides AES-GCM
+			throw new IllegalStateException(unavailable);
+		}
+	}
+
+	/**
+	 * Create the cipher of a new session with a random key
+	 * @return The cipher of the session
+	 */
+	static SessionCipher generate()
+	{
+		byte[] key = new byte[KEY_SIZE];
+		RANDOM.nextBytes(key);
+
+		SessionCipher session = new SessionCipher(key);
+
+		// the first four bytes of every nonce of the session stay the same
+		RANDOM.nextBytes(session.nonce);
+
+		return session;
+	}
+
+	/**
+	 * Create another cipher of the same session, to be used by another connection or thread
+	 * @return The cipher, with the same key and prefix of the nonces and a shared counter
+	 */
+	SessionCipher copy()
+	{
+		SessionCipher copy = new SessionCipher(key, counter);
+		System.arraycopy(nonce, 0, copy.nonce, 0, NONCE_SIZE - Long.BYTES);
+
+		return copy;
+	}
+
+	/**
+	 * Get the session key, to be wrapped for the peer
+	 * @return A copy of the session key
+	 */
+	byte[] getKey()
+	{
+		return key.clone();
+	}
+
+	/**
+	 * Seal a message behind the next nonce of the session
+	 * @param header The header of the frame, authenticated but not encrypted
+	 * @param plaintext The bytes of the message, from its position to its limit; they are consumed
+	 * @param dst The destination buffer, with at least OVERHEAD more bytes remaining than the message
+	 */
+	void seal(ByteBuffer header, ByteBuffer plaintext, ByteBuffer dst)
+	{
+		long next = counter.incrementAndGet();
+
+		for (int i = 0; i < Long.BYTES; i++)
+		{
+			nonce[NONCE_SIZE - 1 - i] = (byte) (next >>> (8 * i));
+		}
+
+		dst.put(nonce);
+
+		try
+		{
+			cipher.init(Cipher.ENCRYPT_MODE, secretKey, new GCMParameterSpec(TAG_SIZE * 8, nonce));
+			cipher.updateAAD(header);
+			cipher.doFinal(plaintext, dst);
+		}
+		catch (GeneralSecurityException unexpected)
+		{
+			// the key, the nonce and the buffers are always valid here
+			throw new IllegalStateException(unexpected);
+		}
+	}
+
+	/**
+	 * Open a sealed message, checking that neither it nor its header was altered
+	 * @param header The header of the frame
+	 * @param sealed The nonce, ciphertext and tag, from its position to its limit; they are consumed
+	 * @param dst The destination buffer, with at least as many bytes remaining as the message
+	 * @throws ProtocolException If the message or its header was altered, or sealed with another key
+	 */
+	void open(ByteBuffer header, ByteBuffer sealed, ByteBuffer dst) throws ProtocolException
+	{
+		byte[] received = new byte[NONCE_SIZE];
+		sealed.get(received);
+
+		try
+		{
+			cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(TAG_SIZE * 8, received));
+			cipher.updateAAD(header);
+			cipher.doFinal(sealed, dst);
+		}
+		catch (AEADBadTagException tampered)
+		{
+			throw new ProtocolException("the message failed authentication");
+		}
+		catch (GeneralSecurityException unexpected)
+		{
+			throw new IllegalStateException(unexpected);
+		}
+	}
+}
@@ -1,50 +1,251 @@
 package pki;
 
 import java.io.*;
+import java.math.BigInteger;
+import java.net.ProtocolException;
 import java.net.Socket;
-import java.util.Random;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The implementation of PKI client
- * that encrypts and sends the message given by its user
+ * that encrypts and sends the message given by its user.
+ * A client keeps its connection for as many messages as it sends, pinging the server while it is idle
+ * if asked to, and ends the session with a close frame when it is closed
  * @author Sua "Joshua" Lee
  * @version 17-11-2020
  */
 public class TCPClient {
+	// the types of encryption, matching the choices of PKIClientDriver
+	static final int AUTHENTICATE = MessageFrame.AUTHENTICATE;
+	static final int ENCRYPT = MessageFrame.ENCRYPT;
+	static final int BOTH = MessageFrame.BOTH;
+	static final int HYBRID = MessageFrame.HYBRID;
+	static final int SIGNED_HYBRID = MessageFrame.SIGNED_HYBRID;
+	
+	// the size of the chunks a file is read and encrypted in
+	static final int CHUNK_SIZE = 64 << 10;
+	
+	// the sessions agreed with the servers of this process, by the address of the server and the client's key
+	private static final SessionCache<String> SESSIONS = new SessionCache<>(64, 10, TimeUnit.MINUTES);
+	
+	// sends the pings of every idle client of this process
+	private static final ScheduledExecutorService PINGER = Executors.newSingleThreadScheduledExecutor(task -> {
+		Thread thread = new Thread(task, "pki-keep-alive");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
 	// list of instances to be used
 	private Socket socket;
 	private OutputStream outputStream;
-	private byte[] buffer;
-	private int bufferSize;
-	private int publicE;
-	private int publicN;
-	private PKIKey clientKey;
-	private Random rand;
+	private ByteBuffer buffer;
+	private BigInteger publicE;
+	private BigInteger publicN;
+	private RSAKey clientKey;
+	private long keyId;
+	
+	// the sizes of the plaintext and ciphertext blocks, indexed by mode
+	private int[] blockSizes = new int[SIGNED_HYBRID + 1];
+	private int[] blockWidths = new int[SIGNED_HYBRID + 1];
+	private int[] modulusBits = new int[SIGNED_HYBRID + 1];
+	
+	// reused between messages so that encrypting does not allocate
+	private CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private ByteBuffer plaintext = ByteBuffer.allocate(0);
+	private int[] blocks = new int[0];
+	private BigInteger[] bigBlocks = new BigInteger[0];
+	
+	// the plaintext length of the last message, reported by the write stage
+	private int lastLength;
+	
+	// the session key of the hybrid modes, and its wrapped blocks sent in front of every sealed message
+	private SessionCipher session;
+	private byte[] wrappedKey;
+	private int wrappedBlocks;
+	private int wrappedMode;
+	
+	// the name of the session with the server, or null when this client does not connect by itself
+	private String sessionName;
+	
+	// the frames and the pings are written by different threads, one whole frame at a time
+	private final Object writeLock = new Object();
+	private volatile long lastWrite = System.nanoTime();
+	private ScheduledFuture<?> keepAlive;
+	
+	// messages of at least this many blocks are encrypted in parallel on the pool
+	private ForkJoinPool parallelPool = ForkJoinPool.commonPool();
+	private int parallelThreshold = BlockTask.DEFAULT_THRESHOLD;
+	
+	// set when both keys are small enough for the int arithmetic of PKIKey
+	private PKIKey smallKey;
+	private int smallE;
+	private int smallN;
 	
 	/**
 	 * Constructor of the class TCP client
 	 * @param targetAddress The address of the target (server)
-	 * @param bufferSize The size of the given buffer
+	 * @param bufferSize The initial size of the buffer; it grows for longer messages
 	 * @param clientKey The PKIKey for client
 	 * @param publicE The e value of the server's public key
 	 * @param publicN The n value of the server's public key
 	 */
 	public TCPClient(String targetAddress, int bufferSize, PKIKey clientKey, int publicE, int publicN)
 	{
+		this(targetAddress, bufferSize, clientKey, BigInteger.valueOf(publicE), BigInteger.valueOf(publicN));
+	}
+	
+	/**
+	 * Constructor of the class TCP client that accepts keys of any size
+	 * @param targetAddress The address of the target (server)
+	 * @param bufferSize The initial size of the buffer; it grows for longer messages
+	 * @param clientKey The key for client
+	 * @param publicE The e value of the server's public key
+	 * @param publicN The n value of the server's public key
+	 */
+	public TCPClient(String targetAddress, int bufferSize, RSAKey clientKey, BigInteger publicE, BigInteger publicN)
+	{
+		this(bufferSize, clientKey, publicE, publicN);
+		sessionName = targetAddress + "/" + keyId;
+		
+		try
+		{
+			socket = new Socket(targetAddress, TCPServer.DEFAULT_PORT);
+			outputStream = socket.getOutputStream();
+		}
+		catch (IOException io)
+		{
+			io.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Constructor of the class TCP client that learns the key of the server through a handshake,
+	 * resuming the session of an earlier connection to the same server when there is one
+	 * @param targetAddress The address of the target (server)
+	 * @param bufferSize The initial size of the buffer; it grows for longer messages
+	 * @param clientKey The key for client
+	 * @param mode The type of encryption, which the server must agree to
+	 */
+	public TCPClient(String targetAddress, int bufferSize, RSAKey clientKey, int mode)
+	{
+		buffer = ByteBuffer.allocate(Math.max(bufferSize, MessageFrame.HEADER_SIZE));
+		this.clientKey = clientKey;
+		keyId = PeerKeyMaterial.keyId(clientKey.getPublicExponent(), clientKey.getModulus());
+		sessionName = targetAddress + "/" + keyId;
+		
 		try
 		{
-			socket = new Socket(targetAddress, 1234);
+			socket = new Socket(targetAddress, TCPServer.DEFAULT_PORT);
 			outputStream = socket.getOutputStream();
-			buffer = new byte[bufferSize];
-			this.bufferSize = bufferSize;
-			this.clientKey = clientKey;
-			this.publicE = publicE;
-			this.publicN = publicN;
-			rand = new Random();
+			
+			Handshake answer = handshake(mode);
+			setKeys(answer.getPublicE(), answer.getPublicN());
 		}
 		catch (IOException io)
 		{
 			io.printStackTrace();
+			close();
+		}
+	}
+	
+	/**
+	 * Constructor of the class TCP client that only encrypts messages
+	 * for another transport, such as NioTCPClient
+	 * @param bufferSize The initial size of the buffer; it grows for longer messages
+	 * @param clientKey The key for client
+	 * @param publicE The e value of the server's public key
+	 * @param publicN The n value of the server's public key
+	 */
+	TCPClient(int bufferSize, RSAKey clientKey, BigInteger publicE, BigInteger publicN)
+	{
+		buffer = ByteBuffer.allocate(Math.max(bufferSize, MessageFrame.HEADER_SIZE));
+		this.clientKey = clientKey;
+		keyId = PeerKeyMaterial.keyId(clientKey.getPublicExponent(), clientKey.getModulus());
+		setKeys(publicE, publicN);
+	}
+	
+	/**
+	 * Say hello to the server with the key of the client, or with only its id when resuming a session,
+	 * and read the answer of the server
+	 * @param mode The type of encryption, which the server must agree to
+	 * @return The answer of the server, carrying its key
+	 * @throws IOException If the handshake fails, or the server performs another mode
+	 */
+	private Handshake handshake(int mode) throws IOException
+	{
+		DataInputStream inputStream = new DataInputStream(socket.getInputStream());
+		SessionCache.Session cached = SESSIONS.get(sessionName);
+		
+		Handshake.hello(mode, clientKey, cached != null).write(outputStream);
+		Handshake answer = Handshake.read(inputStream);
+		
+		// the server has forgotten the session, so introduce the key after all
+		if (answer.getCode() == Handshake.UNKNOWN_SESSION && cached != null)
+		{
+			Handshake.hello(mode, clientKey, false).write(outputStream);
+			answer = Handshake.read(inputStream);
+		}
+		
+		if (answer.getCode() == Handshake.REJECTED)
+		{
+			throw new ProtocolException("the server performs mode " + answer.getMode() + ", not mode " + mode);
+		}
+		
+		if (answer.getCode() != Handshake.ACCEPTED && answer.getCode() != Handshake.RESUMED || !answer.hasKey())
+		{
+			throw new ProtocolException("unexpected answer to the hello");
+		}
+		
+		// a session with another key of the server cannot be resumed
+		if (cached == null || cached.getPeer().getKeyId() != answer.getKeyId())
+		{
+			SESSIONS.put(sessionName, new SessionCache.Session(
+					TCPServer.getPeerKeyCache().get(answer.getPublicE(), answer.getPublicN()), mode, null, null));
+		}
+		
+		return answer;
+	}
+	
+	/**
+	 * Set the key of the server and the sizes of the blocks it implies
+	 * @param publicE The e value of the server's public key
+	 * @param publicN The n value of the server's public key
+	 */
+	private void setKeys(BigInteger publicE, BigInteger publicN)
+	{
+		this.publicE = publicE;
+		this.publicN = publicN;
+		
+		// the hybrid modes use the blocks of the mode that wraps their session key
+		for (int mode = AUTHENTICATE; mode <= SIGNED_HYBRID; mode++)
+		{
+			int keyMode = MessageFrame.keyMode(mode);
+			
+			blockSizes[mode] = BlockPacker.blockSize(plaintextModulus(keyMode));
+			blockWidths[mode] = CiphertextCodec.blockWidth(outputModulus(keyMode));
+			modulusBits[mode] = outputModulus(keyMode).bitLength();
+		}
+		
+		if (clientKey instanceof PKIKey && publicE.bitLength() < Integer.SIZE
+				&& publicN.bitLength() < Integer.SIZE)
+		{
+			smallKey = (PKIKey) clientKey;
+			smallE = publicE.intValue();
+			smallN = publicN.intValue();
 		}
 	}
 	
@@ -54,46 +255,67 @@ public class TCPClient {
 	 */
 	public void authenticateAndSend(String message)
 	{
-		if (socket.isConnected())
+		send(message, AUTHENTICATE);
+	}
+	
+	/**
+	 * Send a message that is encrypted using signature (i.e. encryption) process
+	 * @param message The given message
+	 */
+	public void encryptAndSend(String message)
+	{
+		send(message, ENCRYPT);
+	}
+	
+	/**
+	 * Send a message that is encrypted using both authentication and encryption processes
+	 * @param message The given message
+	 */
+	public void encryptAndAuthenticate(String message)
+	{
+		send(message, BOTH);
+	}
+	
+	/**
+	 * Send a message sealed with AES-GCM under a session key that is encrypted for the server
+	 * @param message The given message
+	 */
+	public void sealAndSend(String message)
+	{
+		send(message, HYBRID);
+	}
+	
+	/**
+	 * Send a message sealed with AES-GCM under a session key that is both signed and encrypted
+	 * @param message The given message
+	 */
+	public void sealAndAuthenticate(String message)
+	{
+		send(message, SIGNED_HYBRID);
+	}
+	
+	/**
+	 * Encrypt the message using the given mode, frame it, and send it to the server
+	 * @param message The given message
+	 * @param mode One of AUTHENTICATE, ENCRYPT, BOTH, HYBRID or SIGNED_HYBRID
+	 */
+	private void send(String message, int mode)
+	{
+		if (isConnected())
 		{
 			try
 			{
-				/*
-				 * the character '$' serves as a mark that lets the server know that
-				 * any characters following '$' do not belong to the original message 
-				 */
 				long startTime = startFlag();
-				String messageMarked = message.concat("$");
-				char[] messageInChars = messageMarked.toCharArray();
-	
-				// encrypt the message using the client's private key values
-				for (int i = 0; i < messageInChars.length; i++)
-				{
-					int encrypted = clientKey.encryptPrivate(messageInChars[i]);
-					messageInChars[i] = (char) encrypted;
-				}
-				
-				String encryptedMessage = String.valueOf(messageInChars);
-				
-				byte[] msgInBytes = encryptedMessage.getBytes("UTF-8");
-				System.arraycopy(msgInBytes, 0, buffer, 0, msgInBytes.length);
-				
-				// fill the empty spaces in the buffer with paddings
-				if (msgInBytes.length < bufferSize)
-				{
-					for (int i = msgInBytes.length; i < bufferSize; i++)
-					{
-						buffer[i] = (byte) rand.nextInt(128);
-					}
-				}
+				ByteBuffer frame = encryptMessage(message, mode);
 				
 				long endTime = endFlag(startTime);
 				System.out.println("The message has been encrypted as follows: \n"
-						+ new String(buffer, "UTF-8"));
+						+ CiphertextCodec.toHex(frame.array(), MessageFrame.HEADER_SIZE,
+								frame.limit() - MessageFrame.HEADER_SIZE));
 				
-				System.out.println("Time spent: " + endTime + "\n");
+				System.out.printf("Time spent: %.3f ms%n%n", endTime / 1e6);
 				
-				outputStream.write(buffer);
+				write(frame, mode);
 			}
 			catch (IOException io)
 			{
@@ -103,147 +325,658 @@ public class TCPClient {
 	}
 	
 	/**
-	 * Send a message that is encrypted using signature (i.e. encryption) process
+	 * Encrypt the message using the given mode and send it without printing anything
 	 * @param message The given message
+	 * @param mode One of AUTHENTICATE, ENCRYPT, BOTH, HYBRID or SIGNED_HYBRID
+	 * @throws IOException If the message cannot be sent
 	 */
-	public void encryptAndSend(String message)
+	void sendMessage(String message, int mode) throws IOException
+	{
+		write(encryptMessage(message, mode), mode);
+	}
+	
+	/**
+	 * Stream a file of any size to the server, encrypting it chunk by chunk using the given mode.
+	 * The file is read into a single direct buffer of one chunk, and every chunk is written to the socket
+	 * before the next one is read, so memory use stays the same whatever the size of the file
+	 * @param file The file to send
+	 * @param mode One of AUTHENTICATE, ENCRYPT, BOTH, HYBRID or SIGNED_HYBRID
+	 * @return The number of bytes of the file that were sent
+	 * @throws IOException If the file cannot be read or sent
+	 */
+	public long sendFile(Path file, int mode) throws IOException
 	{
-		if (socket.isConnected())
+		if (!isConnected())
 		{
-			try
+			throw new IOException("the client is not connected");
+		}
+		
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+			long sent = 0;
+			
+			writeControl(MessageFrame.STREAM);
+			write(encryptMessage(file.getFileName().toString(), mode), mode);
+			
+			while (true)
 			{
-				/*
-				 * the character '$' serves as a mark that lets the server know that
-				 * any characters following '$' do not belong to the original message 
-				 */
-				long startTime = startFlag();
-				String messageMarked = message.concat("$");
-				char[] messageInChars = messageMarked.toCharArray();
+				// fill the whole chunk unless the file ends first
+				chunk.clear();
+				int read = 0;
 				
-				// encrypt the message using the server's public key values
-				for (int i = 0; i < messageInChars.length; i++)
+				while (chunk.hasRemaining() && read >= 0)
 				{
-					int encrypted = clientKey.encryptPublic(messageInChars[i], publicE, publicN);
-					messageInChars[i] = (char) encrypted;
+					read = channel.read(chunk);
 				}
 				
-				String encryptedMessage = String.valueOf(messageInChars);
-				
-				byte[] msgInBytes = encryptedMessage.getBytes("UTF-8");
-				System.arraycopy(msgInBytes, 0, buffer, 0, msgInBytes.length);
-				
-				// fill the empty spaces in the buffer with paddings;
-				if (msgInBytes.length < bufferSize)
+				if (chunk.position() == 0)
 				{
-					for (int i = msgInBytes.length; i < bufferSize; i++)
-					{
-						buffer[i] = (byte) rand.nextInt(128);
-					}
+					break;
 				}
 				
-				long endTime = endFlag(startTime);
-				System.out.println("The message has been encrypted as follows: \n"
-						+ new String(buffer, "UTF-8"));
-				
-				System.out.println("Time spent: " + endTime + "\n");
+				sent += chunk.flip().remaining();
+				write(encryptChunk(chunk, mode), mode);
+			}
+			
+			writeControl(MessageFrame.END);
+			
+			return sent;
+		}
+	}
+	
+	/**
+	 * Set the smallest number of blocks in a message that are encrypted in parallel
+	 * @param threshold The smallest number of blocks, or Integer.MAX_VALUE to always encrypt sequentially
+	 */
+	public void setParallelThreshold(int threshold)
+	{
+		parallelThreshold = threshold;
+	}
+	
+	/**
+	 * Set the fork-join pool that encrypts large messages in parallel
+	 * @param pool The pool, or null to always encrypt sequentially
+	 */
+	public void setParallelPool(ForkJoinPool pool)
+	{
+		parallelPool = pool;
+	}
+	
+	/**
+	 * Ping the server whenever no frame has been sent for the given interval,
+	 * so that the server does not close the connection as idle
+	 * @param interval The interval, which should be shorter than the idle timeout of the server,
+	 * or 0 to stop pinging
+	 * @param unit The unit of the interval
+	 */
+	public synchronized void setKeepAlive(long interval, TimeUnit unit)
+	{
+		if (keepAlive != null)
+		{
+			keepAlive.cancel(false);
+			keepAlive = null;
+		}
+		
+		if (interval > 0 && isConnected())
+		{
+			long intervalNanos = unit.toNanos(interval);
+			
+			// check twice per interval, so that no gap between two frames is much longer than the interval
+			keepAlive = PINGER.scheduleAtFixedRate(() -> ping(intervalNanos), intervalNanos / 2, intervalNanos / 2,
+					TimeUnit.NANOSECONDS);
+		}
+	}
+	
+	/**
+	 * Send a ping if no frame has been sent for the given interval
+	 * @param intervalNanos The keep-alive interval in nanoseconds
+	 */
+	private void ping(long intervalNanos)
+	{
+		if (System.nanoTime() - lastWrite < intervalNanos / 2)
+		{
+			return;
+		}
+		
+		try
+		{
+			writeControl(MessageFrame.PING);
+		}
+		catch (IOException io)
+		{
+			// the connection is gone, so stop pinging; the next message reports the failure
+			setKeepAlive(0, TimeUnit.NANOSECONDS);
+		}
+	}
+	
+	/**
+	 * Check whether the connection to the server was opened and is still open
+	 * @return true if messages can be sent
+	 */
+	boolean isConnected()
+	{
+		return socket != null && socket.isConnected() && !socket.isClosed();
+	}
+	
+	/**
+	 * End the session with a close frame, and close the connection to the server
+	 */
+	public void close()
+	{
+		setKeepAlive(0, TimeUnit.NANOSECONDS);
+		
+		try
+		{
+			if (isConnected())
+			{
+				writeControl(MessageFrame.CLOSE);
+			}
+		}
+		catch (IOException gone)
+		{
+			// the server closed the connection first
+		}
+		
+		try
+		{
+			if (socket != null)
+			{
+				socket.close();
+			}
+		}
+		catch (IOException io)
+		{
+			io.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Encrypt the message using the given mode into a frame: a header followed by
+	 * one fixed-width ciphertext block per packed block of the UTF-8 bytes of the message
+	 * @param message The given message
+	 * @param mode One of AUTHENTICATE, ENCRYPT, BOTH, HYBRID or SIGNED_HYBRID
+	 * @return The frame, from position 0 to its limit; the buffer is reused by the next call
+	 */
+	ByteBuffer encryptMessage(String message, int mode)
+	{
+		long startTime = System.nanoTime();
+		
+		PipelineStageEvent stage = PipelineStageEvent.start();
+		int length = encode(message);
+		stage.finish(PipelineStageEvent.CLIENT, PipelineStageEvent.ENCODE, mode, length, modulusBits[mode]);
+		
+		return encryptPlaintext(startTime, length, mode);
+	}
+	
+	/**
+	 * Encrypt a chunk of a file using the given mode into a frame, exactly like a message of the same bytes
+	 * @param chunk The bytes of the chunk, from its position to its limit; they are consumed
+	 * @param mode One of AUTHENTICATE, ENCRYPT, BOTH, HYBRID or SIGNED_HYBRID
+	 * @return The frame, from position 0 to its limit; the buffer is reused by the next call
+	 */
+	private ByteBuffer encryptChunk(ByteBuffer chunk, int mode)
+	{
+		long startTime = System.nanoTime();
+		int length = chunk.remaining();
+		
+		// the bytes of the chunk take the place of the encoded message
+		PipelineStageEvent stage = PipelineStageEvent.start();
+		
+		if (plaintext.capacity() < length)
+		{
+			plaintext = ByteBuffer.allocate(length);
+		}
+		
+		plaintext.clear();
+		plaintext.put(chunk);
+		stage.finish(PipelineStageEvent.CLIENT, PipelineStageEvent.ENCODE, mode, length, modulusBits[mode]);
+		
+		return encryptPlaintext(startTime, length, mode);
+	}
+	
+	/**
+	 * Encrypt the bytes in the plaintext buffer using the given mode into a frame
+	 * @param startTime The time the message started to be encrypted, in nanoseconds
+	 * @param length The number of bytes in the plaintext buffer
+	 * @param mode One of AUTHENTICATE, ENCRYPT, BOTH, HYBRID or SIGNED_HYBRID
+	 * @return The frame, from position 0 to its limit; the buffer is reused by the next call
+	 */
+	private ByteBuffer encryptPlaintext(long startTime, int length, int mode)
+	{
+		if (MessageFrame.isHybrid(mode))
+		{
+			return sealPlaintext(startTime, length, mode);
+		}
+		
+		int blockCount = BlockPacker.blockCount(length, blockSizes[mode]);
+		int frameSize = MessageFrame.HEADER_SIZE + blockCount * blockWidths[mode];
+		
+		PipelineStageEvent stage = PipelineStageEvent.start();
+		packBlocks(plaintext.array(), length, blockSizes[mode], blockCount);
+		stage.finish(PipelineStageEvent.CLIENT, PipelineStageEvent.PACK, mode, length, modulusBits[mode]);
+		
+		stage = PipelineStageEvent.start();
+		encryptBlocks(blockCount, mode);
+		stage.finish(PipelineStageEvent.CLIENT, PipelineStageEvent.ENCRYPT, mode, length, modulusBits[mode]);
+		
+		stage = PipelineStageEvent.start();
+		writeFrame(new MessageFrame(mode, blockWidths[mode], keyId, length, blockCount), frameSize);
+		stage.finish(PipelineStageEvent.CLIENT, PipelineStageEvent.SERIALIZE, mode, length, modulusBits[mode]);
+		
+		lastLength = length;
+		MessageStatistics.client(mode).record(System.nanoTime() - startTime, length, frameSize,
+				mode == BOTH ? 2L * blockCount : blockCount);
+		
+		return buffer;
+	}
+	
+	/**
+	 * Seal the bytes in the plaintext buffer using a hybrid mode into a frame: a header, the blocks
+	 * of the session key wrapped with RSA, and the bytes sealed with AES-GCM.
+	 * The session key is wrapped once, so RSA only runs for the first message of the session
+	 * @param startTime The time the message started to be encrypted, in nanoseconds
+	 * @param length The number of bytes in the plaintext buffer
+	 * @param mode One of HYBRID or SIGNED_HYBRID
+	 * @return The frame, from position 0 to its limit; the buffer is reused by the next call
+	 */
+	private ByteBuffer sealPlaintext(long startTime, int length, int mode)
+	{
+		PipelineStageEvent stage = PipelineStageEvent.start();
+		long operations = 0;
+		
+		if (session == null || wrappedMode != mode)
+		{
+			operations = wrapSessionKey(mode);
+		}
+		
+		int frameSize = MessageFrame.HEADER_SIZE + wrappedKey.length + length + SessionCipher.OVERHEAD;
+		
+		// grow the buffer if the message does not fit
+		if (buffer.capacity() < frameSize)
+		{
+			buffer = ByteBuffer.allocate(frameSize);
+		}
+		
+		buffer.clear();
+		new MessageFrame(mode, blockWidths[mode], keyId, length, wrappedBlocks).writeTo(buffer);
+		buffer.put(wrappedKey);
+		
+		plaintext.flip();
+		session.seal(ByteBuffer.wrap(buffer.array(), 0, MessageFrame.HEADER_SIZE), plaintext, buffer);
+		buffer.flip();
+		stage.finish(PipelineStageEvent.CLIENT, PipelineStageEvent.ENCRYPT, mode, length, modulusBits[mode]);
+		
+		lastLength = length;
+		MessageStatistics.client(mode).record(System.nanoTime() - startTime, length, frameSize, operations);
+		
+		return buffer;
+	}
+	
+	/**
+	 * Start the session if needed, and wrap its key with RSA for the given hybrid mode.
+	 * When an earlier connection to the same server already wrapped a key, its session is carried over instead
+	 * @param mode One of HYBRID or SIGNED_HYBRID
+	 * @return The number of modular exponentiations performed
+	 */
+	private long wrapSessionKey(int mode)
+	{
+		PeerKeyMaterial server = null;
+		
+		if (sessionName != null)
+		{
+			server = TCPServer.getPeerKeyCache().get(publicE, publicN);
+			SessionCache.Session cached = SESSIONS.get(sessionName);
+			
+			if (cached != null && cached.hasKey(server, mode))
+			{
+				session = cached.newCipher();
+				wrappedKey = cached.getWrappedKey();
+				wrappedBlocks = wrappedKey.length / blockWidths[mode];
+				wrappedMode = mode;
 				
-				outputStream.write(buffer);
+				return 0;
 			}
-			catch (IOException io)
+		}
+		
+		if (session == null)
+		{
+			session = SessionCipher.generate();
+		}
+		
+		byte[] key = session.getKey();
+		int keyMode = MessageFrame.keyMode(mode);
+		int blockCount = BlockPacker.blockCount(key.length, blockSizes[mode]);
+		
+		packBlocks(key, key.length, blockSizes[mode], blockCount);
+		encryptBlocks(blockCount, keyMode);
+		
+		ByteBuffer wrapped = ByteBuffer.allocate(blockCount * blockWidths[mode]);
+		putBlocks(wrapped, blockCount, blockWidths[mode]);
+		
+		wrappedKey = wrapped.array();
+		wrappedBlocks = blockCount;
+		wrappedMode = mode;
+		
+		if (server != null)
+		{
+			SESSIONS.put(sessionName, new SessionCache.Session(server, mode, session.copy(), wrappedKey));
+		}
+		
+		return keyMode == BOTH ? 2L * blockCount : blockCount;
+	}
+	
+	/**
+	 * Pack the given bytes into blocks
+	 * @param bytes The bytes to pack
+	 * @param length The number of bytes to pack
+	 * @param blockSize The number of bytes in a full block
+	 * @param blockCount The number of blocks
+	 */
+	private void packBlocks(byte[] bytes, int length, int blockSize, int blockCount)
+	{
+		// use the int arithmetic of PKIKey directly when both keys allow it
+		if (smallKey != null)
+		{
+			if (blocks.length < blockCount)
 			{
-				io.printStackTrace();
+				blocks = new int[blockCount];
+			}
+			
+			for (int i = 0, offset = 0; i < blockCount; i++, offset += blockSize)
+			{
+				// the last block holds whatever bytes are left
+				blocks[i] = (int) BlockPacker.pack(bytes, offset, Math.min(blockSize, length - offset));
+			}
+		}
+		else
+		{
+			if (bigBlocks.length < blockCount)
+			{
+				bigBlocks = new BigInteger[blockCount];
+			}
+			
+			for (int i = 0, offset = 0; i < blockCount; i++, offset += blockSize)
+			{
+				bigBlocks[i] = BlockPacker.packBig(bytes, offset, Math.min(blockSize, length - offset));
 			}
 		}
 	}
 	
 	/**
-	 * Send a message that is encrypted using both authentication and encryption processes
+	 * Encrypt the packed blocks in place, in parallel if there are enough of them
+	 * @param blockCount The number of blocks
+	 * @param mode One of AUTHENTICATE, ENCRYPT or BOTH
+	 */
+	private void encryptBlocks(int blockCount, int mode)
+	{
+		if (smallKey != null)
+		{
+			int[] values = blocks;
+			BlockTask.run(parallelPool, parallelThreshold, blockCount, (from, to) -> encrypt(values, from, to, mode));
+		}
+		else
+		{
+			BigInteger[] values = bigBlocks;
+			BlockTask.run(parallelPool, parallelThreshold, blockCount, (from, to) -> encrypt(values, from, to, mode));
+		}
+	}
+	
+	/**
+	 * Write the header and the encrypted blocks into the buffer, and flip it for sending
+	 * @param frame The header of the frame
+	 * @param frameSize The size of the whole frame in bytes
+	 */
+	private void writeFrame(MessageFrame frame, int frameSize)
+	{
+		// grow the buffer if the message does not fit
+		if (buffer.capacity() < frameSize)
+		{
+			buffer = ByteBuffer.allocate(frameSize);
+		}
+		
+		buffer.clear();
+		frame.writeTo(buffer);
+		putBlocks(buffer, frame.getBlockCount(), frame.getBlockWidth());
+		buffer.flip();
+	}
+	
+	/**
+	 * Write the encrypted blocks into the given buffer
+	 * @param dst The destination buffer
+	 * @param blockCount The number of blocks
+	 * @param width The width of a block in bytes
+	 */
+	private void putBlocks(ByteBuffer dst, int blockCount, int width)
+	{
+		for (int i = 0; i < blockCount; i++)
+		{
+			if (smallKey != null)
+			{
+				CiphertextCodec.putBlock(dst, blocks[i], width);
+			}
+			else
+			{
+				CiphertextCodec.putBlock(dst, bigBlocks[i], width);
+			}
+		}
+	}
+	
+	/**
+	 * Send a frame to the server
+	 * @param frame The frame, from position 0 to its limit
+	 * @param mode One of AUTHENTICATE, ENCRYPT, BOTH, HYBRID or SIGNED_HYBRID
+	 * @throws IOException If the frame cannot be sent
+	 */
+	private void write(ByteBuffer frame, int mode) throws IOException
+	{
+		PipelineStageEvent stage = PipelineStageEvent.start();
+		
+		synchronized (writeLock)
+		{
+			outputStream.write(frame.array(), 0, frame.limit());
+			lastWrite = System.nanoTime();
+		}
+		
+		stage.finish(PipelineStageEvent.CLIENT, PipelineStageEvent.WRITE, mode, lastLength, modulusBits[mode]);
+	}
+	
+	/**
+	 * Create a control frame of this client
+	 * @param type One of PING, CLOSE, ACKNOWLEDGE, STREAM or END
+	 * @return The bytes of the frame
+	 */
+	byte[] controlFrame(int type)
+	{
+		return MessageFrame.controlBytes(type, keyId);
+	}
+	
+	/**
+	 * Send a control frame to the server
+	 * @param type One of PING, CLOSE, ACKNOWLEDGE, STREAM or END
+	 * @throws IOException If the frame cannot be sent
+	 */
+	void writeControl(int type) throws IOException
+	{
+		synchronized (writeLock)
+		{
+			outputStream.write(controlFrame(type));
+			lastWrite = System.nanoTime();
+		}
+	}
+	
+	/**
+	 * Get the stream of what the server sends back once the handshake is over
+	 * @return The input stream of the connection
+	 * @throws IOException If the connection is closed
+	 */
+	InputStream getInputStream() throws IOException
+	{
+		return socket.getInputStream();
+	}
+	
+	/**
+	 * Encode the message as UTF-8 into the reused plaintext buffer
 	 * @param message The given message
+	 * @return The number of bytes of the encoded message
 	 */
-	public void encryptAndAuthenticate(String message)
+	private int encode(String message)
 	{
-		if (socket.isConnected())
+		int maxLength = (int) Math.ceil(message.length() * (double) encoder.maxBytesPerChar());
+		
+		// grow the buffer if the message does not fit
+		if (plaintext.capacity() < maxLength)
 		{
-			try
+			plaintext = ByteBuffer.allocate(maxLength);
+		}
+		
+		plaintext.clear();
+		encoder.reset();
+		encoder.encode(CharBuffer.wrap(message), plaintext, true);
+		encoder.flush(plaintext);
+		
+		return plaintext.position();
+	}
+	
+	/**
+	 * Encrypt a range of the given array in place using the given mode;
+	 * both keys must be small
+	 * @param values The given values
+	 * @param from The index of the first value
+	 * @param to The index after the last value
+	 * @param mode One of AUTHENTICATE, ENCRYPT or BOTH
+	 */
+	private void encrypt(int[] values, int from, int to, int mode)
+	{
+		int count = to - from;
+		
+		switch (mode) {
+		case AUTHENTICATE:
+			// encrypt the message using the client's private key values
+			smallKey.encryptPrivate(values, from, values, from, count);
+			break;
+			
+		case ENCRYPT:
+			// encrypt the message using the server's public key values
+			smallKey.encryptPublic(values, from, values, from, count, smallE, smallN);
+			break;
+			
+		default:
+			// compare the n value of this object against the other's
+			if (smallKey.getPublicN() < smallN)
 			{
 				/*
-				 * the character '$' serves as a mark that lets the server know that
-				 * any characters following '$' do not belong to the original message 
+				 *  if the n value of this object is smaller,
+				 *  authenticate first, and then encrypt
 				 */
-				long startTime = startFlag();
-				String messageMarked = message.concat("$");
-				char[] messageInChars = messageMarked.toCharArray();
-				
-				// encrypt the message
-				for (int i = 0; i < messageInChars.length; i++)
-				{
-					// compare the n value of this object against the other's
-					if (clientKey.getPublicN() < publicN)
-					{
-						/*
-						 *  if the n value of this object is smaller,
-						 *  authenticate first, and then encrypt
-						 */
-						int encrypted = clientKey.encryptPrivate(messageInChars[i]);
-						encrypted = clientKey.encryptPublic(encrypted, publicE, publicN);
-						messageInChars[i] = (char) encrypted;
-					}
-					else
-					{
-						// encrypt first and then authenticate otherwise
-						int encrypted = clientKey.encryptPublic(messageInChars[i], publicE, publicN);
-						encrypted = clientKey.encryptPrivate(encrypted);
-						messageInChars[i] = (char) encrypted;
-					}
-				}
-				
-				String encryptedMessage = String.valueOf(messageInChars);
-				
-				byte[] msgInBytes = encryptedMessage.getBytes("UTF-8");
-				System.arraycopy(msgInBytes, 0, buffer, 0, msgInBytes.length);
-				
-				// fill the empty spaces in the buffer with paddings;
-				if (msgInBytes.length < bufferSize)
-				{
-					for (int i = msgInBytes.length; i < bufferSize; i++)
-					{
-						buffer[i] = (byte) rand.nextInt(128);
-					}
-				}
-				
-				long endTime = endFlag(startTime);
-				System.out.println("The message has been encrypted as follows: \n"
-						+ new String(buffer, "UTF-8"));
-				
-				System.out.println("Time spent: " + endTime + "\n");
-				
-				outputStream.write(buffer);
+				smallKey.encryptPrivate(values, from, values, from, count);
+				smallKey.encryptPublic(values, from, values, from, count, smallE, smallN);
 			}
-			catch (IOException io)
+			else
 			{
-				io.printStackTrace();
+				// encrypt first and then authenticate otherwise
+				smallKey.encryptPublic(values, from, values, from, count, smallE, smallN);
+				smallKey.encryptPrivate(values, from, values, from, count);
 			}
 		}
 	}
 	
+	/**
+	 * Encrypt a range of the given array of values of any size in place using the given mode
+	 * @param values The given values
+	 * @param from The index of the first value
+	 * @param to The index after the last value
+	 * @param mode One of AUTHENTICATE, ENCRYPT or BOTH
+	 */
+	private void encrypt(BigInteger[] values, int from, int to, int mode)
+	{
+		for (int i = from; i < to; i++)
+		{
+			values[i] = encrypt(values[i], mode);
+		}
+	}
+	
+	/**
+	 * Encrypt a single value of any size using the given mode
+	 * @param m The given value
+	 * @param mode One of AUTHENTICATE, ENCRYPT or BOTH
+	 * @return The encrypted value
+	 */
+	private BigInteger encrypt(BigInteger m, int mode)
+	{
+		switch (mode) {
+		case AUTHENTICATE:
+			return clientKey.encryptPrivate(m);
+			
+		case ENCRYPT:
+			return clientKey.encryptPublic(m, publicE, publicN);
+			
+		default:
+			if (clientKey.getModulus().compareTo(publicN) < 0)
+			{
+				return clientKey.encryptPublic(clientKey.encryptPrivate(m), publicE, publicN);
+			}
+			
+			return clientKey.encryptPrivate(clientKey.encryptPublic(m, publicE, publicN));
+		}
+	}
+	
+	/**
+	 * Get the modulus that bounds the values accepted by the given mode
+	 * @param mode One of AUTHENTICATE, ENCRYPT or BOTH
+	 * @return The smallest modulus involved in any step
+	 */
+	private BigInteger plaintextModulus(int mode)
+	{
+		switch (mode) {
+		case AUTHENTICATE:
+			return clientKey.getModulus();
+			
+		case ENCRYPT:
+			return publicN;
+			
+		default:
+			return clientKey.getModulus().min(publicN);
+		}
+	}
+	
+	/**
+	 * Get the modulus that bounds the values produced by the given mode
+	 * @param mode One of AUTHENTICATE, ENCRYPT or BOTH
+	 * @return The largest modulus involved in the final step
+	 */
+	private BigInteger outputModulus(int mode)
+	{
+		switch (mode) {
+		case AUTHENTICATE:
+			return clientKey.getModulus();
+			
+		case ENCRYPT:
+			return publicN;
+			
+		default:
+			return clientKey.getModulus().max(publicN);
+		}
+	}
+	
 	/**
 	 * Mark the time when the encrypting started
-	 * @return The time when the encrypting started
+	 * @return The time when the encrypting started, in nanoseconds
 	 */
 	private long startFlag()
 	{
-		return System.currentTimeMillis();
+		return System.nanoTime();
 	}
 	
 	/**
 	 * Mark the time when the encrypting ended,
 	 * and return the overall time took to encrypt the message
 	 * @param startTime The starting time of the encryption
-	 * @return The total time spent to encrypt the message
+	 * @return The total time spent to encrypt the message, in nanoseconds
 	 */
 	private long endFlag(long startTime)
 	{
-		long endTime = System.currentTimeMillis();
+		long endTime = System.nanoTime();
 		
 		return endTime - startTime;
 	}
@@ -1,8 +1,22 @@
 package pki;
 
 import java.io.*;
+import java.math.BigInteger;
 import java.net.ServerSocket;
+import java.net.ProtocolException;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 // import java.net.SocketException;
 
 /**
@@ -12,39 +26,127 @@ import java.net.Socket;
  * @version 17-11-2020
  */
 public class TCPServer {
+	// the port the server listens on
+	static final int DEFAULT_PORT = 1234;
+	
+	// the time after which a connection that sent nothing, not even a ping, is closed
+	static final long DEFAULT_IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+	
+	// the types of decryption, matching the choices of PKIServerDriver
+	static final int AUTHENTICATE = MessageFrame.AUTHENTICATE;
+	static final int DECRYPT = MessageFrame.ENCRYPT;
+	static final int BOTH = MessageFrame.BOTH;
+	static final int HYBRID = MessageFrame.HYBRID;
+	static final int SIGNED_HYBRID = MessageFrame.SIGNED_HYBRID;
+	
+	// the public keys and derived values of the peers seen by this process
+	private static final PeerKeyCache PEER_KEYS = new PeerKeyCache(1024, 10, TimeUnit.MINUTES);
+	
+	// the sessions agreed with the clients of this process, by the key id of each client
+	private static final SessionCache<Long> SESSIONS = new SessionCache<>(1024, 10, TimeUnit.MINUTES);
+	
 	// list of instance variables
 	private ServerSocket serverSocket;
 	private Socket socket;
-	private InputStream inputStream;
-	private int bufferSize;
-	private int publicE;
-	private int publicN;
-	private PKIKey serverKey;
+	private DataInputStream inputStream;
+	private byte[] readBuffer;
+	private PeerKeyMaterial peer;
+	private RSAKey serverKey;
+	
+	// the sizes of the plaintext and ciphertext blocks, indexed by mode
+	private int[] blockSizes = new int[SIGNED_HYBRID + 1];
+	private int[] blockWidths = new int[SIGNED_HYBRID + 1];
+	private int[] modulusBits = new int[SIGNED_HYBRID + 1];
+	
+	// reused between messages so that decrypting does not allocate
+	private byte[] plaintext = new byte[0];
+	private int[] blocks = new int[0];
+	private BigInteger[] bigBlocks = new BigInteger[0];
+	
+	// the session of the hybrid modes, and the wrapped key it was unwrapped from
+	private SessionCipher session;
+	private ByteBuffer wrappedKey;
+	
+	// messages of at least this many blocks are decrypted in parallel on the pool
+	private ForkJoinPool parallelPool = ForkJoinPool.commonPool();
+	private int parallelThreshold = BlockTask.DEFAULT_THRESHOLD;
+	
+	// set when both keys are small enough for the int arithmetic of PKIKey
+	private PKIKey smallKey;
+	
+	// the id of the server's key in the control frames it sends, found when the first one is sent
+	private long keyId;
+	
+	// whether the client asked for an ack of every message, and the number of messages read so far
+	private boolean acknowledging;
+	private int messagesRead;
+	
+	// the directory the files sent by the client are saved in, or null to refuse them
+	private Path fileDirectory;
 	
 	/**
 	 * The constructor of TCPServer object
-	 * @param bufferSize The maximum size of the buffer
+	 * @param bufferSize The initial size of the buffer; it grows for longer messages
 	 * @param serverKey The PKIKey for the server
 	 * @param publicE The e value of the client's public key
 	 * @param publicN The n value of the client's public key
 	 */
 	public TCPServer(int bufferSize, PKIKey serverKey, int publicE, int publicN)
+	{
+		this(bufferSize, serverKey, BigInteger.valueOf(publicE), BigInteger.valueOf(publicN));
+	}
+	
+	/**
+	 * The constructor of TCPServer object that accepts keys of any size
+	 * @param bufferSize The initial size of the buffer; it grows for longer messages
+	 * @param serverKey The key for the server
+	 * @param publicE The e value of the client's public key
+	 * @param publicN The n value of the client's public key
+	 */
+	public TCPServer(int bufferSize, RSAKey serverKey, BigInteger publicE, BigInteger publicN)
 	{
 		try
 		{
-			this.bufferSize = bufferSize;
-			serverSocket = new ServerSocket(1234);
+			readBuffer = new byte[Math.max(bufferSize, MessageFrame.HEADER_SIZE)];
+			serverSocket = new ServerSocket(DEFAULT_PORT);
 			
-			this.publicE = publicE;
-			this.publicN = publicN;
+			setKeys(serverKey, PEER_KEYS.get(publicE, publicN));
 			
 			System.out.println("Waiting for client setup . . .");
 			
 			socket = serverSocket.accept();
-			inputStream = socket.getInputStream();
+			setIdleTimeout((int) DEFAULT_IDLE_TIMEOUT_MILLIS);
+			inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
 			
+			System.out.println("Connected!\n");
+		}
+		catch (IOException io)
+		{
+			io.printStackTrace();
+		}
+	}
+	
+	/**
+	 * The constructor of TCPServer object that learns the key of its client through a handshake
+	 * @param bufferSize The initial size of the buffer; it grows for longer messages
+	 * @param serverKey The key for the server
+	 * @param mode The type of decryption, which the client must agree to
+	 */
+	public TCPServer(int bufferSize, RSAKey serverKey, int mode)
+	{
+		try
+		{
+			readBuffer = new byte[Math.max(bufferSize, MessageFrame.HEADER_SIZE)];
+			serverSocket = new ServerSocket(DEFAULT_PORT);
 			this.serverKey = serverKey;
 			
+			System.out.println("Waiting for client setup . . .");
+			
+			socket = serverSocket.accept();
+			setIdleTimeout((int) DEFAULT_IDLE_TIMEOUT_MILLIS);
+			inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			acceptHandshake(mode);
+			
 			System.out.println("Connected!\n");
 		}
 		catch (IOException io)
@@ -54,189 +156,1022 @@ public class TCPServer {
 	}
 	
 	/**
-	 * Receive and decrypt the message
+	 * The constructor of TCPServer object for a client
+	 * that has already been accepted by ConcurrentTCPServer
+	 * @param socket The socket connected to the client
+	 * @param bufferSize The initial size of the buffer; it grows for longer messages
+	 * @param serverKey The key for the server
+	 * @param peer The public key of the client and its derived values, or null to learn it through a handshake
+	 * @throws IOException If the input stream of the socket cannot be opened
+	 */
+	TCPServer(Socket socket, int bufferSize, RSAKey serverKey, PeerKeyMaterial peer) throws IOException
+	{
+		this(bufferSize, serverKey, peer);
+		this.socket = socket;
+		inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+	}
+	
+	/**
+	 * The constructor of TCPServer object that only decrypts buffers
+	 * received by another transport, such as NioTCPServer
+	 * @param bufferSize The initial size of the buffer; it grows for longer messages
+	 * @param serverKey The key for the server
+	 * @param peer The public key of the client and its derived values, or null until usePeer is called
+	 */
+	TCPServer(int bufferSize, RSAKey serverKey, PeerKeyMaterial peer)
+	{
+		readBuffer = new byte[Math.max(bufferSize, MessageFrame.HEADER_SIZE)];
+		this.serverKey = serverKey;
+		
+		if (peer != null)
+		{
+			setKeys(serverKey, peer);
+		}
+	}
+	
+	/**
+	 * Receive and decrypt every message of the session
 	 * using the client's public key values
 	 */
 	public void authenticateAndPrint()
+	{
+		serveSession(AUTHENTICATE);
+	}
+	
+	/**
+	 * Receive and decrypt every message of the session
+	 * using the server's private key values
+	 */
+	public void decryptAndPrint()
+	{
+		serveSession(DECRYPT);
+	}
+	
+	/**
+	 * Receive and decrypt every message of the session
+	 * using both authentication and signature methods
+	 */
+	public void decryptAndAuthenticate()
+	{
+		serveSession(BOTH);
+	}
+	
+	/**
+	 * Receive and open every message of the session, sealed under a session key
+	 * that was encrypted for the server
+	 */
+	public void openAndPrint()
+	{
+		serveSession(HYBRID);
+	}
+	
+	/**
+	 * Receive and open every message of the session, sealed under a session key
+	 * that was both signed by the client and encrypted for the server
+	 */
+	public void openAndAuthenticate()
+	{
+		serveSession(SIGNED_HYBRID);
+	}
+	
+	/**
+	 * Receive, decrypt and print every message and file the client sends using the given mode,
+	 * until the client closes the session or the connection, or sends nothing, not even a ping,
+	 * for longer than the idle timeout. A message that fails ends the session,
+	 * as the rest of its frame may still be unread
+	 * @param mode One of AUTHENTICATE, DECRYPT, BOTH, HYBRID or SIGNED_HYBRID
+	 */
+	public void serveSession(int mode)
 	{
 		try
 		{
-			// receive message from the client
-			byte[] readBuffer = new byte[bufferSize];
-			inputStream.read(readBuffer);
+			boolean delivered = true;
+			
+			while (delivered && hasNextMessage())
+			{
+				delivered = receive(mode);
+				acknowledge(delivered);
+			}
+		}
+		catch (IOException io)
+		{
+			io.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Set the smallest number of blocks in a message that are decrypted in parallel
+	 * @param threshold The smallest number of blocks, or Integer.MAX_VALUE to always decrypt sequentially
+	 */
+	public void setParallelThreshold(int threshold)
+	{
+		parallelThreshold = threshold;
+	}
+	
+	/**
+	 * Set the fork-join pool that decrypts large messages in parallel
+	 * @param pool The pool, or null to always decrypt sequentially
+	 */
+	public void setParallelPool(ForkJoinPool pool)
+	{
+		parallelPool = pool;
+	}
+	
+	/**
+	 * Receive the message, decrypt it using the given mode, and print it;
+	 * a file is saved in the directory for files instead
+	 * @param mode One of AUTHENTICATE, DECRYPT, BOTH, HYBRID or SIGNED_HYBRID
+	 * @return Whether the message was received and decrypted
+	 */
+	boolean receive(int mode)
+	{
+		try
+		{
+			if (isFileNext())
+			{
+				long startTime = startFlag();
+				Path file = receiveFile(mode);
+				
+				long endTime = endFlag(startTime);
+				System.out.println("Received the file " + file + " (" + Files.size(file) + " bytes)");
+				
+				System.out.printf("Time spent: %.3f ms%n%n", endTime / 1e6);
+				
+				return true;
+			}
 			
-			String message = new String(readBuffer, "UTF-8");
+			// receive message from the client
+			ByteBuffer frame = readFrame();
 			
 			System.out.println("Received the encrypted message:\n" 
-					+ message + "\n");
+					+ CiphertextCodec.toHex(frame.array(), MessageFrame.HEADER_SIZE,
+							frame.limit() - MessageFrame.HEADER_SIZE) + "\n");
 			
 			// decrypt the message
 			long startTime = startFlag();
-			char[] messageInChar = message.toCharArray();
+			String finalMessage = decryptMessage(frame, mode);
+			
+			long endTime = endFlag(startTime);
+			System.out.println("Here's the decrypted message: \n" + finalMessage);
+			
+			System.out.printf("Time spent: %.3f ms%n%n", endTime / 1e6);
+			
+			return true;
+		}
+		catch (IOException io)
+		{
+			io.printStackTrace();
 			
-			for (int i = 0; i < messageInChar.length; i++)
+			return false;
+		}
+	}
+	
+	/**
+	 * Receive the message and decrypt it using the given mode without printing anything
+	 * @param mode One of AUTHENTICATE, DECRYPT, BOTH, HYBRID or SIGNED_HYBRID
+	 * @return The decrypted message
+	 * @throws IOException If the message cannot be read or is malformed
+	 */
+	String readMessage(int mode) throws IOException
+	{
+		return decryptMessage(readFrame(), mode);
+	}
+	
+	/**
+	 * Save the files the client sends in the given directory
+	 * @param directory The directory, or null to refuse files
+	 */
+	void setFileDirectory(Path directory)
+	{
+		fileDirectory = directory;
+	}
+	
+	/**
+	 * Check whether the client is about to send a file rather than a message, without reading anything
+	 * @return true if the next frame starts a file
+	 * @throws IOException If the connection fails
+	 */
+	boolean isFileNext() throws IOException
+	{
+		inputStream.mark(2);
+		inputStream.read();
+		int mode = inputStream.read();
+		inputStream.reset();
+		
+		return mode == MessageFrame.STREAM;
+	}
+	
+	/**
+	 * Receive a file chunk by chunk, decrypting every chunk into the file as soon as it arrives,
+	 * so that a file of any size takes no more memory than a chunk. The file is written under
+	 * a temporary name, and only takes its own name once the whole of it has arrived
+	 * @param mode One of AUTHENTICATE, DECRYPT, BOTH, HYBRID or SIGNED_HYBRID
+	 * @return The path of the received file
+	 * @throws IOException If the server does not accept files, the name of the file is not a plain name
+	 * within the directory, the file cannot be written, or a chunk is malformed or missing
+	 */
+	Path receiveFile(int mode) throws IOException
+	{
+		inputStream.readFully(readBuffer, 0, MessageFrame.HEADER_SIZE);
+		
+		// the whole file answers to a single ack, numbered before anything can fail
+		int sequence = ++messagesRead;
+		
+		try
+		{
+			if (fileDirectory == null)
 			{
-				int decrypted = serverKey.decryptPublic(messageInChar[i], publicE, publicN);
-				messageInChar[i] = (char) decrypted;
+				throw new ProtocolException("this server does not accept files");
 			}
 			
-			String decryptedMessage = String.valueOf(messageInChar);
-			
-			// remove paddings from the message
-			int endOfMsgIndex = 0;
+			// keep only the name of the file, so that the client cannot write outside the directory
+			String sentName = readMessage(mode);
+			Path target = null;
 			
-			while (endOfMsgIndex < decryptedMessage.length() && decryptedMessage.charAt(endOfMsgIndex) != '$')
+			try
 			{
-				endOfMsgIndex++;
+				Path name = Paths.get(sentName).getFileName();
+				
+				if (name != null && !name.toString().isEmpty() && !name.toString().equals(".")
+						&& !name.toString().equals(".."))
+				{
+					target = fileDirectory.resolve(name);
+				}
+			}
+			catch (InvalidPathException invalid)
+			{
+				// refused below
 			}
 			
-			String finalMessage = decryptedMessage.substring(0, endOfMsgIndex);
+			if (target == null || !fileDirectory.equals(target.getParent()) || Files.isDirectory(target))
+			{
+				throw new ProtocolException("the file cannot be saved as " + sentName);
+			}
 			
-			long endTime = endFlag(startTime);
-			System.out.println("Here's the decrypted message: \n" + finalMessage);
+			Path part = fileDirectory.resolve(target.getFileName() + ".part");
 			
-			System.out.println("Time spent: " + endTime + "\n");
+			try
+			{
+				try (FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE,
+						StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+				{
+					while (true)
+					{
+						inputStream.mark(MessageFrame.HEADER_SIZE);
+						inputStream.readFully(readBuffer, 0, MessageFrame.HEADER_SIZE);
+						
+						int frameMode = MessageFrame.readFrom(ByteBuffer.wrap(readBuffer, 0, MessageFrame.HEADER_SIZE))
+								.getMode();
+						
+						if (frameMode == MessageFrame.END)
+						{
+							break;
+						}
+						
+						if (frameMode == MessageFrame.PING)
+						{
+							continue;
+						}
+						
+						if (MessageFrame.isControl(frameMode))
+						{
+							throw new ProtocolException("the file was cut off by a frame of mode " + frameMode);
+						}
+						
+						// leave the header of the chunk to readFrame
+						inputStream.reset();
+						int length = decryptBytes(readFrame(), mode);
+						
+						ByteBuffer chunk = ByteBuffer.wrap(plaintext, 0, length);
+						
+						while (chunk.hasRemaining())
+						{
+							channel.write(chunk);
+						}
+					}
+				}
+				
+				return Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch (Exception failed)
+			{
+				// only files that arrived whole are left in the directory
+				try
+				{
+					Files.deleteIfExists(part);
+				}
+				catch (IOException cleanup)
+				{
+					failed.addSuppressed(cleanup);
+				}
+				
+				throw failed;
+			}
 		}
-		catch (IOException io)
+		finally
 		{
-			io.printStackTrace();
+			// the name and the chunks of the file are not messages of their own
+			messagesRead = sequence;
 		}
 	}
 	
 	/**
-	 * Receive and decrypt the message
-	 * using the server's private key values
+	 * Answer the handshake of the client if the connection opens with one, and use the key it introduces.
+	 * A client that sends its frames straight away must use the key this server was given
+	 * @param mode The type of decryption, which the client must agree to
+	 * @throws IOException If the handshake fails, or the client asked for another mode
 	 */
-	public void decryptAndPrint()
+	void acceptHandshake(int mode) throws IOException
 	{
-		try
+		inputStream.mark(1);
+		int first = inputStream.read();
+		inputStream.reset();
+		
+		if (first != Handshake.HELLO)
 		{
-			// receive message from the client
-			byte[] readBuffer = new byte[bufferSize];
-			inputStream.read(readBuffer);
+			if (peer == null)
+			{
+				throw new ProtocolException("the client did not introduce its key");
+			}
 			
-			String message = new String(readBuffer, "UTF-8");
+			return;
+		}
+		
+		OutputStream outputStream = socket.getOutputStream();
+		PeerKeyMaterial client = null;
+		
+		// a client resuming a session the server does not know introduces its key in a second hello
+		for (int attempt = 0; attempt < 2 && client == null; attempt++)
+		{
+			Handshake hello = Handshake.read(inputStream);
+			client = introduce(hello, mode);
 			
-			System.out.println("Received the encrypted message:\n" 
-					+ message + "\n");
+			Handshake answer = Handshake.answer(answerCode(hello, mode, client), mode, serverKey);
+			answer.write(outputStream);
 			
-			// decrypt the message
-			long startTime = startFlag();
-			char[] messageInChar = message.toCharArray();
+			if (answer.getCode() == Handshake.REJECTED)
+			{
+				throw new ProtocolException("the client asked for mode " + hello.getMode()
+						+ ", but the server performs mode " + mode);
+			}
+		}
+		
+		if (client == null)
+		{
+			throw new ProtocolException("the client did not introduce its key");
+		}
+		
+		usePeer(client);
+	}
+	
+	/**
+	 * Find the key of the client that sent a hello: the key the hello carries,
+	 * or the key of the session it resumes. A new key starts a session under its key id
+	 * @param hello The hello of the client
+	 * @param mode The type of decryption of this server
+	 * @return The public key of the client and its derived values, or null if the client
+	 * must introduce its key
+	 */
+	static PeerKeyMaterial introduce(Handshake hello, int mode)
+	{
+		if (!hello.hasKey())
+		{
+			SessionCache.Session session = SESSIONS.get(hello.getKeyId());
+			
+			return session == null ? null : session.getPeer();
+		}
+		
+		PeerKeyMaterial client = PEER_KEYS.get(hello.getPublicE(), hello.getPublicN());
+		
+		// keep the session key of a client that reconnects, so that it still skips RSA
+		if (SESSIONS.get(hello.getKeyId()) == null)
+		{
+			SESSIONS.put(hello.getKeyId(), new SessionCache.Session(client, mode, null, null));
+		}
+		
+		return client;
+	}
+	
+	/**
+	 * Choose the code of the answer to a hello
+	 * @param hello The hello of the client
+	 * @param mode The type of decryption of this server
+	 * @param client The key of the client found by introduce, or null
+	 * @return One of Handshake.ACCEPTED, RESUMED, UNKNOWN_SESSION or REJECTED
+	 */
+	static int answerCode(Handshake hello, int mode, PeerKeyMaterial client)
+	{
+		if (hello.getCode() != Handshake.HELLO || hello.getMode() != mode)
+		{
+			return Handshake.REJECTED;
+		}
+		
+		if (client == null)
+		{
+			return Handshake.UNKNOWN_SESSION;
+		}
+		
+		return hello.hasKey() ? Handshake.ACCEPTED : Handshake.RESUMED;
+	}
+	
+	/**
+	 * Decrypt the messages of the given client from now on, forgetting the session of the previous one
+	 * @param peer The public key of the client and its derived values
+	 */
+	void usePeer(PeerKeyMaterial peer)
+	{
+		if (peer != this.peer)
+		{
+			setKeys(serverKey, peer);
+			session = null;
+			wrappedKey = null;
+		}
+	}
+	
+	/**
+	 * Wait until the client starts sending another message or file, or ends the session.
+	 * Pings are skipped, an acknowledge makes the server ack every later message,
+	 * and a session that stays idle for longer than the timeout of the socket
+	 * is ended by the server, which tells the client with a close frame of its own
+	 * @return true if another message or file is arriving, false if the client closed the session or the connection,
+	 * or was idle for too long
+	 * @throws IOException If the connection fails or a control frame is malformed
+	 */
+	boolean hasNextMessage() throws IOException
+	{
+		while (true)
+		{
+			inputStream.mark(MessageFrame.HEADER_SIZE);
 			
-			for (int i = 0; i < messageInChar.length; i++)
+			try
+			{
+				if (inputStream.read() < 0)
+				{
+					return false;
+				}
+			}
+			catch (SocketTimeoutException idle)
 			{
-				int decrypted = serverKey.decryptPrivate(messageInChar[i]);
-				messageInChar[i] = (char) decrypted;
+				closeSession();
+				return false;
 			}
 			
-			String decryptedMessage = String.valueOf(messageInChar);
+			inputStream.reset();
+			inputStream.readFully(readBuffer, 0, MessageFrame.HEADER_SIZE);
 			
-			// remove paddings from the message
-			int endOfMsgIndex = 0;
+			int mode = MessageFrame.readFrom(ByteBuffer.wrap(readBuffer, 0, MessageFrame.HEADER_SIZE)).getMode();
 			
-			while (endOfMsgIndex < decryptedMessage.length() && decryptedMessage.charAt(endOfMsgIndex) != '$')
+			if (mode == MessageFrame.CLOSE)
 			{
-				endOfMsgIndex++;
+				return false;
 			}
 			
-			String finalMessage = decryptedMessage.substring(0, endOfMsgIndex);
+			if (mode == MessageFrame.ACKNOWLEDGE)
+			{
+				acknowledging = true;
+			}
+			else if (!MessageFrame.isControl(mode) || mode == MessageFrame.STREAM)
+			{
+				// leave the header of the message or file to readFrame or receiveFile
+				inputStream.reset();
+				return true;
+			}
+		}
+	}
+	
+	/**
+	 * Close every connection that sends nothing, not even a ping, for the given time
+	 * @param timeoutMillis The idle timeout in milliseconds, or 0 to wait forever
+	 * @throws IOException If the timeout cannot be set
+	 */
+	void setIdleTimeout(int timeoutMillis) throws IOException
+	{
+		socket.setSoTimeout(timeoutMillis);
+	}
+	
+	/**
+	 * End the session from the server's side, telling the client with a close frame
+	 */
+	void closeSession()
+	{
+		try
+		{
+			reply(MessageFrame.CLOSE, 0);
+		}
+		catch (IOException gone)
+		{
+			// the client is gone already
+		}
+	}
+	
+	/**
+	 * Answer the last message read with an ack, or with a nack if it was not delivered,
+	 * provided the client asked for them
+	 * @param delivered Whether the message was decrypted and delivered
+	 * @throws IOException If the answer cannot be sent
+	 */
+	void acknowledge(boolean delivered) throws IOException
+	{
+		if (acknowledging)
+		{
+			reply(delivered ? MessageFrame.ACK : MessageFrame.NACK, messagesRead);
+		}
+	}
+	
+	/**
+	 * Send a control frame to the client
+	 * @param type One of the control frames
+	 * @param sequence The number of the message an ACK or a NACK answers, or 0
+	 * @throws IOException If the frame cannot be sent
+	 */
+	private void reply(int type, int sequence) throws IOException
+	{
+		if (keyId == 0)
+		{
+			keyId = PeerKeyMaterial.keyId(serverKey.getPublicExponent(), serverKey.getModulus());
+		}
+		
+		socket.getOutputStream().write(MessageFrame.controlBytes(type, keyId, sequence));
+	}
+	
+	/**
+	 * Read a whole frame from the client: the header, and then exactly the payload it announces
+	 * @return The frame, from position 0 to its limit; the buffer is reused by the next call
+	 * @throws IOException If the frame cannot be read, its header is malformed, or it is a control frame
+	 */
+	private ByteBuffer readFrame() throws IOException
+	{
+		PipelineStageEvent stage = PipelineStageEvent.start();
+		inputStream.readFully(readBuffer, 0, MessageFrame.HEADER_SIZE);
+		
+		// number the message as soon as it starts, so that a nack answers it even if the rest fails
+		messagesRead++;
+		
+		MessageFrame frame = MessageFrame.readFrom(ByteBuffer.wrap(readBuffer, 0, MessageFrame.HEADER_SIZE));
+		
+		// control frames are answered by hasNextMessage, so one here is out of place
+		if (MessageFrame.isControl(frame.getMode()))
+		{
+			throw new ProtocolException("expected a message, but the client sent a control frame of mode "
+					+ frame.getMode());
+		}
+		
+		int frameSize = MessageFrame.HEADER_SIZE + frame.getPayloadSize();
+		
+		// grow the buffer if the message does not fit, keeping the header
+		if (readBuffer.length < frameSize)
+		{
+			byte[] larger = new byte[frameSize];
+			System.arraycopy(readBuffer, 0, larger, 0, MessageFrame.HEADER_SIZE);
+			readBuffer = larger;
+		}
+		
+		inputStream.readFully(readBuffer, MessageFrame.HEADER_SIZE, frame.getPayloadSize());
+		stage.finish(PipelineStageEvent.SERVER, PipelineStageEvent.READ, frame.getMode(), frame.getLength(),
+				modulusBits[frame.getMode()]);
+		
+		return ByteBuffer.wrap(readBuffer, 0, frameSize);
+	}
+	
+	/**
+	 * Decrypt a received frame using the given mode.
+	 * The buffers of the decryption are reused, so a single server must not decrypt from several threads
+	 * @param frameBuffer The frame received from the client, from its header to the end of its payload
+	 * @param mode One of AUTHENTICATE, DECRYPT, BOTH, HYBRID or SIGNED_HYBRID
+	 * @return The decrypted message
+	 * @throws ProtocolException If the frame does not match the mode or the keys of this server
+	 */
+	String decryptMessage(ByteBuffer frameBuffer, int mode) throws ProtocolException
+	{
+		int length = decryptBytes(frameBuffer, mode);
+		
+		PipelineStageEvent stage = PipelineStageEvent.start();
+		String message = new String(plaintext, 0, length, StandardCharsets.UTF_8);
+		stage.finish(PipelineStageEvent.SERVER, PipelineStageEvent.DECODE, mode, length, modulusBits[mode]);
+		
+		return message;
+	}
+	
+	/**
+	 * Decrypt a received frame using the given mode into the plaintext buffer of this server
+	 * @param frameBuffer The frame received from the client, from its header to the end of its payload
+	 * @param mode One of AUTHENTICATE, DECRYPT, BOTH, HYBRID or SIGNED_HYBRID
+	 * @return The number of bytes of plaintext, which start at index 0 of the buffer
+	 * @throws ProtocolException If the frame does not match the mode or the keys of this server
+	 */
+	private int decryptBytes(ByteBuffer frameBuffer, int mode) throws ProtocolException
+	{
+		if (MessageFrame.isHybrid(mode))
+		{
+			return openBytes(frameBuffer, mode);
+		}
+		
+		long startTime = System.nanoTime();
+		
+		PipelineStageEvent stage = PipelineStageEvent.start();
+		MessageFrame frame = MessageFrame.readFrom(frameBuffer);
+		checkFrame(frame, mode);
+		
+		int blockCount = frame.getBlockCount();
+		int length = frame.getLength();
+		readBlocks(frameBuffer, blockCount, blockWidths[mode]);
+		stage.finish(PipelineStageEvent.SERVER, PipelineStageEvent.PARSE, mode, length, modulusBits[mode]);
+		
+		stage = PipelineStageEvent.start();
+		decryptBlocks(blockCount, mode);
+		stage.finish(PipelineStageEvent.SERVER, PipelineStageEvent.DECRYPT, mode, length, modulusBits[mode]);
+		
+		stage = PipelineStageEvent.start();
+		
+		if (plaintext.length < length)
+		{
+			plaintext = new byte[length];
+		}
+		
+		unpackBlocks(plaintext, length, blockSizes[mode], blockCount);
+		stage.finish(PipelineStageEvent.SERVER, PipelineStageEvent.UNPACK, mode, length, modulusBits[mode]);
+		
+		MessageStatistics.server(mode).record(System.nanoTime() - startTime, length,
+				MessageFrame.HEADER_SIZE + frame.getPayloadSize(), mode == BOTH ? 2L * blockCount : blockCount);
+		
+		return length;
+	}
+	
+	/**
+	 * Open a frame sealed using a hybrid mode: unwrap the session key from the blocks
+	 * unless it is the key of the last message, then open the sealed bytes of the message with it
+	 * @param frameBuffer The frame received from the client, from its header to the end of its payload
+	 * @param mode One of HYBRID or SIGNED_HYBRID
+	 * @return The number of bytes of plaintext, which start at index 0 of the plaintext buffer
+	 * @throws ProtocolException If the frame does not match the mode or the keys of this server,
+	 * or the message was altered
+	 */
+	private int openBytes(ByteBuffer frameBuffer, int mode) throws ProtocolException
+	{
+		long startTime = System.nanoTime();
+		
+		PipelineStageEvent stage = PipelineStageEvent.start();
+		ByteBuffer header = frameBuffer.duplicate();
+		MessageFrame frame = MessageFrame.readFrom(frameBuffer);
+		checkFrame(frame, mode);
+		
+		header.limit(header.position() + MessageFrame.HEADER_SIZE);
+		
+		int blockCount = frame.getBlockCount();
+		int length = frame.getLength();
+		ByteBuffer wrapped = frameBuffer.duplicate();
+		wrapped.limit(wrapped.position() + blockCount * blockWidths[mode]);
+		stage.finish(PipelineStageEvent.SERVER, PipelineStageEvent.PARSE, mode, length, modulusBits[mode]);
+		
+		stage = PipelineStageEvent.start();
+		long operations = 0;
+		
+		if (session == null || !wrapped.equals(wrappedKey))
+		{
+			operations = unwrapSessionKey(wrapped, blockCount, mode);
+		}
+		
+		if (plaintext.length < length)
+		{
+			plaintext = new byte[length];
+		}
+		
+		ByteBuffer sealed = frameBuffer.duplicate();
+		sealed.position(wrapped.limit()).limit(wrapped.limit() + length + SessionCipher.OVERHEAD);
+		session.open(header, sealed, ByteBuffer.wrap(plaintext, 0, length));
+		stage.finish(PipelineStageEvent.SERVER, PipelineStageEvent.DECRYPT, mode, length, modulusBits[mode]);
+		
+		MessageStatistics.server(mode).record(System.nanoTime() - startTime, length,
+				MessageFrame.HEADER_SIZE + frame.getPayloadSize(), operations);
+		
+		return length;
+	}
+	
+	/**
+	 * Decrypt the session key of a hybrid mode from its blocks, and start a session with it.
+	 * When another connection of the same client already unwrapped these blocks,
+	 * its session is carried over instead
+	 * @param wrapped The blocks of the session key, from its position to its limit
+	 * @param blockCount The number of blocks
+	 * @param mode One of HYBRID or SIGNED_HYBRID
+	 * @return The number of modular exponentiations performed
+	 * @throws ProtocolException If the blocks do not hold a session key
+	 */
+	private long unwrapSessionKey(ByteBuffer wrapped, int blockCount, int mode) throws ProtocolException
+	{
+		SessionCache.Session cached = SESSIONS.get(peer.getKeyId());
+		
+		if (cached != null && cached.hasKey(peer, mode) && wrapped.equals(ByteBuffer.wrap(cached.getWrappedKey())))
+		{
+			session = cached.newCipher();
+			wrappedKey = ByteBuffer.wrap(cached.getWrappedKey());
 			
-			long endTime = endFlag(startTime);
-			System.out.println("Here's the decrypted message: \n" + finalMessage);
+			return 0;
+		}
+		
+		int keyMode = MessageFrame.keyMode(mode);
+		byte[] key = new byte[SessionCipher.KEY_SIZE];
+		
+		// keep a copy of the blocks, so that the next message under the same key skips RSA
+		ByteBuffer copy = ByteBuffer.allocate(wrapped.remaining());
+		copy.put(wrapped.duplicate()).flip();
+		
+		readBlocks(wrapped, blockCount, blockWidths[mode]);
+		decryptBlocks(blockCount, keyMode);
+		unpackBlocks(key, key.length, blockSizes[mode], blockCount);
+		
+		session = new SessionCipher(key);
+		wrappedKey = copy;
+		SESSIONS.put(peer.getKeyId(), new SessionCache.Session(peer, mode, session.copy(), copy.array()));
+		
+		return keyMode == BOTH ? 2L * blockCount : blockCount;
+	}
+	
+	/**
+	 * Read the encrypted blocks that follow the header of a frame
+	 * @param frameBuffer The frame, positioned after its header
+	 * @param blockCount The number of blocks
+	 * @param width The width of a block in bytes
+	 */
+	private void readBlocks(ByteBuffer frameBuffer, int blockCount, int width)
+	{
+		// use the int arithmetic of PKIKey directly when both keys allow it
+		if (smallKey != null)
+		{
+			if (blocks.length < blockCount)
+			{
+				blocks = new int[blockCount];
+			}
 			
-			System.out.println("Time spent: " + endTime + "\n");
+			for (int i = 0; i < blockCount; i++)
+			{
+				blocks[i] = (int) CiphertextCodec.getBlock(frameBuffer, width);
+			}
 		}
-		catch (IOException io)
+		else
 		{
-			io.printStackTrace();
+			if (bigBlocks.length < blockCount)
+			{
+				bigBlocks = new BigInteger[blockCount];
+			}
+			
+			for (int i = 0; i < blockCount; i++)
+			{
+				bigBlocks[i] = CiphertextCodec.getBigBlock(frameBuffer, width);
+			}
 		}
 	}
 	
 	/**
-	 * Receive and decrypt the message
-	 * using both authentication and signature methods
+	 * Decrypt the blocks in place, in parallel if there are enough of them
+	 * @param blockCount The number of blocks
+	 * @param mode One of AUTHENTICATE, DECRYPT or BOTH
 	 */
-	public void decryptAndAuthenticate()
+	private void decryptBlocks(int blockCount, int mode)
 	{
-		try
+		if (smallKey != null)
 		{
-			// receive message from the client
-			byte[] readBuffer = new byte[bufferSize];
-			inputStream.read(readBuffer);
-			
-			String message = new String(readBuffer, "UTF-8");
+			int[] values = blocks;
+			BlockTask.run(parallelPool, parallelThreshold, blockCount, (from, to) -> decrypt(values, from, to, mode));
+		}
+		else
+		{
+			BigInteger[] values = bigBlocks;
+			BlockTask.run(parallelPool, parallelThreshold, blockCount, (from, to) -> decrypt(values, from, to, mode));
+		}
+	}
+	
+	/**
+	 * Unpack the decrypted blocks into the given bytes
+	 * @param dst The destination array, with room for length bytes
+	 * @param length The number of bytes to unpack
+	 * @param blockSize The number of bytes in a full block
+	 * @param blockCount The number of blocks
+	 */
+	private void unpackBlocks(byte[] dst, int length, int blockSize, int blockCount)
+	{
+		for (int i = 0, offset = 0; i < blockCount; i++, offset += blockSize)
+		{
+			// the last block holds whatever bytes are left
+			if (smallKey != null)
+			{
+				BlockPacker.unpack(blocks[i], dst, offset, Math.min(blockSize, length - offset));
+			}
+			else
+			{
+				BlockPacker.unpack(bigBlocks[i], dst, offset, Math.min(blockSize, length - offset));
+			}
+		}
+	}
+	
+	/**
+	 * Check if the header of a frame matches the mode and the keys of this server
+	 * @param frame The header of the frame
+	 * @param mode One of AUTHENTICATE, DECRYPT, BOTH, HYBRID or SIGNED_HYBRID
+	 * @throws ProtocolException If the frame does not match
+	 */
+	private void checkFrame(MessageFrame frame, int mode) throws ProtocolException
+	{
+		if (frame.getMode() != mode)
+		{
+			throw new ProtocolException("the client used mode " + frame.getMode()
+					+ ", but the server expects mode " + mode);
+		}
+		
+		if (peer == null || frame.getKeyId() != peer.getKeyId())
+		{
+			throw new ProtocolException("the message was sent with an unknown key");
+		}
+		
+		// the blocks of a hybrid mode hold the session key rather than the message
+		int packedLength = MessageFrame.isHybrid(mode) ? SessionCipher.KEY_SIZE : frame.getLength();
+		
+		if (frame.getBlockWidth() != blockWidths[mode]
+				|| frame.getBlockCount() != BlockPacker.blockCount(packedLength, blockSizes[mode]))
+		{
+			throw new ProtocolException("the blocks of the message do not match the keys");
+		}
+	}
+	
+	/**
+	 * Set the keys used to decrypt the messages
+	 * @param serverKey The key for the server
+	 * @param peer The public key of the client and its derived values
+	 */
+	private void setKeys(RSAKey serverKey, PeerKeyMaterial peer)
+	{
+		this.serverKey = serverKey;
+		this.peer = peer;
+		smallKey = serverKey instanceof PKIKey && peer.isSmall() ? (PKIKey) serverKey : null;
+		
+		// the hybrid modes use the blocks of the mode that wraps their session key
+		for (int mode = AUTHENTICATE; mode <= SIGNED_HYBRID; mode++)
+		{
+			int keyMode = MessageFrame.keyMode(mode);
 			
-			System.out.println("Received the encrypted message:\n" 
-					+ message + "\n");
+			blockSizes[mode] = BlockPacker.blockSize(plaintextModulus(keyMode));
+			blockWidths[mode] = CiphertextCodec.blockWidth(inputModulus(keyMode));
+			modulusBits[mode] = inputModulus(keyMode).bitLength();
+		}
+	}
+	
+	/**
+	 * Decrypt a range of the given array in place using the given mode;
+	 * both keys must be small
+	 * @param values The given encrypted values
+	 * @param from The index of the first value
+	 * @param to The index after the last value
+	 * @param mode One of AUTHENTICATE, DECRYPT or BOTH
+	 */
+	private void decrypt(int[] values, int from, int to, int mode)
+	{
+		int count = to - from;
+		
+		boolean lookup = smallKey.usesLookupTables();
+		
+		switch (mode) {
+		case AUTHENTICATE:
+			peer.publicOperation(values, from, values, from, count, lookup);
+			break;
 			
-			// decrypt the message
-			long startTime = startFlag();
-			char[] messageInChar = message.toCharArray();
+		case DECRYPT:
+			smallKey.decryptPrivate(values, from, values, from, count);
+			break;
 			
-			for (int i = 0; i < messageInChar.length; i++)
+		default:
+			/*
+			 * check if the n value of this object is
+			 * larger than the value of the other's
+			 */
+			if (peer.getSmallN() < smallKey.getPublicN())
 			{
-				/*
-				 * check if the n value of this object is
-				 * larger than the value of the other's
-				 */
-				if (publicN < serverKey.getPublicN())
-				{
-					// if so, decrypt then authenticate
-					int decrypted = serverKey.decryptPrivate(messageInChar[i]);
-					decrypted = serverKey.decryptPublic(decrypted, publicE, publicN);
-					messageInChar[i] = (char) decrypted;
-				}
-				else
-				{
-					// do the opposite otherwise
-					int decrypted = serverKey.decryptPublic(messageInChar[i], publicE, publicN);
-					decrypted = serverKey.decryptPrivate(decrypted);
-					messageInChar[i] = (char) decrypted;
-				}
+				// if so, decrypt then authenticate
+				smallKey.decryptPrivate(values, from, values, from, count);
+				peer.publicOperation(values, from, values, from, count, lookup);
 			}
+			else
+			{
+				// do the opposite otherwise
+				peer.publicOperation(values, from, values, from, count, lookup);
+				smallKey.decryptPrivate(values, from, values, from, count);
+			}
+		}
+	}
+	
+	/**
+	 * Decrypt a range of the given array of values of any size in place using the given mode
+	 * @param values The given encrypted values
+	 * @param from The index of the first value
+	 * @param to The index after the last value
+	 * @param mode One of AUTHENTICATE, DECRYPT or BOTH
+	 */
+	private void decrypt(BigInteger[] values, int from, int to, int mode)
+	{
+		for (int i = from; i < to; i++)
+		{
+			values[i] = decrypt(values[i], mode);
+		}
+	}
+	
+	/**
+	 * Decrypt a single value of any size using the given mode
+	 * @param c The given encrypted value
+	 * @param mode One of AUTHENTICATE, DECRYPT or BOTH
+	 * @return The decrypted value
+	 */
+	private BigInteger decrypt(BigInteger c, int mode)
+	{
+		switch (mode) {
+		case AUTHENTICATE:
+			return serverKey.decryptPublic(c, peer.getPublicE(), peer.getPublicN());
 			
-			String decryptedMessage = String.valueOf(messageInChar);
-			
-			// remove paddings from the message
-			int endOfMsgIndex = 0;
+		case DECRYPT:
+			return serverKey.decryptPrivate(c);
 			
-			while (endOfMsgIndex < decryptedMessage.length() && decryptedMessage.charAt(endOfMsgIndex) != '$')
+		default:
+			if (peer.getPublicN().compareTo(serverKey.getModulus()) < 0)
 			{
-				endOfMsgIndex++;
+				return serverKey.decryptPublic(serverKey.decryptPrivate(c), peer.getPublicE(), peer.getPublicN());
 			}
 			
-			String finalMessage = decryptedMessage.substring(0, endOfMsgIndex);
+			return serverKey.decryptPrivate(serverKey.decryptPublic(c, peer.getPublicE(), peer.getPublicN()));
+		}
+	}
+	
+	/**
+	 * Get the modulus that bounds the values received in the given mode
+	 * @param mode One of AUTHENTICATE, DECRYPT or BOTH
+	 * @return The largest modulus involved in the client's final step
+	 */
+	private BigInteger inputModulus(int mode)
+	{
+		switch (mode) {
+		case AUTHENTICATE:
+			return peer.getPublicN();
 			
-			long endTime = endFlag(startTime);
-			System.out.println("Here's the decrypted message: \n" + finalMessage);
+		case DECRYPT:
+			return serverKey.getModulus();
 			
-			System.out.println("Time spent: " + endTime + "\n");
+		default:
+			return serverKey.getModulus().max(peer.getPublicN());
 		}
-		catch (IOException io)
-		{
-			io.printStackTrace();
+	}
+	
+	/**
+	 * Get the modulus that bounds the values recovered by the given mode
+	 * @param mode One of AUTHENTICATE, DECRYPT or BOTH
+	 * @return The smallest modulus involved in any step
+	 */
+	private BigInteger plaintextModulus(int mode)
+	{
+		switch (mode) {
+		case AUTHENTICATE:
+			return peer.getPublicN();
+			
+		case DECRYPT:
+			return serverKey.getModulus();
+			
+		default:
+			return serverKey.getModulus().min(peer.getPublicN());
 		}
 	}
 	
+	/**
+	 * Get the cache of peer public keys shared by the servers of this process
+	 * @return The cache of peer public keys
+	 */
+	public static PeerKeyCache getPeerKeyCache()
+	{
+		return PEER_KEYS;
+	}
+	
+	/**
+	 * Get the cache of the sessions agreed with the clients of this process
+	 * @return The cache of sessions, by the key id of each client
+	 */
+	public static SessionCache<Long> getSessionCache()
+	{
+		return SESSIONS;
+	}
+	
 	/**
 	 * Mark the time when the decrypting started
-	 * @return The time when the decrypting started
+	 * @return The time when the decrypting started, in nanoseconds
 	 */
 	private long startFlag()
 	{
-		return System.currentTimeMillis();
+		return System.nanoTime();
 	}
 	
 	/**
 	 * Mark the time when the decrypting ended,
 	 * and return the overall time took to decrypt the message
 	 * @param startTime The starting time of the decryption
-	 * @return The total time spent to decrypt the message
+	 * @return The total time spent to decrypt the message, in nanoseconds
 	 */
 	private long endFlag(long startTime)
 	{
-		long endTime = System.currentTimeMillis();
+		long endTime = System.nanoTime();
 		
 		return endTime - startTime;
 	}
@@ -0,0 +1,191 @@
+package pki;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * The benchmark comparing the blocking transport (ConcurrentTCPServer and TCPClient)
+ * against the non-blocking one (NioTCPServer and NioTCPClient) on the loopback interface.
+ * Usage: TransportBenchmark [connections] [concurrency] [mode]
+ *
+ * @author Sua "Joshua" Lee
+ * @version 17-10-2026
+ */
+public class TransportBenchmark {
+	private static final int BUFFER_SIZE = 256;
+
+	public static void main(String[] args) throws Exception
+	{
+		int connections = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+		int mode = args.length > 2 ? Integer.parseInt(args[2]) : TCPServer.DECRYPT;
+
+		PKIKey clientKey = new PKIKey(127, 113, 5);
+		PKIKey serverKey = new PKIKey(109, 103, 7);
+		clientKey.setLookupTables(true);
+		serverKey.setLookupTables(true);
+
+		System.out.println("connections=" + connections + " concurrency=" + concurrency + " mode=" + mode);
+
+		// run each transport twice and report the second run, once the JIT has warmed up
+		for (int run = 0; run < 2; run++)
+		{
+			long[] blocking = runBlocking(connections, concurrency, mode, clientKey, serverKey);
+			long[] nonBlocking = runNonBlocking(connections, concurrency, mode, clientKey, serverKey);
+
+			if (run == 1)
+			{
+				report("blocking", blocking);
+				report("nio", nonBlocking);
+			}
+		}
+	}
+
+	/**
+	 * Serve the clients with ConcurrentTCPServer, sending from a pool of blocking TCPClients
+	 * @return The elapsed time followed by the latency of every message, in nanoseconds
+	 */
+	private static long[] runBlocking(int connections, int concurrency, int mode, PKIKey clientKey, PKIKey serverKey)
+			throws Exception
+	{
+		long[] results = new long[connections + 1];
+		CountDownLatch received = new CountDownLatch(connections);
+
+		try (ConcurrentTCPServer server = new ConcurrentTCPServer(BUFFER_SIZE, serverKey,
+				clientKey.getPublicExponent(), clientKey.getModulus()))
+		{
+			server.setMessageListener(recorder(results, received));
+			Thread acceptor = new Thread(() -> server.serve(mode));
+			acceptor.start();
+
+			ExecutorService senders = Executors.newFixedThreadPool(concurrency);
+			long startTime = System.nanoTime();
+
+			for (int i = 0; i < connections; i++)
+			{
+				int id = i;
+
+				senders.execute(() -> {
+					String message = stamp(id);
+					TCPClient client = new TCPClient("localhost", BUFFER_SIZE, clientKey,
+							serverKey.getPublicE(), serverKey.getPublicN());
+
+					try
+					{
+						client.sendMessage(message, mode);
+					}
+					catch (IOException io)
+					{
+						io.printStackTrace();
+					}
+					finally
+					{
+						client.close();
+					}
+				});
+			}
+
+			received.await(60, TimeUnit.SECONDS);
+			results[0] = System.nanoTime() - startTime;
+			senders.shutdown();
+		}
+
+		return results;
+	}
+
+	/**
+	 * Serve the clients with NioTCPServer, sending from a single NioTCPClient
+	 * @return The elapsed time followed by the latency of every message, in nanoseconds
+	 */
+	private static long[] runNonBlocking(int connections, int concurrency, int mode, PKIKey clientKey,
+			PKIKey serverKey) throws Exception
+	{
+		long[] results = new long[connections + 1];
+		CountDownLatch received = new CountDownLatch(connections);
+
+		try (NioTCPServer server = new NioTCPServer(BUFFER_SIZE, serverKey,
+				clientKey.getPublicExponent(), clientKey.getModulus()))
+		{
+			server.setMessageListener(recorder(results, received));
+			Thread selectorThread = new Thread(() -> server.serve(mode));
+			selectorThread.start();
+
+			NioTCPClient client = new NioTCPClient("localhost", BUFFER_SIZE, clientKey,
+					serverKey.getPublicExponent(), serverKey.getModulus());
+
+			// every message is stamped only when its connection is started
+			List<String> messages = new AbstractList<String>() {
+				@Override
+				public String get(int index)
+				{
+					return stamp(index);
+				}
+
+				@Override
+				public int size()
+				{
+					return connections;
+				}
+			};
+
+			long startTime = System.nanoTime();
+			client.sendAll(messages, mode, concurrency);
+
+			received.await(60, TimeUnit.SECONDS);
+			results[0] = System.nanoTime() - startTime;
+		}
+
+		return results;
+	}
+
+	/**
+	 * Create a message carrying its id and the time it was created
+	 */
+	private static String stamp(int id)
+	{
+		return id + ":" + System.nanoTime();
+	}
+
+	/**
+	 * Create the listener that records the latency of every stamped message
+	 */
+	private static Consumer<String> recorder(long[] results, CountDownLatch received)
+	{
+		return message -> {
+			int separator = message.indexOf(':');
+			int id = Integer.parseInt(message.substring(0, separator));
+
+			results[id + 1] = System.nanoTime() - Long.parseLong(message.substring(separator + 1));
+			received.countDown();
+		};
+	}
+
+	/**
+	 * Print the throughput and the latency percentiles of a run
+	 */
+	private static void report(String transport, long[] results)
+	{
+		long[] latencies = Arrays.copyOfRange(results, 1, results.length);
+		Arrays.sort(latencies);
+
+		double seconds = results[0] / 1e9;
+
+		System.out.printf("%-8s %10.0f connections/s  p50 %8.3f ms  p99 %8.3f ms%n", transport,
+				latencies.length / seconds, percentile(latencies, 0.50) / 1e6, percentile(latencies, 0.99) / 1e6);
+	}
+
+	/**
+	 * Get the given percentile of the sorted values
+	 */
+	private static long percentile(long[] sorted, double fraction)
+	{
+		return sorted[Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1)];
+	}
+}